@@ -0,0 +1,67 @@
+/*
+ * Copyright 2012 Foundation for On-Line Genealogy, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.folg.werelatedata.examples;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+
+import nu.xom.ParsingException;
+
+import org.folg.werelatedata.parser.WikiReader;
+import org.folg.werelatedata.rules.MultiSpouseFamilyRule;
+import org.folg.werelatedata.rules.NoUsernameMySourceRule;
+import org.folg.werelatedata.rules.Rule;
+import org.folg.werelatedata.rules.RuleEngine;
+
+/**
+ * Runs all of the data-quality rules in one read of the dump
+ */
+public class CheckRules {
+
+   // Generate a wiki list for each rule, named after the rule
+   // args array: 0=pages.xml 1=output directory
+   public static void main(String[] args)
+           throws IOException, ParsingException
+   {
+      if (args.length != 2) {
+         System.out.println("Usage: <pages file in> <output directory>");
+         System.exit(1);
+      }
+
+      RuleEngine engine = new RuleEngine();
+      Rule[] rules = {
+         new MultiSpouseFamilyRule(true),
+         new MultiSpouseFamilyRule(false),
+         new NoUsernameMySourceRule(),
+      };
+      for (Rule rule : rules) {
+         engine.addRule(rule, new PrintWriter(new File(args[1], rule.getName() + ".wiki"), "UTF-8"));
+      }
+
+      WikiReader wikiReader = new WikiReader(WikiReader.Engine.STAX);
+      wikiReader.setSkipRedirects(true);
+      wikiReader.setLatestRevisionOnly(true);
+      wikiReader.setThreads(Runtime.getRuntime().availableProcessors());
+      wikiReader.addWikiParser(engine);
+      wikiReader.read(args[0]);
+      engine.close();
+
+      for (Rule rule : engine.getRules()) {
+         System.out.println(rule.getName() + ": " + engine.getHits(rule));
+      }
+   }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2012 Foundation for On-Line Genealogy, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.folg.werelatedata.examples;
+
+import nu.xom.ParsingException;
+import org.folg.werelatedata.parser.RevisionParser;
+import org.folg.werelatedata.parser.Util;
+import org.folg.werelatedata.parser.WikiReader;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * This class counts the edits each user has made, and the number of characters added or removed by those edits,
+ * from a full-history dump
+ */
+public class EditHistory implements RevisionParser {
+   private static class UserEdits {
+      int edits;
+      int pages;
+      long charsChanged;
+      String firstTimestamp;
+      String lastTimestamp;
+   }
+
+   private Map<String,UserEdits> userEdits = new TreeMap<String,UserEdits>();
+   private int prevPageId = 0;
+   private int prevLength = 0;
+   private Set<String> pageUsers = new HashSet<String>();
+
+   public void parseRevision(String title, int pageId, int revId, String username, String timestamp, String comment, CharSequence text) {
+      if (pageId != prevPageId) {
+         prevPageId = pageId;
+         prevLength = 0;
+         pageUsers.clear();
+      }
+      username = Util.nullToEmpty(username);
+      UserEdits edits = userEdits.get(username);
+      if (edits == null) {
+         edits = new UserEdits();
+         edits.firstTimestamp = timestamp;
+         userEdits.put(username, edits);
+      }
+      edits.edits++;
+      if (pageUsers.add(username)) {
+         edits.pages++;
+      }
+      edits.charsChanged += Math.abs(text.length() - prevLength);
+      edits.lastTimestamp = timestamp;
+      prevLength = text.length();
+   }
+
+   // Generate a summary of each user's edits
+   // args array: 0=pages.xml (full history) 1=user_edits.csv
+   public static void main(String[] args)
+           throws IOException, ParsingException
+   {
+      if (args.length != 2) {
+         System.out.println("Usage: <pages file in> <user edits out>");
+         System.exit(1);
+      }
+
+      WikiReader wikiReader = new WikiReader(WikiReader.Engine.STAX);
+      EditHistory self = new EditHistory();
+      wikiReader.addRevisionParser(self);
+      wikiReader.read(args[0]);
+
+      PrintWriter out = new PrintWriter(args[1]);
+      for (Map.Entry<String,UserEdits> entry : self.userEdits.entrySet()) {
+         UserEdits edits = entry.getValue();
+         out.println(entry.getKey() + "|" + edits.edits + "|" + edits.pages + "|" + edits.charsChanged + "|" +
+                     edits.firstTimestamp + "|" + edits.lastTimestamp);
+      }
+      out.close();
+   }
+}
@@ -1,16 +1,17 @@
 package org.folg.werelatedata.examples;
 
-import nu.xom.Element;
-import nu.xom.Elements;
 import nu.xom.ParsingException;
+import org.folg.werelatedata.parser.FamilyRecord;
+import org.folg.werelatedata.parser.JobRunner;
+import org.folg.werelatedata.parser.PageText;
 import org.folg.werelatedata.parser.Util;
 import org.folg.werelatedata.parser.WikiParser;
 import org.folg.werelatedata.parser.WikiReader;
 
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.PrintWriter;
+import java.util.Collections;
+import java.util.Set;
 
 /**
  * User: dallan
@@ -20,20 +21,29 @@ public class FindMultiSpouseFamilies extends WikiParser {
    private PrintWriter outSameGender = null;
    private PrintWriter outDiffGender = null;
 
+   private static final Set<Integer> NAMESPACES = Collections.singleton(Util.NS_FAMILY);
+
+   public Set<Integer> getNamespaces() {
+      return NAMESPACES;
+   }
+
    public void parse(String title, String text, int pageId, int latestRevId, String username, String timestamp, String comment)
            throws IOException, ParsingException {
+      parse(title, new PageText(text), pageId, latestRevId, username, timestamp, comment);
+   }
+
+   public void parse(String title, PageText text, int pageId, int latestRevId, String username, String timestamp, String comment)
+           throws IOException, ParsingException {
       if (title.startsWith("Family:")) {
-         String[] split = splitStructuredWikiText("family", text);
-         String structuredData = split[0];
-         if (!Util.isEmpty(structuredData)) {
-            Element root = parseText(structuredData).getRootElement();
-            Elements wives = root.getChildElements("wife");
-            Elements husbands = root.getChildElements("husband");
+         FamilyRecord family = getFamilyRecord(text);
+         if (family != null) {
+            int wives = family.getWifeCount();
+            int husbands = family.getHusbandCount();
 
-            if (wives.size() > 0 && husbands.size() > 0 && wives.size() + husbands.size() > 2) {
+            if (wives > 0 && husbands > 0 && wives + husbands > 2) {
                outDiffGender.println("* [["+title+"]]");
             }
-            else if ((wives.size() == 0 || husbands.size() == 0) && wives.size() + husbands.size() > 1) {
+            else if ((wives == 0 || husbands == 0) && wives + husbands > 1) {
                outSameGender.println("* [["+title+"]]");
             }
          }
@@ -45,6 +55,22 @@ public class FindMultiSpouseFamilies extends WikiParser {
       this.outDiffGender = outDiffGender;
    }
 
+   /**
+    * Create a job for a JobRunner
+    */
+   public static JobRunner.Job createJob(String sameGenderFilename, String diffGenderFilename) throws IOException {
+      final FindMultiSpouseFamilies self = new FindMultiSpouseFamilies();
+      final PrintWriter outSameGender = new PrintWriter(sameGenderFilename);
+      final PrintWriter outDiffGender = new PrintWriter(diffGenderFilename);
+      self.setOutput(outSameGender, outDiffGender);
+      return new JobRunner.Job("FindMultiSpouseFamilies", self, true) {
+         public void finish() {
+            outSameGender.close();
+            outDiffGender.close();
+         }
+      };
+   }
+
    // Generate lists of families that have unlikely spouse combinations: three or more, or two husbands/wives and zero of the other
    // args array: 0=pages.xml 1=samegender.wiki 2=diffgender.wiki
    public static void main(String[] args)
@@ -55,16 +81,15 @@ public class FindMultiSpouseFamilies extends WikiParser {
          System.exit(1);
       }
 
-      WikiReader wikiReader = new WikiReader();
+      WikiReader wikiReader = new WikiReader(WikiReader.Engine.STAX);
       wikiReader.setSkipRedirects(true);
+      wikiReader.setLatestRevisionOnly(true);
       FindMultiSpouseFamilies self = new FindMultiSpouseFamilies();
       PrintWriter outSameGender = new PrintWriter(args[1]);
       PrintWriter outDiffGender = new PrintWriter(args[2]);
       self.setOutput(outSameGender, outDiffGender);
       wikiReader.addWikiParser(self);
-      InputStream in = new FileInputStream(args[0]);
-      wikiReader.read(in);
-      in.close();
+      wikiReader.read(args[0]);
       outSameGender.close();
       outDiffGender.close();
    }
@@ -1,13 +1,15 @@
 package org.folg.werelatedata.examples;
 
 import nu.xom.ParsingException;
+import org.folg.werelatedata.parser.JobRunner;
+import org.folg.werelatedata.parser.Util;
 import org.folg.werelatedata.parser.WikiParser;
 import org.folg.werelatedata.parser.WikiReader;
 
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.PrintWriter;
+import java.util.Collections;
+import java.util.Set;
 
 /*
  * Copyright 2012 Foundation for On-Line Genealogy Inc.
@@ -27,6 +29,12 @@ import java.io.PrintWriter;
 public class FindNoUsernameMySources extends WikiParser {
    private PrintWriter out = null;
 
+   private static final Set<Integer> NAMESPACES = Collections.singleton(Util.NS_MYSOURCE);
+
+   public Set<Integer> getNamespaces() {
+      return NAMESPACES;
+   }
+
    public void parse(String title, String text, int pageId, int latestRevId, String username, String timestamp, String comment)
            throws IOException {
       if (title.startsWith("MySource:") && !title.contains("/")) {
@@ -38,6 +46,20 @@ public class FindNoUsernameMySources extends WikiParser {
       this.out = out;
    }
 
+   /**
+    * Create a job for a JobRunner
+    */
+   public static JobRunner.Job createJob(String titlesFilename) throws IOException {
+      final FindNoUsernameMySources self = new FindNoUsernameMySources();
+      final PrintWriter out = new PrintWriter(titlesFilename);
+      self.setOutput(out);
+      return new JobRunner.Job("FindNoUsernameMySources", self, true) {
+         public void finish() {
+            out.close();
+         }
+      };
+   }
+
    // Generate a list of mysource titles without a / in the title
    // args array: 0=pages.xml 1=titles.wiki
    public static void main(String[] args) throws IOException, ParsingException {
@@ -52,9 +74,7 @@ public class FindNoUsernameMySources extends WikiParser {
       PrintWriter out = new PrintWriter(args[1]);
       self.setOutput(out);
       wikiReader.addWikiParser(self);
-      InputStream in = new FileInputStream(args[0]);
-      wikiReader.read(in);
-      in.close();
+      wikiReader.read(args[0]);
       out.close();
    }
 }
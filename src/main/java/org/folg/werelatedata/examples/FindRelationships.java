@@ -0,0 +1,108 @@
+/*
+ * Copyright 2012 Foundation for On-Line Genealogy, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.folg.werelatedata.examples;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.folg.werelatedata.graph.FamilyGraph;
+import org.folg.werelatedata.graph.IntList;
+import org.folg.werelatedata.graph.RelationshipFinder;
+
+/**
+ * Lists how each pair of people in a file is related, using a graph file written by MakeFamilyGraph
+ */
+public class FindRelationships {
+
+   // Each line of the pairs file holds two person titles separated by a tab
+   // args array: 0=graph file 1=pairs file 2=relationships.wiki [3=max depth]
+   public static void main(String[] args)
+           throws IOException, InterruptedException
+   {
+      if (args.length != 3 && args.length != 4) {
+         System.out.println("Usage: <graph file in> <pairs file in> <relationships wikitext out> [max depth]");
+         System.exit(1);
+      }
+
+      FamilyGraph graph = FamilyGraph.load(args[0]);
+      RelationshipFinder finder = new RelationshipFinder(graph);
+      if (args.length > 3) {
+         finder.setMaxDepth(Integer.parseInt(args[3]));
+      }
+
+      List<String[]> pairs = new ArrayList<String[]>();
+      IntList from = new IntList();
+      IntList to = new IntList();
+      BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(args[1]), "UTF-8"));
+      try {
+         String line;
+         while ((line = in.readLine()) != null) {
+            String[] fields = line.split("\t");
+            if (fields.length == 2) {
+               pairs.add(fields);
+               from.add(graph.findPerson(fields[0].trim()));
+               to.add(graph.findPerson(fields[1].trim()));
+            }
+         }
+      }
+      finally {
+         in.close();
+      }
+
+      // only look up the pairs whose people are both in the graph; the others are reported as not found below
+      int[] fromIds = from.toArray();
+      int[] toIds = to.toArray();
+      IntList queries = new IntList();
+      IntList queryFrom = new IntList();
+      IntList queryTo = new IntList();
+      for (int i = 0; i < fromIds.length; i++) {
+         if (fromIds[i] >= 0 && toIds[i] >= 0) {
+            queries.add(i);
+            queryFrom.add(fromIds[i]);
+            queryTo.add(toIds[i]);
+         }
+      }
+      long start = System.currentTimeMillis();
+      RelationshipFinder.Relationship[] found = finder.find(queryFrom.toArray(), queryTo.toArray(), Runtime.getRuntime().availableProcessors());
+      long elapsed = System.currentTimeMillis() - start;
+      RelationshipFinder.Relationship[] relationships = new RelationshipFinder.Relationship[fromIds.length];
+      for (int i = 0; i < found.length; i++) {
+         relationships[queries.get(i)] = found[i];
+      }
+
+      PrintWriter out = new PrintWriter(args[2], "UTF-8");
+      int related = 0;
+      for (int i = 0; i < relationships.length; i++) {
+         if (fromIds[i] < 0 || toIds[i] < 0) {
+            out.println("* " + (fromIds[i] < 0 ? pairs.get(i)[0] : pairs.get(i)[1]) + " not found");
+         }
+         else if (relationships[i] == null) {
+            out.println("* [[Person:" + graph.getPersonTitle(fromIds[i]) + "]] and [[Person:" + graph.getPersonTitle(toIds[i]) + "]] are not related");
+         }
+         else {
+            out.println("* " + relationships[i].toWikiText(graph));
+            related++;
+         }
+      }
+      out.close();
+      System.out.println(relationships.length + " pairs, " + related + " related, " + elapsed + " ms");
+   }
+}
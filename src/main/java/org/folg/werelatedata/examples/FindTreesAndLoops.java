@@ -0,0 +1,65 @@
+/*
+ * Copyright 2012 Foundation for On-Line Genealogy, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.folg.werelatedata.examples;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.List;
+
+import nu.xom.ParsingException;
+
+import org.folg.werelatedata.graph.FamilyGraph;
+import org.folg.werelatedata.graph.FamilyGraphBuilder;
+import org.folg.werelatedata.graph.GraphAnalyzer;
+
+/**
+ * Lists the separate family trees, and the people who are their own ancestors
+ */
+public class FindTreesAndLoops {
+
+   // Generate a list of trees, largest first, and a list of loops in the parent edges
+   // args array: 0=pages.xml or graph file 1=trees.wiki 2=loops.wiki [3=smallest tree to list]
+   public static void main(String[] args)
+           throws IOException, ParsingException
+   {
+      if (args.length != 3 && args.length != 4) {
+         System.out.println("Usage: <pages or graph file in> <trees wikitext out> <loops wikitext out> [smallest tree size]");
+         System.exit(1);
+      }
+
+      String filename = args[0];
+      FamilyGraph graph;
+      if (filename.endsWith(".xml") || filename.endsWith(".gz") || filename.endsWith(".bz2") || filename.endsWith(".store")) {
+         graph = FamilyGraphBuilder.read(filename);
+      }
+      else {
+         graph = FamilyGraph.load(filename);
+      }
+      int minSize = (args.length > 3 ? Integer.parseInt(args[3]) : 1);
+
+      GraphAnalyzer analyzer = new GraphAnalyzer(graph);
+      GraphAnalyzer.Components components = analyzer.findComponents();
+      PrintWriter outTrees = new PrintWriter(args[1], "UTF-8");
+      analyzer.writeComponents(components, minSize, outTrees);
+      outTrees.close();
+
+      List<int[]> cycles = analyzer.findCycles();
+      PrintWriter outLoops = new PrintWriter(args[2], "UTF-8");
+      analyzer.writeCycles(cycles, outLoops);
+      outLoops.close();
+      System.out.println("trees=" + components.getCount() + " loops=" + cycles.size());
+   }
+}
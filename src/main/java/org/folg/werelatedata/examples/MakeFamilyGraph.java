@@ -0,0 +1,70 @@
+/*
+ * Copyright 2012 Foundation for On-Line Genealogy, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.folg.werelatedata.examples;
+
+import java.io.IOException;
+
+import nu.xom.ParsingException;
+
+import org.folg.werelatedata.graph.FamilyGraph;
+import org.folg.werelatedata.graph.FamilyGraphBuilder;
+import org.folg.werelatedata.graph.IntList;
+
+/**
+ * Builds the family graph for a dump and writes it to a file,
+ * or loads a graph file and lists the ancestors and descendants of a person
+ */
+public class MakeFamilyGraph {
+
+   // Build the family graph, or show a person's ancestors and descendants
+   // args array: 0=pages.xml 1=graph file
+   //          or 0=graph file 1=person title
+   public static void main(String[] args)
+           throws IOException, ParsingException
+   {
+      if (args.length != 2) {
+         System.out.println("Usage: <pages file in> <graph file out>");
+         System.out.println("   or: <graph file in> <person title>");
+         System.exit(1);
+      }
+
+      if (args[0].endsWith(".xml") || args[0].endsWith(".gz") || args[0].endsWith(".bz2") || args[0].endsWith(".store")) {
+         FamilyGraph graph = FamilyGraphBuilder.read(args[0]);
+         graph.write(args[1]);
+         System.out.println("people=" + graph.getPersonCount() + " families=" + graph.getFamilyCount());
+      }
+      else {
+         FamilyGraph graph = FamilyGraph.load(args[0]);
+         int person = graph.findPerson(args[1]);
+         if (person < 0) {
+            System.out.println("Person not found: " + args[1]);
+            System.exit(1);
+         }
+         IntList people = new IntList();
+         graph.getAncestors(person, 0, people);
+         System.out.println("Ancestors: " + people.size());
+         for (int i = 0; i < people.size(); i++) {
+            System.out.println("* [[Person:" + graph.getPersonTitle(people.get(i)) + "]]");
+         }
+         people.clear();
+         graph.getDescendants(person, 0, people);
+         System.out.println("Descendants: " + people.size());
+         for (int i = 0; i < people.size(); i++) {
+            System.out.println("* [[Person:" + graph.getPersonTitle(people.get(i)) + "]]");
+         }
+      }
+   }
+}
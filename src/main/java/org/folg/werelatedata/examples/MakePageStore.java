@@ -0,0 +1,47 @@
+/*
+ * Copyright 2012 Foundation for On-Line Genealogy, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.folg.werelatedata.examples;
+
+import nu.xom.ParsingException;
+import org.folg.werelatedata.parser.PageStoreWriter;
+import org.folg.werelatedata.parser.WikiReader;
+
+import java.io.IOException;
+
+/**
+ * Converts a dump into a PageStore, which the other examples can read in place of pages.xml,
+ * and optionally a PageIndex for looking up single pages in the store
+ */
+public class MakePageStore {
+   // Convert the latest revision of every page to a page store
+   // args array: 0=pages.xml 1=pages.store 2=pages.index (optional)
+   public static void main(String[] args)
+           throws IOException, ParsingException
+   {
+      if (args.length < 2 || args.length > 3) {
+         System.out.println("Usage: <pages file in> <page store out> [page index out]");
+         System.exit(1);
+      }
+
+      WikiReader wikiReader = new WikiReader(WikiReader.Engine.STAX);
+      wikiReader.setSkipRedirects(false);
+      wikiReader.setLatestRevisionOnly(true);
+      PageStoreWriter writer = new PageStoreWriter(args[1], args.length > 2 ? args[2] : null);
+      wikiReader.addWikiParser(writer);
+      wikiReader.read(args[0]);
+      writer.close();
+   }
+}
@@ -15,15 +15,17 @@
  */
 package org.folg.werelatedata.examples;
 
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.PrintWriter;
+import java.util.Collections;
+import java.util.Set;
 
 import nu.xom.ParsingException;
-import nu.xom.Element;
-import nu.xom.Elements;
 
+import org.folg.werelatedata.parser.EventFacts;
+import org.folg.werelatedata.parser.JobRunner;
+import org.folg.werelatedata.parser.PageText;
+import org.folg.werelatedata.parser.PersonRecord;
 import org.folg.werelatedata.parser.Util;
 import org.folg.werelatedata.parser.WikiParser;
 import org.folg.werelatedata.parser.WikiReader;
@@ -36,43 +38,30 @@ import org.folg.werelatedata.parser.WikiReader;
 public class People extends WikiParser {
    private PrintWriter out = null;
 
+   private static final Set<Integer> NAMESPACES = Collections.singleton(Util.NS_PERSON);
+
+   public Set<Integer> getNamespaces() {
+      return NAMESPACES;
+   }
+
    public void parse(String title, String text, int pageId, int latestRevId, String username, String timestamp, String comment)
            throws IOException, ParsingException {
+      parse(title, new PageText(text), pageId, latestRevId, username, timestamp, comment);
+   }
+
+   public void parse(String title, PageText text, int pageId, int latestRevId, String username, String timestamp, String comment)
+           throws IOException, ParsingException {
       if (title.startsWith("Person:")) {
          title = title.substring("Person:".length());
-         String[] split = splitStructuredWikiText("person", text);
-         String structuredData = split[0];
-         if (!Util.isEmpty(structuredData)) {
-            Element root = parseText(structuredData).getRootElement();
-            Element elm;
-            Elements elms;
-            String given = "";
-            String surname = "";
-            String birthDate = "";
-            String birthPlace = "";
-            String deathDate = "";
-            String deathPlace = "";
-
-            // get name
-            elms = root.getChildElements("name");
-            if (elms.size() > 0) {
-               elm = elms.get(0);
-               given = Util.nullToEmpty(elm.getAttributeValue("given"));
-               surname = Util.nullToEmpty(elm.getAttributeValue("surname"));
-            }
-            // get {birth,death}{date,place}
-            elms = root.getChildElements("event_fact");
-            for (int i = 0; i < elms.size(); i++) {
-               elm = elms.get(i);
-               if ("Birth".equals(elm.getAttributeValue("type"))) {
-                  birthDate = Util.nullToEmpty(elm.getAttributeValue("date"));
-                  birthPlace = Util.nullToEmpty(Util.getPreBar(elm.getAttributeValue("place")));
-               }
-               else if ("Death".equals(elm.getAttributeValue("type"))) {
-                  deathDate = Util.nullToEmpty(elm.getAttributeValue("date"));
-                  deathPlace = Util.nullToEmpty(Util.getPreBar(elm.getAttributeValue("place")));
-               }
-            }
+         PersonRecord person = getPersonRecord(text);
+         if (person != null) {
+            EventFacts eventFacts = person.getEventFacts();
+            String given = person.getGiven();
+            String surname = person.getSurname();
+            String birthDate = eventFacts.getDate("Birth");
+            String birthPlace = eventFacts.getPlaceTitle("Birth");
+            String deathDate = eventFacts.getDate("Death");
+            String deathPlace = eventFacts.getPlaceTitle("Death");
 
             out.println(title+"|"+given+"|"+surname+"|"+birthDate+"|"+birthPlace+"|"+deathDate+"|"+deathPlace);
          }
@@ -83,20 +72,33 @@ public class People extends WikiParser {
       this.out = out;
    }
 
+   /**
+    * Create a job for a JobRunner
+    */
+   public static JobRunner.Job createJob(String peopleFilename) throws IOException {
+      final People self = new People();
+      final PrintWriter out = new PrintWriter(peopleFilename);
+      self.setOutput(out);
+      return new JobRunner.Job("People", self, true) {
+         public void finish() {
+            out.close();
+         }
+      };
+   }
+
    // Generate various lists of places
    // args array: 0=pages.xml 1=people.csv
    public static void main(String[] args)
            throws IOException, ParsingException
    {
-      WikiReader wikiReader = new WikiReader();
+      WikiReader wikiReader = new WikiReader(WikiReader.Engine.STAX);
       wikiReader.setSkipRedirects(true);
+      wikiReader.setLatestRevisionOnly(true);
       People self = new People();
       PrintWriter out = new PrintWriter(args[1]);
       self.setOutput(out);
       wikiReader.addWikiParser(self);
-      InputStream in = new FileInputStream(args[0]);
-      wikiReader.read(in);
-      in.close();
+      wikiReader.read(args[0]);
       out.close();
    }
 }
@@ -15,20 +15,34 @@
  */
 package org.folg.werelatedata.examples;
 
-import java.io.FileInputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.PrintWriter;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Set;
 
-import com.google.gson.Gson;
+import com.google.gson.stream.JsonWriter;
 import nu.xom.ParsingException;
-import nu.xom.Element;
-import nu.xom.Elements;
 
+import org.folg.werelatedata.parser.CombinableWikiParser;
+import org.folg.werelatedata.parser.EventFacts;
+import org.folg.werelatedata.parser.ExternalSorter;
+import org.folg.werelatedata.parser.FamilyRecord;
+import org.folg.werelatedata.parser.IncrementalWikiParser;
+import org.folg.werelatedata.parser.JobRunner;
+import org.folg.werelatedata.parser.JsonLinesWriter;
+import org.folg.werelatedata.parser.MemoryBudget;
+import org.folg.werelatedata.parser.PageResults;
+import org.folg.werelatedata.parser.PageText;
+import org.folg.werelatedata.parser.PersonRecord;
+import org.folg.werelatedata.parser.RecordCodec;
+import org.folg.werelatedata.parser.ShardedWikiReader;
 import org.folg.werelatedata.parser.Util;
 import org.folg.werelatedata.parser.WikiParser;
+import org.folg.werelatedata.parser.WikiParserFactory;
 import org.folg.werelatedata.parser.WikiReader;
 
 /**
@@ -36,7 +50,7 @@ import org.folg.werelatedata.parser.WikiReader;
  * It's in a strange format -- one json object per line, with rather odd field names
  * User: dallan
  */
-public class PeopleAsJson extends WikiParser {
+public class PeopleAsJson extends CombinableWikiParser implements IncrementalWikiParser {
    private static class Person {
       String person_id = "";
       String first_names = "";
@@ -59,6 +73,7 @@ public class PeopleAsJson extends WikiParser {
    }
 
    private static class Family {
+      String title = "";
       String husbandGiven = "";
       String husbandSurname = "";
       String wifeGiven = "";
@@ -67,133 +82,357 @@ public class PeopleAsJson extends WikiParser {
       String marriagePlace = "";
    }
 
-   public Map<String,Person> people = new HashMap<String, Person>();
-   private Map<String,Family> families = new HashMap<String, Family>();
+   // the person or family found on a page, kept from run to run when the parser is incremental
+   private static class PageResult {
+      Person person;
+      Family family;
+   }
+
+   private ExternalSorter<Person> people;
+   private ExternalSorter<Family> families;
+   private MemoryBudget budget;
+   private PageResults<PageResult> pageResults;
+   private String nextPageResultsFilename;
+
+   private static final Comparator<Person> PERSON_ID_ORDER = new Comparator<Person>() {
+      public int compare(Person p1, Person p2) {
+         return p1.person_id.compareTo(p2.person_id);
+      }
+   };
+
+   private static final Comparator<Person> CHILD_OF_FAMILY_ORDER = new Comparator<Person>() {
+      public int compare(Person p1, Person p2) {
+         return p1.child_of_family_title.compareTo(p2.child_of_family_title);
+      }
+   };
+
+   private static final Comparator<Person> SPOUSE_OF_FAMILY_ORDER = new Comparator<Person>() {
+      public int compare(Person p1, Person p2) {
+         return p1.spouse_of_family_title.compareTo(p2.spouse_of_family_title);
+      }
+   };
+
+   private static final Comparator<Family> FAMILY_TITLE_ORDER = new Comparator<Family>() {
+      public int compare(Family f1, Family f2) {
+         return f1.title.compareTo(f2.title);
+      }
+   };
+
+   private static final RecordCodec<Person> PERSON_CODEC = new RecordCodec<Person>() {
+      public void write(DataOutput out, Person p) throws IOException {
+         out.writeUTF(p.person_id);
+         out.writeUTF(p.first_names);
+         out.writeUTF(p.last_names);
+         out.writeUTF(p.gender);
+         out.writeUTF(p.birth_date_str);
+         out.writeUTF(p.birth_place);
+         out.writeUTF(p.marriage_date_str);
+         out.writeUTF(p.marriage_place);
+         out.writeUTF(p.death_date_str);
+         out.writeUTF(p.death_place);
+         out.writeUTF(p.father_first_names);
+         out.writeUTF(p.father_last_names);
+         out.writeUTF(p.mother_first_names);
+         out.writeUTF(p.mother_last_names);
+         out.writeUTF(p.spouse_first_names);
+         out.writeUTF(p.spouse_last_names);
+         out.writeUTF(p.child_of_family_title);
+         out.writeUTF(p.spouse_of_family_title);
+      }
+
+      public Person read(DataInput in) throws IOException {
+         Person p = new Person();
+         p.person_id = in.readUTF();
+         p.first_names = in.readUTF();
+         p.last_names = in.readUTF();
+         p.gender = in.readUTF();
+         p.birth_date_str = in.readUTF();
+         p.birth_place = in.readUTF();
+         p.marriage_date_str = in.readUTF();
+         p.marriage_place = in.readUTF();
+         p.death_date_str = in.readUTF();
+         p.death_place = in.readUTF();
+         p.father_first_names = in.readUTF();
+         p.father_last_names = in.readUTF();
+         p.mother_first_names = in.readUTF();
+         p.mother_last_names = in.readUTF();
+         p.spouse_first_names = in.readUTF();
+         p.spouse_last_names = in.readUTF();
+         p.child_of_family_title = in.readUTF();
+         p.spouse_of_family_title = in.readUTF();
+         return p;
+      }
+
+      public long sizeOf(Person p) {
+         return 88 + MemoryBudget.sizeOf(p.person_id) + MemoryBudget.sizeOf(p.first_names) + MemoryBudget.sizeOf(p.last_names) +
+                MemoryBudget.sizeOf(p.gender) + MemoryBudget.sizeOf(p.birth_date_str) + MemoryBudget.sizeOf(p.birth_place) +
+                MemoryBudget.sizeOf(p.marriage_date_str) + MemoryBudget.sizeOf(p.marriage_place) +
+                MemoryBudget.sizeOf(p.death_date_str) + MemoryBudget.sizeOf(p.death_place) +
+                MemoryBudget.sizeOf(p.father_first_names) + MemoryBudget.sizeOf(p.father_last_names) +
+                MemoryBudget.sizeOf(p.mother_first_names) + MemoryBudget.sizeOf(p.mother_last_names) +
+                MemoryBudget.sizeOf(p.spouse_first_names) + MemoryBudget.sizeOf(p.spouse_last_names) +
+                MemoryBudget.sizeOf(p.child_of_family_title) + MemoryBudget.sizeOf(p.spouse_of_family_title);
+      }
+   };
+
+   private static final RecordCodec<Family> FAMILY_CODEC = new RecordCodec<Family>() {
+      public void write(DataOutput out, Family f) throws IOException {
+         out.writeUTF(f.title);
+         out.writeUTF(f.husbandGiven);
+         out.writeUTF(f.husbandSurname);
+         out.writeUTF(f.wifeGiven);
+         out.writeUTF(f.wifeSurname);
+         out.writeUTF(f.marriageDate);
+         out.writeUTF(f.marriagePlace);
+      }
+
+      public Family read(DataInput in) throws IOException {
+         Family f = new Family();
+         f.title = in.readUTF();
+         f.husbandGiven = in.readUTF();
+         f.husbandSurname = in.readUTF();
+         f.wifeGiven = in.readUTF();
+         f.wifeSurname = in.readUTF();
+         f.marriageDate = in.readUTF();
+         f.marriagePlace = in.readUTF();
+         return f;
+      }
+
+      public long sizeOf(Family f) {
+         return 48 + MemoryBudget.sizeOf(f.title) + MemoryBudget.sizeOf(f.husbandGiven) + MemoryBudget.sizeOf(f.husbandSurname) +
+                MemoryBudget.sizeOf(f.wifeGiven) + MemoryBudget.sizeOf(f.wifeSurname) +
+                MemoryBudget.sizeOf(f.marriageDate) + MemoryBudget.sizeOf(f.marriagePlace);
+      }
+   };
+
+   private static final RecordCodec<PageResult> PAGE_RESULT_CODEC = new RecordCodec<PageResult>() {
+      public void write(DataOutput out, PageResult r) throws IOException {
+         out.writeBoolean(r.person != null);
+         if (r.person != null) {
+            PERSON_CODEC.write(out, r.person);
+         }
+         else {
+            FAMILY_CODEC.write(out, r.family);
+         }
+      }
+
+      public PageResult read(DataInput in) throws IOException {
+         PageResult r = new PageResult();
+         if (in.readBoolean()) {
+            r.person = PERSON_CODEC.read(in);
+         }
+         else {
+            r.family = FAMILY_CODEC.read(in);
+         }
+         return r;
+      }
+
+      public long sizeOf(PageResult r) {
+         return 24 + (r.person != null ? PERSON_CODEC.sizeOf(r.person) : FAMILY_CODEC.sizeOf(r.family));
+      }
+   };
+
+   // the same fields in the same order as Gson would write them
+   private static final JsonLinesWriter.Serializer<Person> PERSON_JSON = new JsonLinesWriter.Serializer<Person>() {
+      public void write(JsonWriter json, Person p) throws IOException {
+         json.beginObject();
+         json.name("person_id").value(p.person_id);
+         json.name("first_names").value(p.first_names);
+         json.name("last_names").value(p.last_names);
+         json.name("gender").value(p.gender);
+         json.name("birth_date_str").value(p.birth_date_str);
+         json.name("birth_place").value(p.birth_place);
+         json.name("marriage_date_str").value(p.marriage_date_str);
+         json.name("marriage_place").value(p.marriage_place);
+         json.name("death_date_str").value(p.death_date_str);
+         json.name("death_place").value(p.death_place);
+         json.name("father_first_names").value(p.father_first_names);
+         json.name("father_last_names").value(p.father_last_names);
+         json.name("mother_first_names").value(p.mother_first_names);
+         json.name("mother_last_names").value(p.mother_last_names);
+         json.name("spouse_first_names").value(p.spouse_first_names);
+         json.name("spouse_last_names").value(p.spouse_last_names);
+         json.name("child_of_family_title").value(p.child_of_family_title);
+         json.name("spouse_of_family_title").value(p.spouse_of_family_title);
+         json.endObject();
+      }
+   };
+
+   public PeopleAsJson() {
+      this(null);
+   }
+
+   /**
+    * @param budget if not null, people and families are spilled to disk when the budget is exceeded,
+    * and the join in writeJson runs within the same budget
+    */
+   public PeopleAsJson(MemoryBudget budget) {
+      this.budget = budget;
+      people = new ExternalSorter<Person>(PERSON_CODEC, PERSON_ID_ORDER, budget);
+      people.setDistinct(true); // keep the last page read for each title
+      families = new ExternalSorter<Family>(FAMILY_CODEC, FAMILY_TITLE_ORDER, budget);
+      families.setDistinct(true);
+      pageResults = null;
+      nextPageResultsFilename = null;
+   }
+
+   /**
+    * Keep the person or family found on each page from run to run, so that the parser can be given only the pages
+    * that changed since the previous run (see WikiReader.setCheckpoint).
+    * @param previousFilename results written by the previous run; if it doesn't exist, every page is new
+    * @param nextFilename file that writeJson writes the results of this run to
+    */
+   public void setPageResults(String previousFilename, String nextFilename) throws IOException {
+      pageResults = new PageResults<PageResult>(PAGE_RESULT_CODEC, budget);
+      pageResults.load(previousFilename);
+      nextPageResultsFilename = nextFilename;
+   }
+
+   public boolean isIncremental() {
+      return pageResults != null;
+   }
+
+   public void deleted(int pageId) throws IOException {
+      pageResults.remove(pageId);
+   }
+
+   private static final Set<Integer> NAMESPACES = new HashSet<Integer>(Arrays.asList(Util.NS_PERSON, Util.NS_FAMILY));
+
+   public Set<Integer> getNamespaces() {
+      return NAMESPACES;
+   }
 
    public void parse(String title, String text, int pageId, int latestRevId, String username, String timestamp, String comment)
            throws IOException, ParsingException {
+      parse(title, new PageText(text), pageId, latestRevId, username, timestamp, comment);
+   }
+
+   public void parse(String title, PageText text, int pageId, int latestRevId, String username, String timestamp, String comment)
+           throws IOException, ParsingException {
       if (title.startsWith("Family")) {
          title = title.substring("Family:".length());
-         String[] split = splitStructuredWikiText("family", text);
-         String structuredData = split[0];
-         if (!Util.isEmpty(structuredData)) {
-            Element root = parseText(structuredData).getRootElement();
-            Element elm;
-            Elements elms;
+         FamilyRecord family = getFamilyRecord(text);
+         if (family != null) {
             Family f = new Family();
+            f.title = title;
 
             // get {husband,wife}{given,surname}
-            elms = root.getChildElements("husband");
-            if (elms.size() > 0) {
-               elm = elms.get(0);
-               f.husbandGiven = Util.nullToEmpty(elm.getAttributeValue("given"));
-               f.husbandSurname = Util.nullToEmpty(elm.getAttributeValue("surname"));
+            if (family.getHusbandCount() > 0) {
+               f.husbandGiven = family.getHusbandGiven(0);
+               f.husbandSurname = family.getHusbandSurname(0);
             }
-            elms = root.getChildElements("wife");
-            if (elms.size() > 0) {
-               elm = elms.get(0);
-               f.wifeGiven = Util.nullToEmpty(elm.getAttributeValue("given"));
-               f.wifeSurname = Util.nullToEmpty(elm.getAttributeValue("surname"));
+            if (family.getWifeCount() > 0) {
+               f.wifeGiven = family.getWifeGiven(0);
+               f.wifeSurname = family.getWifeSurname(0);
             }
 
             // get marriage{date,place}
-            elms = root.getChildElements("event_fact");
-            for (int i = 0; i < elms.size(); i++) {
-               elm = elms.get(i);
-               if ("Marriage".equals(elm.getAttributeValue("type"))) {
-                  f.marriageDate = Util.nullToEmpty(elm.getAttributeValue("date"));
-                  f.marriagePlace = Util.nullToEmpty(Util.getPreBar(elm.getAttributeValue("place")));
-               }
-            }
+            f.marriageDate = family.getEventFacts().getDate("Marriage");
+            f.marriagePlace = family.getEventFacts().getPlaceTitle("Marriage");
 
-            families.put(title, f);
+            if (pageResults != null) {
+               PageResult r = new PageResult();
+               r.family = f;
+               pageResults.put(pageId, r);
+            }
+            else {
+               families.add(f);
+            }
+         }
+         else if (pageResults != null) {
+            pageResults.remove(pageId);
          }
       }
       else if (title.startsWith("Person:")) {
          title = title.substring("Person:".length());
-         String[] split = splitStructuredWikiText("person", text);
-         String structuredData = split[0];
-         if (!Util.isEmpty(structuredData)) {
-            Element root = parseText(structuredData).getRootElement();
-            Element elm;
-            Elements elms;
+         PersonRecord person = getPersonRecord(text);
+         if (person != null) {
+            EventFacts eventFacts = person.getEventFacts();
             Person p = new Person();
 
             p.person_id = title;
-
-            // get name
-            elms = root.getChildElements("name");
-            if (elms.size() > 0) {
-               elm = elms.get(0);
-               p.first_names = Util.nullToEmpty(elm.getAttributeValue("given"));
-               p.last_names = Util.nullToEmpty(elm.getAttributeValue("surname"));
-            }
-
-            // get gender
-            elms = root.getChildElements("gender");
-            if (elms.size() > 0) {
-               elm = elms.get(0);
-               p.gender = Util.nullToEmpty(elm.getValue());
-            }
+            p.first_names = person.getGiven();
+            p.last_names = person.getSurname();
+            p.gender = person.getGender();
 
             // get {birth,death}{date,place}
-            elms = root.getChildElements("event_fact");
-            for (int i = 0; i < elms.size(); i++) {
-               elm = elms.get(i);
-               if ("Birth".equals(elm.getAttributeValue("type"))) {
-                  p.birth_date_str = Util.nullToEmpty(elm.getAttributeValue("date"));
-                  p.birth_place = Util.nullToEmpty(Util.getPreBar(elm.getAttributeValue("place")));
-               }
-               else if ("Death".equals(elm.getAttributeValue("type"))) {
-                  p.death_date_str = Util.nullToEmpty(elm.getAttributeValue("date"));
-                  p.death_place = Util.nullToEmpty(Util.getPreBar(elm.getAttributeValue("place")));
-               }
-            }
+            p.birth_date_str = eventFacts.getDate("Birth");
+            p.birth_place = eventFacts.getPlaceTitle("Birth");
+            p.death_date_str = eventFacts.getDate("Death");
+            p.death_place = eventFacts.getPlaceTitle("Death");
 
             // get first {child_of,spouse_of}_family
-            elms = root.getChildElements("child_of_family");
-            if (elms.size() > 0) {
-               elm = elms.get(0);
-               p.child_of_family_title = Util.nullToEmpty(elm.getAttributeValue("title"));
+            if (person.getChildOfFamilies().size() > 0) {
+               p.child_of_family_title = person.getChildOfFamilies().get(0);
             }
-            elms = root.getChildElements("spouse_of_family");
-            if (elms.size() > 0) {
-               elm = elms.get(0);
-               p.spouse_of_family_title = Util.nullToEmpty(elm.getAttributeValue("title"));
+            if (person.getSpouseOfFamilies().size() > 0) {
+               p.spouse_of_family_title = person.getSpouseOfFamilies().get(0);
             }
 
-            people.put(title, p);
+            if (pageResults != null) {
+               PageResult r = new PageResult();
+               r.person = p;
+               pageResults.put(pageId, r);
+            }
+            else {
+               people.add(p);
+            }
+         }
+         else if (pageResults != null) {
+            pageResults.remove(pageId);
          }
       }
    }
 
-   // Generate a json file containing all people in WeRelate (see comment at top of file)
-   // args array: 0=pages.xml 1=people.json
-   public static void main(String[] args)
-           throws IOException, ParsingException
-   {
-      WikiReader wikiReader = new WikiReader();
-      wikiReader.setSkipRedirects(true);
-      PeopleAsJson self = new PeopleAsJson();
-      wikiReader.addWikiParser(self);
-      InputStream in = new FileInputStream(args[0]);
-      wikiReader.read(in);
-      in.close();
-
-      Gson gson = new Gson();
-      PrintWriter out = new PrintWriter(args[1]);
-      for (Person p : self.people.values()) {
-         if (p.child_of_family_title.length() > 0) {
-            Family f = self.families.get(p.child_of_family_title);
-            if (f != null) {
-               p.father_first_names = f.husbandGiven;
-               p.father_last_names = f.husbandSurname;
-               p.mother_first_names = f.wifeGiven;
-               p.mother_last_names = f.wifeSurname;
-            }
+   public void combine(WikiParser other) throws IOException {
+      PeopleAsJson that = (PeopleAsJson)other;
+      people.addAll(that.people);
+      families.addAll(that.families);
+   }
+
+   /**
+    * Write one line of json for each person, with the names of their parents and spouse filled in from their families.
+    * People are joined to families with two sort-merge joins, first on child_of_family_title and then on spouse_of_family_title,
+    * so only the records currently being merged need to be in memory. Lines are written in spouse_of_family_title order.
+    */
+   public void writeJson(String filename) throws IOException {
+      if (pageResults != null) {
+         collectPageResults();
+      }
+
+      // join with the family the person is a child of
+      ExternalSorter<Person> byChildOfFamily = new ExternalSorter<Person>(PERSON_CODEC, CHILD_OF_FAMILY_ORDER, budget);
+      ExternalSorter.SortedRecords<Person> sortedPeople = people.sorted();
+      while (sortedPeople.hasNext()) {
+         byChildOfFamily.add(sortedPeople.next());
+      }
+      people.close();
+
+      ExternalSorter<Person> bySpouseOfFamily = new ExternalSorter<Person>(PERSON_CODEC, SPOUSE_OF_FAMILY_ORDER, budget);
+      FamilyCursor familyCursor = new FamilyCursor(families.sorted());
+      sortedPeople = byChildOfFamily.sorted();
+      while (sortedPeople.hasNext()) {
+         Person p = sortedPeople.next();
+         Family f = familyCursor.find(p.child_of_family_title);
+         if (f != null) {
+            p.father_first_names = f.husbandGiven;
+            p.father_last_names = f.husbandSurname;
+            p.mother_first_names = f.wifeGiven;
+            p.mother_last_names = f.wifeSurname;
          }
-         if (p.spouse_of_family_title.length() > 0) {
-            Family f = self.families.get(p.spouse_of_family_title);
+         bySpouseOfFamily.add(p);
+      }
+      familyCursor.close();
+      byChildOfFamily.close();
+
+      // join with the family the person is a spouse in
+      JsonLinesWriter<Person> out = new JsonLinesWriter<Person>(filename, PERSON_JSON, Runtime.getRuntime().availableProcessors());
+      try {
+         familyCursor = new FamilyCursor(families.sorted());
+         sortedPeople = bySpouseOfFamily.sorted();
+         while (sortedPeople.hasNext()) {
+            Person p = sortedPeople.next();
+            Family f = familyCursor.find(p.spouse_of_family_title);
             if (f != null) {
                if ("M".equals(p.gender)) {
                   p.spouse_first_names = f.wifeGiven;
@@ -206,9 +445,121 @@ public class PeopleAsJson extends WikiParser {
                p.marriage_date_str = f.marriageDate;
                p.marriage_place = f.marriagePlace;
             }
+            out.write(p);
          }
-         out.println(gson.toJson(p).replace("\n", ""));
+         familyCursor.close();
+      }
+      finally {
+         out.close();
+         bySpouseOfFamily.close();
+         families.close();
+      }
+   }
+
+   /**
+    * Save the results of this run for the next one, and add the people and families of every page, changed or not, to be joined
+    */
+   private void collectPageResults() throws IOException {
+      pageResults.save(nextPageResultsFilename);
+      PageResults.Results<PageResult> results = pageResults.results();
+      while (results.hasNext()) {
+         PageResult r = results.next();
+         if (r.person != null) {
+            people.add(r.person);
+         }
+         else {
+            families.add(r.family);
+         }
+      }
+      pageResults.close();
+      pageResults = null;
+   }
+
+   /**
+    * Walks the families in title order, looking up the family for each of a series of titles in the same order
+    */
+   private static class FamilyCursor {
+      private final ExternalSorter.SortedRecords<Family> families;
+      private Family current;
+
+      FamilyCursor(ExternalSorter.SortedRecords<Family> families) throws IOException {
+         this.families = families;
+         current = (families.hasNext() ? families.next() : null);
+      }
+
+      Family find(String title) throws IOException {
+         if (title.length() == 0) {
+            return null;
+         }
+         while (current != null && current.title.compareTo(title) < 0) {
+            current = (families.hasNext() ? families.next() : null);
+         }
+         return (current != null && current.title.equals(title) ? current : null);
+      }
+
+      void close() {
+         families.close();
+      }
+   }
+
+   /**
+    * Create a job for a JobRunner
+    */
+   public static JobRunner.Job createJob(MemoryBudget budget, final String jsonFilename) {
+      final PeopleAsJson self = new PeopleAsJson(budget);
+      return new JobRunner.Job("PeopleAsJson", self, true) {
+         public void finish() throws IOException {
+            self.writeJson(jsonFilename);
+         }
+      };
+   }
+
+   // Generate a json file containing all people in WeRelate (see comment at top of file)
+   // args array: 0=pages.xml 1=people.json 2=directory to keep page checkpoints in (optional)
+   // with a checkpoint directory, only the pages that changed since the previous run are parsed
+   // set -Dwerelatedata.memoryBudget=512m (and optionally -Dwerelatedata.spillDir) to spill people and families to disk
+   public static void main(String[] args)
+           throws IOException, ParsingException
+   {
+      PeopleAsJson self;
+      final MemoryBudget budget = MemoryBudget.fromSystemProperties();
+      int threads = Runtime.getRuntime().availableProcessors();
+      String checkpoint = null;
+      if (args.length > 2) {
+         checkpoint = new File(args[2], "people.checkpoint").getPath();
+         String results = new File(args[2], "people.results").getPath();
+         WikiReader wikiReader = new WikiReader(WikiReader.Engine.STAX);
+         wikiReader.setSkipRedirects(true);
+         wikiReader.setThreads(threads);
+         wikiReader.setCheckpoint(checkpoint, checkpoint + ".new");
+         self = new PeopleAsJson(budget);
+         self.setPageResults(results, results);
+         wikiReader.addWikiParser(self);
+         wikiReader.read(args[0]);
+      }
+      else if (args[0].endsWith(".xml")) {
+         ShardedWikiReader wikiReader = new ShardedWikiReader(threads);
+         wikiReader.setSkipRedirects(true);
+         wikiReader.addWikiParserFactory(new WikiParserFactory() {
+            public CombinableWikiParser create() {
+               return new PeopleAsJson(budget);
+            }
+         });
+         self = (PeopleAsJson)wikiReader.read(args[0]).get(0);
+      }
+      else {
+         WikiReader wikiReader = new WikiReader();
+         wikiReader.setSkipRedirects(true);
+         wikiReader.setThreads(threads);
+         self = new PeopleAsJson(budget);
+         wikiReader.addWikiParser(self);
+         wikiReader.read(args[0]);
+      }
+
+      self.writeJson(args[1]);
+      if (checkpoint != null) {
+         // replace the checkpoint only once the results that go with it have been saved
+         Util.replaceFile(checkpoint + ".new", checkpoint);
       }
-      out.close();
    }
 }
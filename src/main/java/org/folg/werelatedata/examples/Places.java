@@ -15,20 +15,33 @@
  */
 package org.folg.werelatedata.examples;
 
-import java.io.FileInputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.io.PrintWriter;
 import java.util.*;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import nu.xom.ParsingException;
-import nu.xom.Element;
-import nu.xom.Elements;
 
+import org.folg.werelatedata.parser.CombinableWikiParser;
+import org.folg.werelatedata.parser.ExternalSorter;
+import org.folg.werelatedata.parser.IncrementalWikiParser;
+import org.folg.werelatedata.parser.JobRunner;
+import org.folg.werelatedata.parser.MemoryBudget;
+import org.folg.werelatedata.parser.PageResults;
+import org.folg.werelatedata.parser.PageText;
+import org.folg.werelatedata.parser.PlaceRecord;
+import org.folg.werelatedata.parser.PostingLists;
+import org.folg.werelatedata.parser.RecordCodec;
+import org.folg.werelatedata.parser.ShardedWikiReader;
 import org.folg.werelatedata.parser.Util;
 import org.folg.werelatedata.parser.WikiParser;
+import org.folg.werelatedata.parser.WikiParserFactory;
 import org.folg.werelatedata.parser.WikiReader;
 
 /**
@@ -36,11 +49,15 @@ import org.folg.werelatedata.parser.WikiReader;
  * User: dallan
  * Date: 2/12/12
  */
-public class Places extends WikiParser
+public class Places extends CombinableWikiParser implements IncrementalWikiParser
 {
-   private Map<Integer,Place> placeMap;
+   private ExternalSorter<Place> places;
+   private Map<Integer,String> locatedInMap;
    private Map<String,Integer> titleMap;
    private Map<String,String> redirectMap;
+   private MemoryBudget budget;
+   private PageResults<PlacePage> pageResults;
+   private String nextPageResultsFilename;
 
    // keep in sync with places standardizer.properties
    private static Map<String,String> ABBREVS = new HashMap<String, String>();
@@ -164,6 +181,7 @@ public class Places extends WikiParser
    private static final Pattern FHLC_PATTERN = Pattern.compile("\\{\\{source-fhlc\\|(.+?)\\}\\}", Pattern.CASE_INSENSITIVE);
 
    private static class Place {
+      int id;
       String name;
       List<String> altNames;
       List<String> types;
@@ -185,12 +203,143 @@ public class Places extends WikiParser
       }
    }
 
+   // the place or redirect found on a page, kept from run to run when the parser is incremental
+   private static class PlacePage {
+      String title;
+      String redirectTarget; // only for redirects
+      Place place; // null for redirects
+   }
+
    public Places() {
-      placeMap = new TreeMap<Integer,Place>();
+      this(null);
+   }
+
+   /**
+    * @param budget if not null, places are spilled to disk when the budget is exceeded;
+    * titles, redirects and located-in titles are always kept in memory
+    */
+   public Places(MemoryBudget budget) {
+      places = new ExternalSorter<Place>(PLACE_CODEC, PLACE_ID_ORDER, budget);
+      places.setDistinct(true); // keep the last place read for each id
+      locatedInMap = new HashMap<Integer,String>();
       titleMap = new HashMap<String, Integer>();
       redirectMap = new HashMap<String,String>();
+      this.budget = budget;
+      pageResults = null;
+      nextPageResultsFilename = null;
    }
 
+   /**
+    * Keep the place or redirect found on each page from run to run, so that the parser can be given only the pages
+    * that changed since the previous run (see WikiReader.setCheckpoint).
+    * @param previousFilename results written by the previous run; if it doesn't exist, every page is new
+    * @param nextFilename file that generateWordMap or writeCsv writes the results of this run to
+    */
+   public void setPageResults(String previousFilename, String nextFilename) throws IOException {
+      pageResults = new PageResults<PlacePage>(PLACE_PAGE_CODEC, budget);
+      pageResults.load(previousFilename);
+      nextPageResultsFilename = nextFilename;
+   }
+
+   public boolean isIncremental() {
+      return pageResults != null;
+   }
+
+   public void deleted(int pageId) throws IOException {
+      pageResults.remove(pageId);
+   }
+
+   private static final Comparator<Place> PLACE_ID_ORDER = new Comparator<Place>() {
+      public int compare(Place p1, Place p2) {
+         return (p1.id < p2.id ? -1 : (p1.id == p2.id ? 0 : 1));
+      }
+   };
+
+   private static final RecordCodec<Place> PLACE_CODEC = new RecordCodec<Place>() {
+      public void write(DataOutput out, Place p) throws IOException {
+         out.writeInt(p.id);
+         out.writeUTF(p.name);
+         writeList(out, p.altNames);
+         writeList(out, p.types);
+         out.writeUTF(p.locatedIn);
+         writeList(out, p.alsoLocatedIns);
+         out.writeUTF(p.latitude);
+         out.writeUTF(p.longitude);
+         writeList(out, p.sources);
+      }
+
+      public Place read(DataInput in) throws IOException {
+         Place p = new Place();
+         p.id = in.readInt();
+         p.name = in.readUTF();
+         readList(in, p.altNames);
+         readList(in, p.types);
+         p.locatedIn = in.readUTF();
+         readList(in, p.alsoLocatedIns);
+         p.latitude = in.readUTF();
+         p.longitude = in.readUTF();
+         readList(in, p.sources);
+         return p;
+      }
+
+      public long sizeOf(Place p) {
+         return 64 + MemoryBudget.sizeOf(p.name) + sizeOf(p.altNames) + sizeOf(p.types) + MemoryBudget.sizeOf(p.locatedIn) +
+                sizeOf(p.alsoLocatedIns) + MemoryBudget.sizeOf(p.latitude) + MemoryBudget.sizeOf(p.longitude) + sizeOf(p.sources);
+      }
+
+      private void writeList(DataOutput out, List<String> list) throws IOException {
+         out.writeInt(list.size());
+         for (String s : list) {
+            out.writeUTF(s);
+         }
+      }
+
+      private void readList(DataInput in, List<String> list) throws IOException {
+         int size = in.readInt();
+         for (int i = 0; i < size; i++) {
+            list.add(in.readUTF());
+         }
+      }
+
+      private long sizeOf(List<String> list) {
+         long size = 40 + 8L * list.size();
+         for (String s : list) {
+            size += MemoryBudget.sizeOf(s);
+         }
+         return size;
+      }
+   };
+
+   private static final RecordCodec<PlacePage> PLACE_PAGE_CODEC = new RecordCodec<PlacePage>() {
+      public void write(DataOutput out, PlacePage page) throws IOException {
+         out.writeUTF(page.title);
+         out.writeBoolean(page.place != null);
+         if (page.place != null) {
+            PLACE_CODEC.write(out, page.place);
+         }
+         else {
+            out.writeUTF(page.redirectTarget);
+         }
+      }
+
+      public PlacePage read(DataInput in) throws IOException {
+         PlacePage page = new PlacePage();
+         page.title = in.readUTF();
+         if (in.readBoolean()) {
+            page.place = PLACE_CODEC.read(in);
+         }
+         else {
+            page.redirectTarget = in.readUTF();
+         }
+         return page;
+      }
+
+      public long sizeOf(PlacePage page) {
+         return 32 + MemoryBudget.sizeOf(page.title) +
+                (page.place != null ? PLACE_CODEC.sizeOf(page.place) : MemoryBudget.sizeOf(page.redirectTarget));
+      }
+   };
+
    private static String noTilde(String place) {
       return place.replace("~"," ");
    }
@@ -216,7 +365,7 @@ public class Places extends WikiParser
       return source;
    }
 
-   private static boolean addSource(Pattern p, String label, String text, List<String> sources) {
+   private static boolean addSource(Pattern p, String label, CharSequence text, List<String> sources) {
       Matcher m = p.matcher(text);
       if (m.find()) {
          sources.add(label+":"+m.group(1));
@@ -225,7 +374,18 @@ public class Places extends WikiParser
       return false;
    }
 
+   private static final Set<Integer> NAMESPACES = Collections.singleton(Util.NS_PLACE);
+
+   public Set<Integer> getNamespaces() {
+      return NAMESPACES;
+   }
+
    public void parse(String title, String text, int pageId, int latestRevId, String username, String timestamp, String comment) throws IOException, ParsingException
+   {
+      parse(title, new PageText(text), pageId, latestRevId, username, timestamp, comment);
+   }
+
+   public void parse(String title, PageText text, int pageId, int latestRevId, String username, String timestamp, String comment) throws IOException, ParsingException
    {
       if (title.startsWith("Place:")) {
          title = title.substring("Place:".length());
@@ -234,18 +394,28 @@ public class Places extends WikiParser
             String target = Util.cleanRedirTarget(m.group(1));
             if (target.startsWith("Place:")) {
                target = target.substring("Place:".length()).trim();
-               redirectMap.put(title, target);
+               if (pageResults != null) {
+                  PlacePage page = new PlacePage();
+                  page.title = title;
+                  page.redirectTarget = target;
+                  pageResults.put(pageId, page);
+               }
+               else {
+                  synchronized (this) {
+                     redirectMap.put(title, target);
+                  }
+               }
+            }
+            else if (pageResults != null) {
+               pageResults.remove(pageId);
             }
          }
          else {
-            String[] split = splitStructuredWikiText("place", text);
-            String structuredData = split[0];
-            String unstructuredData = split[1];
-            if (!Util.isEmpty(structuredData)) {
+            PageText unstructuredData = text.getWikiText("place");
+            PlaceRecord place = getPlaceRecord(text);
+            if (place != null) {
                Place p = new Place();
-               Element root = parseText(structuredData).getRootElement();
-               Element elm;
-               Elements elms;
+               p.id = pageId;
 
                // set name + locatedIn
                int pos = title.indexOf(",");
@@ -259,13 +429,11 @@ public class Places extends WikiParser
                }
 
                // set altNames
-               elms = root.getChildElements("alternate_name");
-               for (int i = 0; i < elms.size(); i++) {
-                  elm = elms.get(i);
-                  String name = elm.getAttributeValue("name");
-                  String source = elm.getAttributeValue("source");
-                  if (name != null && name.length() > 0) {
-                     if (source != null && source.length() > 0) {
+               for (int i = 0; i < place.getAlternateNameCount(); i++) {
+                  String name = place.getAlternateName(i);
+                  String source = place.getAlternateNameSource(i);
+                  if (name.length() > 0) {
+                     if (source.length() > 0) {
                         name = noColon(name)+":"+noLink(source);
                      }
                      p.altNames.add(noTilde(name));
@@ -273,32 +441,22 @@ public class Places extends WikiParser
                }
 
                // set types
-               elm = root.getFirstChildElement("type");
-               if (elm != null) {
-                  String types = elm.getValue();
-                  if (types != null && types.length() > 0) {
-                     for (String type : types.split(",")) {
-                        type = type.trim();
-                        if (type.length() > 0) {
-                           p.types.add(noTilde(type));
-                        }
+               String types = place.getTypes();
+               if (types.length() > 0) {
+                  for (String type : types.split(",")) {
+                     type = type.trim();
+                     if (type.length() > 0) {
+                        p.types.add(noTilde(type));
                      }
                   }
                }
 
                // set alsoLocatedIns
-               elms = root.getChildElements("also_located_in");
-               for (int i = 0; i < elms.size(); i++) {
-                  elm = elms.get(i);
-                  String name = elm.getAttributeValue("place");
-                  if (name != null && name.length() > 0) {
-                     p.alsoLocatedIns.add(name);
-                  }
-               }
+               p.alsoLocatedIns.addAll(place.getAlsoLocatedIns());
 
                // set lat+lon
-               p.latitude = getLatLon(root.getFirstChildElement("latitude"), true);
-               p.longitude = getLatLon(root.getFirstChildElement("longitude"), false);
+               p.latitude = getLatLon(place.getLatitude(), true);
+               p.longitude = getLatLon(place.getLongitude(), false);
 
                // add sources
                if (!addSource(WIKIPEDIA_PATTERN, "wikipedia", unstructuredData, p.sources)) {
@@ -308,28 +466,47 @@ public class Places extends WikiParser
                addSource(FHLC_PATTERN, "fhlc", unstructuredData, p.sources);
 
                // add to maps
-               placeMap.put(pageId, p);
-               titleMap.put(title, pageId);
+               if (pageResults != null) {
+                  PlacePage page = new PlacePage();
+                  page.title = title;
+                  page.place = p;
+                  pageResults.put(pageId, page);
+               }
+               else {
+                  synchronized (this) {
+                     places.add(p);
+                     locatedInMap.put(pageId, p.locatedIn);
+                     titleMap.put(title, pageId);
+                  }
+               }
+            }
+            else if (pageResults != null) {
+               pageResults.remove(pageId);
             }
          }
       }
    }
 
-   private static String getLatLon(Element elm, boolean isLat) {
-      if (elm != null) {
-         String ll = elm.getValue().trim();
-         if (ll != null && ll.length() > 0) {
-            try {
-               double d = Double.parseDouble(ll);
-               if ((isLat && d >= -90.0 && d <= 90.0) ||
-                       (!isLat && d >= -180.0 && d <= 180.0)) {
-                  return ll; // must be a valid double
-               }
-            }
-            catch (NumberFormatException e) {
-               // ignore
+   public void combine(WikiParser other) throws IOException {
+      Places that = (Places)other;
+      places.addAll(that.places);
+      locatedInMap.putAll(that.locatedInMap);
+      titleMap.putAll(that.titleMap);
+      redirectMap.putAll(that.redirectMap);
+   }
+
+   private static String getLatLon(String ll, boolean isLat) {
+      if (ll.length() > 0) {
+         try {
+            double d = Double.parseDouble(ll);
+            if ((isLat && d >= -90.0 && d <= 90.0) ||
+                    (!isLat && d >= -180.0 && d <= 180.0)) {
+               return ll; // must be a valid double
             }
          }
+         catch (NumberFormatException e) {
+            // ignore
+         }
       }
       return "";
    }
@@ -368,25 +545,70 @@ public class Places extends WikiParser
       return result;
    }
 
-   private boolean addName(int id, String name, Map<String,Set<Integer>> map) {
+   private boolean addName(int id, String name, PostingLists map) {
       String token = getNameToken(name);
       if (token != null) {
-         Set<Integer> ids = map.get(token);
-         if (ids == null) {
-            ids = new TreeSet<Integer>();
-            map.put(token, ids);
-         }
-         ids.add(id);
+         map.add(token, id);
       }
       return (token != null);
    }
 
-   public Map<String,Set<Integer>> generateWordMap() {
-      Map<String,Set<Integer>> map = new TreeMap<String, Set<Integer>>();
+   public synchronized void writeState(ObjectOutputStream out) throws IOException {
+      places.writeState(out);
+      out.writeObject(locatedInMap);
+      out.writeObject(titleMap);
+      out.writeObject(redirectMap);
+      out.writeBoolean(pageResults != null);
+      if (pageResults != null) {
+         pageResults.writeState(out);
+      }
+   }
+
+   @SuppressWarnings("unchecked")
+   public synchronized void readState(ObjectInputStream in) throws IOException, ClassNotFoundException {
+      places.readState(in);
+      locatedInMap = (Map<Integer,String>)in.readObject();
+      titleMap = (Map<String,Integer>)in.readObject();
+      redirectMap = (Map<String,String>)in.readObject();
+      if (in.readBoolean()) {
+         pageResults.readState(in);
+      }
+   }
+
+   /**
+    * Save the results of this run for the next one, and add the places and redirects of every page, changed or not, to the maps
+    */
+   private void collectPageResults() throws IOException {
+      pageResults.save(nextPageResultsFilename);
+      PageResults.Results<PlacePage> results = pageResults.results();
+      while (results.hasNext()) {
+         PlacePage page = results.next();
+         if (page.place != null) {
+            places.add(page.place);
+            locatedInMap.put(page.place.id, page.place.locatedIn);
+            titleMap.put(page.title, page.place.id);
+         }
+         else {
+            redirectMap.put(page.title, page.redirectTarget);
+         }
+      }
+      pageResults.close();
+      pageResults = null;
+   }
+
+   /**
+    * Return the ids of the places whose primary or alternate names contain each name token
+    */
+   public PostingLists generateWordMap() throws IOException {
+      if (pageResults != null) {
+         collectPageResults();
+      }
+      PostingLists map = new PostingLists();
 
-      for (Map.Entry<Integer,Place> entry : placeMap.entrySet()) {
-         int id = entry.getKey();
-         Place p = entry.getValue();
+      ExternalSorter.SortedRecords<Place> sortedPlaces = places.sorted();
+      while (sortedPlaces.hasNext()) {
+         Place p = sortedPlaces.next();
+         int id = p.id;
          if (!addName(id, p.name, map)) {
             logger.severe("Primary name token not found for: "+p.name+", "+p.locatedIn);
          }
@@ -419,8 +641,21 @@ public class Places extends WikiParser
       return id;
    }
 
-   public Map<Integer,Place> getPlaceMap() {
-      return placeMap;
+   /**
+    * Return the located-in title of the place, or null if there isn't a place with that id
+    */
+   public String getLocatedIn(int id) {
+      return locatedInMap.get(id);
+   }
+
+   /**
+    * Delete any places that were spilled to disk
+    */
+   public void close() {
+      places.close();
+      if (pageResults != null) {
+         pageResults.close();
+      }
    }
 
    private static String noBar(String s) {
@@ -435,43 +670,36 @@ public class Places extends WikiParser
       }
    }
 
-   // Generate various lists of places
-   // args array: 0=pages.xml 1=place_words.csv 2=places.csv
-   public static void main(String[] args)
-           throws IOException, ParsingException
-   {
-      WikiReader wikiReader = new WikiReader();
-      wikiReader.setSkipRedirects(false);
-      Places self = new Places();
-      wikiReader.addWikiParser(self);
-      InputStream in = new FileInputStream(args[0]);
-      wikiReader.read(in);
-      in.close();
-
-      Map<String,Set<Integer>> wordMap = self.generateWordMap();
-      PrintWriter out = new PrintWriter(args[1]);
-      for (Map.Entry<String,Set<Integer>> entry : wordMap.entrySet()) {
-         String word = entry.getKey();
-         Set<Integer> ids = entry.getValue();
-         if (ids.size() > 400) {
-            logger.warning("large id list: "+word+"="+ids.size());
+   /**
+    * Write the word map and the places once the dump has been read
+    */
+   public void writeCsv(String wordsFilename, String placesFilename) throws IOException {
+      PostingLists wordMap = generateWordMap();
+      PrintWriter out = new PrintWriter(wordsFilename);
+      StringBuilder line = new StringBuilder();
+      for (String word : wordMap.getKeys()) {
+         int count = wordMap.getCount(word);
+         if (count > 400) {
+            logger.warning("large id list: "+word+"="+count);
          }
-         String idsString = Util.join(",",ids);
-         if (idsString.length() > 8192) {
+         line.setLength(0);
+         line.append(word).append('|');
+         wordMap.appendTo(word, line, ',');
+         if (line.length() - word.length() - 1 > 8192) {
             logger.severe("Ids too long: "+word);
          }
          else {
-            out.println(word+"|"+idsString);
+            out.println(line);
          }
       }
       out.close();
-      out = new PrintWriter(args[2]);
-      Map<Integer,Place> placeMap = self.getPlaceMap();
-      for (Map.Entry<Integer,Place> entry : placeMap.entrySet()) {
-         Place p = entry.getValue();
+      out = new PrintWriter(placesFilename);
+      ExternalSorter.SortedRecords<Place> sortedPlaces = places.sorted();
+      while (sortedPlaces.hasNext()) {
+         Place p = sortedPlaces.next();
 
-         int placeId = entry.getKey();
-         int locatedInId = self.getPlaceId(p.locatedIn);
+         int placeId = p.id;
+         int locatedInId = getPlaceId(p.locatedIn);
          if (locatedInId < 0) {
             logger.severe("Bad locatedInId for: "+placeId);
             continue;
@@ -479,7 +707,7 @@ public class Places extends WikiParser
 
          List<Integer> aliIds = new ArrayList<Integer>();
          for (String ali : p.alsoLocatedIns) {
-            int aliId = self.getPlaceId(ali);
+            int aliId = getPlaceId(ali);
             if (aliId > 0) {
                aliIds.add(aliId);
             }
@@ -500,7 +728,7 @@ public class Places extends WikiParser
          while (parentId > 0) {
             countryId = parentId;
             level++;
-            parentId = self.getPlaceId(placeMap.get(parentId).locatedIn);
+            parentId = getPlaceId(getLocatedIn(parentId));
             if (parentId < 0) {
                logger.severe("Bad country for: "+placeId);
             }
@@ -522,4 +750,65 @@ public class Places extends WikiParser
       }
       out.close();
    }
+
+   /**
+    * Create a job for a JobRunner
+    */
+   public static JobRunner.Job createJob(MemoryBudget budget, final String wordsFilename, final String placesFilename) {
+      final Places self = new Places(budget);
+      return new JobRunner.Job("Places", self, false) {
+         public void finish() throws IOException {
+            self.writeCsv(wordsFilename, placesFilename);
+            self.close();
+         }
+      };
+   }
+
+   // Generate various lists of places
+   // args array: 0=pages.xml 1=place_words.csv 2=places.csv 3=resume checkpoint (optional; "" for none)
+   //             4=directory to keep page checkpoints in (optional)
+   // with a checkpoint directory, only the pages that changed since the previous run are parsed
+   // set -Dwerelatedata.memoryBudget=512m (and optionally -Dwerelatedata.spillDir) to spill places to disk
+   public static void main(String[] args)
+           throws IOException, ParsingException
+   {
+      Places self;
+      String checkpoint = null;
+      final MemoryBudget budget = MemoryBudget.fromSystemProperties();
+      int threads = Runtime.getRuntime().availableProcessors();
+      if (args[0].endsWith(".xml") && args.length < 4) {
+         ShardedWikiReader wikiReader = new ShardedWikiReader(threads);
+         wikiReader.setSkipRedirects(false);
+         wikiReader.addWikiParserFactory(new WikiParserFactory() {
+            public CombinableWikiParser create() {
+               return new Places(budget);
+            }
+         });
+         self = (Places)wikiReader.read(args[0]).get(0);
+      }
+      else {
+         WikiReader wikiReader = new WikiReader(WikiReader.Engine.STAX);
+         wikiReader.setSkipRedirects(false);
+         wikiReader.setThreads(threads);
+         if (args.length > 3 && args[3].length() > 0) {
+            wikiReader.setResumeCheckpoint(args[3], 1000000);
+         }
+         self = new Places(budget);
+         if (args.length > 4) {
+            checkpoint = new File(args[4], "places.checkpoint").getPath();
+            String results = new File(args[4], "places.results").getPath();
+            wikiReader.setCheckpoint(checkpoint, checkpoint + ".new");
+            self.setPageResults(results, results);
+         }
+         wikiReader.addWikiParser(self);
+         wikiReader.read(args[0]);
+      }
+
+      self.writeCsv(args[1], args[2]);
+      self.close();
+      if (checkpoint != null) {
+         // replace the checkpoint only once the results that go with it have been saved
+         Util.replaceFile(checkpoint + ".new", checkpoint);
+      }
+   }
 }
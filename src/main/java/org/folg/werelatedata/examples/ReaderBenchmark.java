@@ -0,0 +1,61 @@
+/*
+ * Copyright 2012 Foundation for On-Line Genealogy, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.folg.werelatedata.examples;
+
+import nu.xom.ParsingException;
+import org.folg.werelatedata.parser.WikiParser;
+import org.folg.werelatedata.parser.WikiReader;
+
+import java.io.IOException;
+
+/**
+ * Compares the pages/sec of the WikiReader engines on a dump
+ */
+public class ReaderBenchmark extends WikiParser {
+   private int pages = 0;
+   private long chars = 0;
+
+   public void parse(String title, String text, int pageId, int latestRevId, String username, String timestamp, String comment) {
+      pages++;
+      chars += text.length();
+   }
+
+   // Read the dump with each engine and print the throughput
+   // args array: 0=pages.xml 1=number of passes per engine (default 3)
+   public static void main(String[] args)
+           throws IOException, ParsingException
+   {
+      if (args.length < 1) {
+         System.out.println("Usage: <pages file in> [passes]");
+         System.exit(1);
+      }
+      int passes = (args.length > 1 ? Integer.parseInt(args[1]) : 3);
+
+      for (int pass = 0; pass < passes; pass++) {
+         for (WikiReader.Engine engine : WikiReader.Engine.values()) {
+            WikiReader wikiReader = new WikiReader(engine);
+            wikiReader.setSkipRedirects(false);
+            ReaderBenchmark self = new ReaderBenchmark();
+            wikiReader.addWikiParser(self);
+            long start = System.nanoTime();
+            wikiReader.read(args[0]);
+            double secs = (System.nanoTime() - start) / 1e9;
+            System.out.println(String.format("%s pass %d: %d pages, %d chars in %.2f sec = %.0f pages/sec",
+                    engine, pass+1, self.pages, self.chars, secs, self.pages / secs));
+         }
+      }
+   }
+}
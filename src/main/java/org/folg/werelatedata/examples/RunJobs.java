@@ -0,0 +1,74 @@
+/*
+ * Copyright 2012 Foundation for On-Line Genealogy, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.folg.werelatedata.examples;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import nu.xom.ParsingException;
+
+import org.folg.werelatedata.parser.JobRunner;
+import org.folg.werelatedata.parser.MemoryBudget;
+
+/**
+ * Runs several of the examples in one read of the dump
+ */
+public class RunJobs {
+
+   // Each job is the name of an example followed by its output files, separated by commas, such as
+   // Places=place_words.csv,places.csv People=people.csv PeopleAsJson=people.json
+   // FindMultiSpouseFamilies=samegender.wiki,diffgender.wiki FindNoUsernameMySources=titles.wiki
+   // args array: 0=pages.xml 1...=jobs
+   // set -Dwerelatedata.memoryBudget=512m (and optionally -Dwerelatedata.spillDir) to share a memory budget between the jobs
+   public static void main(String[] args)
+           throws IOException, ParsingException
+   {
+      if (args.length < 2) {
+         System.out.println("Usage: <pages file in> <name=output files>...");
+         System.exit(1);
+      }
+
+      MemoryBudget budget = MemoryBudget.fromSystemProperties();
+      JobRunner runner = new JobRunner();
+      for (int i = 1; i < args.length; i++) {
+         int pos = args[i].indexOf('=');
+         String name = (pos < 0 ? args[i] : args[i].substring(0, pos));
+         String[] outputs = (pos < 0 ? new String[0] : args[i].substring(pos+1).split(","));
+         JobRunner.Job job = null;
+         if (name.equals("Places") && outputs.length == 2) {
+            job = Places.createJob(budget, outputs[0], outputs[1]);
+         }
+         else if (name.equals("People") && outputs.length == 1) {
+            job = People.createJob(outputs[0]);
+         }
+         else if (name.equals("PeopleAsJson") && outputs.length == 1) {
+            job = PeopleAsJson.createJob(budget, outputs[0]);
+         }
+         else if (name.equals("FindMultiSpouseFamilies") && outputs.length == 2) {
+            job = FindMultiSpouseFamilies.createJob(outputs[0], outputs[1]);
+         }
+         else if (name.equals("FindNoUsernameMySources") && outputs.length == 1) {
+            job = FindNoUsernameMySources.createJob(outputs[0]);
+         }
+         if (job == null) {
+            System.out.println("Unknown job or wrong number of output files: " + name + " " + Arrays.toString(outputs));
+            System.exit(1);
+         }
+         runner.addJob(job);
+      }
+      runner.run(args[0]);
+   }
+}
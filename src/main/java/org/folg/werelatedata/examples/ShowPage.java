@@ -0,0 +1,59 @@
+/*
+ * Copyright 2012 Foundation for On-Line Genealogy, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.folg.werelatedata.examples;
+
+import org.folg.werelatedata.parser.PageIndex;
+import org.folg.werelatedata.parser.WikiPage;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Prints the latest text of a single page in a PageStore
+ */
+public class ShowPage {
+   // Look up a page by title or page id
+   // args array: 0=pages.store 1=pages.index 2=title or page id
+   public static void main(String[] args)
+           throws IOException
+   {
+      if (args.length != 3) {
+         System.out.println("Usage: <page store in> <page index> <title or page id>");
+         System.exit(1);
+      }
+
+      if (!new File(args[1]).exists()) {
+         PageIndex.build(args[0], args[1]);
+      }
+      PageIndex index = PageIndex.open(args[1], args[0]);
+      WikiPage page;
+      if (args[2].matches("\\d+")) {
+         page = index.getPage(Integer.parseInt(args[2]));
+      }
+      else {
+         page = index.getPage(args[2]);
+      }
+      index.close();
+
+      if (page == null) {
+         System.out.println("Not found: " + args[2]);
+      }
+      else {
+         System.out.println(page.getTitle() + " (" + page.getPageId() + ")");
+         System.out.println(page.getText());
+      }
+   }
+}
@@ -0,0 +1,422 @@
+/*
+ * Copyright 2012 Foundation for On-Line Genealogy, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.folg.werelatedata.graph;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.BitSet;
+
+/**
+ * The family tree held in primitive arrays.
+ * Every Person page has a dense id from 0 to getPersonCount()-1 and every Family page has a dense id from 0 to getFamilyCount()-1,
+ * assigned in title order, so ids can be looked up by binary search on title.
+ * <p>
+ * Edges are stored in compressed sparse row form: for each relation there is an offsets array with one entry per node plus one,
+ * and a targets array, so the neighbors of node n are targets[offsets[n]] through targets[offsets[n+1]-1], sorted by id.
+ * Parent, child and spouse edges between people are stored directly, along with the family edges they were derived from.
+ * <p>
+ * A graph is written to a single file that load memory-maps, so a graph of millions of people reloads almost instantly;
+ * the file is limited to 2GB. It starts with MAGIC, VERSION, the person count and the family count, followed by each section
+ * in SECTIONS order as an int length and the section's ints (title bytes are padded to a multiple of 4).
+ */
+public class FamilyGraph {
+   private static final int MAGIC = 0x57524647; // WRFG
+   private static final int VERSION = 1;
+   private static final Charset UTF8 = Charset.forName("UTF-8");
+
+   static final int PERSON_TITLE_OFFSETS = 0;
+   static final int PERSON_TITLES = 1;
+   static final int FAMILY_TITLE_OFFSETS = 2;
+   static final int FAMILY_TITLES = 3;
+   static final int PARENT_OFFSETS = 4;
+   static final int PARENTS = 5;
+   static final int CHILD_OFFSETS = 6;
+   static final int CHILDREN = 7;
+   static final int SPOUSE_OFFSETS = 8;
+   static final int SPOUSES = 9;
+   static final int CHILD_OF_OFFSETS = 10;
+   static final int CHILD_OF = 11;
+   static final int SPOUSE_OF_OFFSETS = 12;
+   static final int SPOUSE_OF = 13;
+   static final int FAMILY_PARENT_OFFSETS = 14;
+   static final int FAMILY_PARENTS = 15;
+   static final int FAMILY_CHILD_OFFSETS = 16;
+   static final int FAMILY_CHILDREN = 17;
+   static final int SECTIONS = 18;
+
+   private final int personCount;
+   private final int familyCount;
+   private final ByteBuffer personTitles;
+   private final ByteBuffer familyTitles;
+   private final IntBuffer[] sections;
+
+   /**
+    * @param sections the int sections, indexed by section number; the two title sections are ignored
+    */
+   FamilyGraph(int personCount, int familyCount, ByteBuffer personTitles, ByteBuffer familyTitles, IntBuffer[] sections) {
+      this.personCount = personCount;
+      this.familyCount = familyCount;
+      this.personTitles = personTitles;
+      this.familyTitles = familyTitles;
+      this.sections = sections;
+   }
+
+   public int getPersonCount() {
+      return personCount;
+   }
+
+   public int getFamilyCount() {
+      return familyCount;
+   }
+
+   /**
+    * Return the title of the person page, without the Person: namespace
+    */
+   public String getPersonTitle(int person) {
+      return getTitle(personTitles, sections[PERSON_TITLE_OFFSETS], person);
+   }
+
+   /**
+    * Return the title of the family page, without the Family: namespace
+    */
+   public String getFamilyTitle(int family) {
+      return getTitle(familyTitles, sections[FAMILY_TITLE_OFFSETS], family);
+   }
+
+   /**
+    * Return the id of the person page, or -1 if it isn't in the graph
+    * @param title title with or without the Person: namespace
+    */
+   public int findPerson(String title) {
+      return find(personTitles, sections[PERSON_TITLE_OFFSETS], personCount, stripNamespace(title, "Person:"));
+   }
+
+   /**
+    * Return the id of the family page, or -1 if it isn't in the graph
+    * @param title title with or without the Family: namespace
+    */
+   public int findFamily(String title) {
+      return find(familyTitles, sections[FAMILY_TITLE_OFFSETS], familyCount, stripNamespace(title, "Family:"));
+   }
+
+   public int getParentCount(int person) {
+      return count(PARENT_OFFSETS, person);
+   }
+
+   public int getParent(int person, int i) {
+      return target(PARENT_OFFSETS, PARENTS, person, i);
+   }
+
+   public int getChildCount(int person) {
+      return count(CHILD_OFFSETS, person);
+   }
+
+   public int getChild(int person, int i) {
+      return target(CHILD_OFFSETS, CHILDREN, person, i);
+   }
+
+   public int getSpouseCount(int person) {
+      return count(SPOUSE_OFFSETS, person);
+   }
+
+   public int getSpouse(int person, int i) {
+      return target(SPOUSE_OFFSETS, SPOUSES, person, i);
+   }
+
+   /**
+    * Return the number of families the person is a child in
+    */
+   public int getChildOfFamilyCount(int person) {
+      return count(CHILD_OF_OFFSETS, person);
+   }
+
+   public int getChildOfFamily(int person, int i) {
+      return target(CHILD_OF_OFFSETS, CHILD_OF, person, i);
+   }
+
+   /**
+    * Return the number of families the person is a husband or wife in
+    */
+   public int getSpouseOfFamilyCount(int person) {
+      return count(SPOUSE_OF_OFFSETS, person);
+   }
+
+   public int getSpouseOfFamily(int person, int i) {
+      return target(SPOUSE_OF_OFFSETS, SPOUSE_OF, person, i);
+   }
+
+   /**
+    * Return the number of husbands and wives in the family
+    */
+   public int getFamilyParentCount(int family) {
+      return count(FAMILY_PARENT_OFFSETS, family);
+   }
+
+   public int getFamilyParent(int family, int i) {
+      return target(FAMILY_PARENT_OFFSETS, FAMILY_PARENTS, family, i);
+   }
+
+   public int getFamilyChildCount(int family) {
+      return count(FAMILY_CHILD_OFFSETS, family);
+   }
+
+   public int getFamilyChild(int family, int i) {
+      return target(FAMILY_CHILD_OFFSETS, FAMILY_CHILDREN, family, i);
+   }
+
+   /**
+    * Append the parents of the person to result
+    */
+   public void getParents(int person, IntList result) {
+      append(PARENT_OFFSETS, PARENTS, person, result);
+   }
+
+   /**
+    * Append the children of the person to result
+    */
+   public void getChildren(int person, IntList result) {
+      append(CHILD_OFFSETS, CHILDREN, person, result);
+   }
+
+   /**
+    * Append the spouses of the person to result
+    */
+   public void getSpouses(int person, IntList result) {
+      append(SPOUSE_OFFSETS, SPOUSES, person, result);
+   }
+
+   /**
+    * Append the ancestors of the person to result, nearest generations first
+    * @param maxDepth number of generations to go back, or 0 for all of them
+    */
+   public void getAncestors(int person, int maxDepth, IntList result) {
+      traverse(PARENT_OFFSETS, PARENTS, person, maxDepth, result);
+   }
+
+   /**
+    * Append the descendants of the person to result, nearest generations first
+    * @param maxDepth number of generations to go down, or 0 for all of them
+    */
+   public void getDescendants(int person, int maxDepth, IntList result) {
+      traverse(CHILD_OFFSETS, CHILDREN, person, maxDepth, result);
+   }
+
+   // breadth-first search; each person is added once even if they appear in several lines of the tree
+   private void traverse(int offsetsSection, int targetsSection, int person, int maxDepth, IntList result) {
+      IntBuffer offsets = sections[offsetsSection];
+      IntBuffer targets = sections[targetsSection];
+      BitSet visited = new BitSet(personCount);
+      visited.set(person);
+      int start = result.size();
+      expand(offsets, targets, person, visited, result);
+      for (int depth = 1; (maxDepth <= 0 || depth < maxDepth) && start < result.size(); depth++) {
+         int end = result.size();
+         for (int i = start; i < end; i++) {
+            expand(offsets, targets, result.get(i), visited, result);
+         }
+         start = end;
+      }
+   }
+
+   private static void expand(IntBuffer offsets, IntBuffer targets, int node, BitSet visited, IntList result) {
+      for (int j = offsets.get(node), end = offsets.get(node+1); j < end; j++) {
+         int target = targets.get(j);
+         if (!visited.get(target)) {
+            visited.set(target);
+            result.add(target);
+         }
+      }
+   }
+
+   private int count(int offsetsSection, int node) {
+      IntBuffer offsets = sections[offsetsSection];
+      return offsets.get(node+1) - offsets.get(node);
+   }
+
+   private int target(int offsetsSection, int targetsSection, int node, int i) {
+      IntBuffer offsets = sections[offsetsSection];
+      int j = offsets.get(node) + i;
+      if (i < 0 || j >= offsets.get(node+1)) {
+         throw new IndexOutOfBoundsException("Index: " + i + ", Size: " + count(offsetsSection, node));
+      }
+      return sections[targetsSection].get(j);
+   }
+
+   private void append(int offsetsSection, int targetsSection, int node, IntList result) {
+      IntBuffer offsets = sections[offsetsSection];
+      IntBuffer targets = sections[targetsSection];
+      for (int j = offsets.get(node), end = offsets.get(node+1); j < end; j++) {
+         result.add(targets.get(j));
+      }
+   }
+
+   private static String stripNamespace(String title, String namespace) {
+      return (title.startsWith(namespace) ? title.substring(namespace.length()) : title);
+   }
+
+   private static String getTitle(ByteBuffer titles, IntBuffer offsets, int node) {
+      int start = offsets.get(node);
+      byte[] bytes = new byte[offsets.get(node+1) - start];
+      ByteBuffer buf = titles.duplicate();
+      buf.position(start);
+      buf.get(bytes);
+      return new String(bytes, UTF8);
+   }
+
+   // titles are sorted by their UTF-8 bytes, compared as unsigned
+   private static int find(ByteBuffer titles, IntBuffer offsets, int count, String title) {
+      byte[] key = title.getBytes(UTF8);
+      int lo = 0;
+      int hi = count - 1;
+      while (lo <= hi) {
+         int mid = (lo + hi) >>> 1;
+         int cmp = compare(titles, offsets.get(mid), offsets.get(mid+1), key);
+         if (cmp < 0) {
+            lo = mid + 1;
+         }
+         else if (cmp > 0) {
+            hi = mid - 1;
+         }
+         else {
+            return mid;
+         }
+      }
+      return -1;
+   }
+
+   private static int compare(ByteBuffer titles, int start, int end, byte[] key) {
+      int len = Math.min(end - start, key.length);
+      for (int i = 0; i < len; i++) {
+         int cmp = (titles.get(start + i) & 0xff) - (key[i] & 0xff);
+         if (cmp != 0) {
+            return cmp;
+         }
+      }
+      return (end - start) - key.length;
+   }
+
+   /**
+    * Write the graph; it's written to a temporary file first so a crash doesn't leave a partial graph behind
+    */
+   public void write(String filename) throws IOException {
+      File file = new File(filename);
+      File temp = new File(filename + ".tmp");
+      DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp), 256 * 1024));
+      try {
+         out.writeInt(MAGIC);
+         out.writeInt(VERSION);
+         out.writeInt(personCount);
+         out.writeInt(familyCount);
+         for (int section = 0; section < SECTIONS; section++) {
+            if (section == PERSON_TITLES || section == FAMILY_TITLES) {
+               writeBytes(out, section == PERSON_TITLES ? personTitles : familyTitles);
+            }
+            else {
+               IntBuffer buf = sections[section].duplicate();
+               buf.position(0);
+               out.writeInt(buf.remaining());
+               while (buf.hasRemaining()) {
+                  out.writeInt(buf.get());
+               }
+            }
+         }
+      }
+      finally {
+         out.close();
+      }
+      if (file.exists() && !file.delete()) {
+         throw new IOException("Unable to replace " + filename);
+      }
+      if (!temp.renameTo(file)) {
+         throw new IOException("Unable to rename " + temp + " to " + filename);
+      }
+   }
+
+   private static void writeBytes(DataOutputStream out, ByteBuffer titles) throws IOException {
+      ByteBuffer buf = titles.duplicate();
+      buf.position(0);
+      int length = buf.remaining();
+      out.writeInt(length);
+      byte[] chunk = new byte[64 * 1024];
+      while (buf.hasRemaining()) {
+         int n = Math.min(chunk.length, buf.remaining());
+         buf.get(chunk, 0, n);
+         out.write(chunk, 0, n);
+      }
+      for (int i = length; i % 4 != 0; i++) {
+         out.write(0);
+      }
+   }
+
+   /**
+    * Memory-map a graph written by write
+    */
+   public static FamilyGraph load(String filename) throws IOException {
+      RandomAccessFile file = new RandomAccessFile(filename, "r");
+      try {
+         FileChannel channel = file.getChannel();
+         if (channel.size() > Integer.MAX_VALUE) {
+            throw new IOException("Family graph is too large to map: " + filename);
+         }
+         // the mapping stays valid after the file is closed
+         ByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+         if (buf.getInt() != MAGIC) {
+            throw new IOException("Not a family graph: " + filename);
+         }
+         int version = buf.getInt();
+         if (version != VERSION) {
+            throw new IOException("Unsupported family graph version: " + version);
+         }
+         int personCount = buf.getInt();
+         int familyCount = buf.getInt();
+         ByteBuffer personTitles = null;
+         ByteBuffer familyTitles = null;
+         IntBuffer[] sections = new IntBuffer[SECTIONS];
+         for (int section = 0; section < SECTIONS; section++) {
+            int length = buf.getInt();
+            boolean isTitles = (section == PERSON_TITLES || section == FAMILY_TITLES);
+            int bytes = (isTitles ? length : length * 4);
+            if (bytes < 0 || bytes > buf.remaining()) {
+               throw new IOException("Truncated family graph: " + filename);
+            }
+            ByteBuffer slice = buf.slice();
+            slice.limit(bytes);
+            if (section == PERSON_TITLES) {
+               personTitles = slice;
+            }
+            else if (section == FAMILY_TITLES) {
+               familyTitles = slice;
+            }
+            else {
+               sections[section] = slice.asIntBuffer();
+            }
+            buf.position(buf.position() + (bytes + 3) / 4 * 4);
+         }
+         return new FamilyGraph(personCount, familyCount, personTitles, familyTitles, sections);
+      }
+      finally {
+         file.close();
+      }
+   }
+}
@@ -0,0 +1,421 @@
+/*
+ * Copyright 2012 Foundation for On-Line Genealogy, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.folg.werelatedata.graph;
+
+import nu.xom.ParsingException;
+import org.folg.werelatedata.parser.CombinableWikiParser;
+import org.folg.werelatedata.parser.FamilyRecord;
+import org.folg.werelatedata.parser.PageIndex;
+import org.folg.werelatedata.parser.PageText;
+import org.folg.werelatedata.parser.PersonRecord;
+import org.folg.werelatedata.parser.ShardedWikiReader;
+import org.folg.werelatedata.parser.Util;
+import org.folg.werelatedata.parser.WikiParser;
+import org.folg.werelatedata.parser.WikiParserFactory;
+import org.folg.werelatedata.parser.WikiReader;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Reads Person and Family pages and builds a FamilyGraph.
+ * <p>
+ * A link between a person and a family counts if either page declares it: a person page's child_of_family or spouse_of_family,
+ * or a family page's husband, wife or child. Links to pages that aren't in the dump are dropped.
+ * While reading, titles are given provisional ids in the order they're first seen and links are kept as pairs of provisional ids;
+ * build replaces them with dense ids in title order.
+ */
+public class FamilyGraphBuilder extends CombinableWikiParser {
+   private static final Set<Integer> NAMESPACES = new HashSet<Integer>(Arrays.asList(Util.NS_PERSON, Util.NS_FAMILY));
+   private static final String PERSON_PREFIX = "Person:";
+   private static final String FAMILY_PREFIX = "Family:";
+   private static final Charset UTF8 = Charset.forName("UTF-8");
+
+   private Map<String,Integer> personIds;
+   private Map<String,Integer> familyIds;
+   private List<String> personTitles;
+   private List<String> familyTitles;
+   private BitSet personPages;
+   private BitSet familyPages;
+   // (person, family) pairs of provisional ids
+   private IntList childOfLinks;
+   private IntList spouseOfLinks;
+
+   public FamilyGraphBuilder() {
+      personIds = new HashMap<String,Integer>();
+      familyIds = new HashMap<String,Integer>();
+      personTitles = new ArrayList<String>();
+      familyTitles = new ArrayList<String>();
+      personPages = new BitSet();
+      familyPages = new BitSet();
+      childOfLinks = new IntList(1024);
+      spouseOfLinks = new IntList(1024);
+   }
+
+   public Set<Integer> getNamespaces() {
+      return NAMESPACES;
+   }
+
+   public void parse(String title, String text, int pageId, int latestRevId, String username, String timestamp, String comment)
+           throws IOException, ParsingException {
+      parse(title, new PageText(text), pageId, latestRevId, username, timestamp, comment);
+   }
+
+   public void parse(String title, PageText text, int pageId, int latestRevId, String username, String timestamp, String comment)
+           throws IOException, ParsingException {
+      if (title.startsWith(PERSON_PREFIX)) {
+         PersonRecord person = getPersonRecord(text);
+         synchronized (this) {
+            int id = getPersonId(title.substring(PERSON_PREFIX.length()));
+            personPages.set(id);
+            if (person != null) {
+               for (String family : person.getChildOfFamilies()) {
+                  addLink(childOfLinks, id, family);
+               }
+               for (String family : person.getSpouseOfFamilies()) {
+                  addLink(spouseOfLinks, id, family);
+               }
+            }
+         }
+      }
+      else if (title.startsWith(FAMILY_PREFIX)) {
+         FamilyRecord family = getFamilyRecord(text);
+         synchronized (this) {
+            int id = getFamilyId(title.substring(FAMILY_PREFIX.length()));
+            familyPages.set(id);
+            if (family != null) {
+               for (int i = 0; i < family.getHusbandCount(); i++) {
+                  addLink(spouseOfLinks, family.getHusbandTitle(i), id);
+               }
+               for (int i = 0; i < family.getWifeCount(); i++) {
+                  addLink(spouseOfLinks, family.getWifeTitle(i), id);
+               }
+               for (String child : family.getChildTitles()) {
+                  addLink(childOfLinks, child, id);
+               }
+            }
+         }
+      }
+   }
+
+   private void addLink(IntList links, int person, String familyTitle) {
+      if (familyTitle.length() > 0) {
+         links.add(person);
+         links.add(getFamilyId(normalize(FAMILY_PREFIX, familyTitle)));
+      }
+   }
+
+   private void addLink(IntList links, String personTitle, int family) {
+      if (personTitle.length() > 0) {
+         links.add(getPersonId(normalize(PERSON_PREFIX, personTitle)));
+         links.add(family);
+      }
+   }
+
+   private static String normalize(String prefix, String title) {
+      return PageIndex.normalizeTitle(prefix + title).substring(prefix.length());
+   }
+
+   private int getPersonId(String title) {
+      return getId(personIds, personTitles, title);
+   }
+
+   private int getFamilyId(String title) {
+      return getId(familyIds, familyTitles, title);
+   }
+
+   private static int getId(Map<String,Integer> ids, List<String> titles, String title) {
+      Integer id = ids.get(title);
+      if (id == null) {
+         id = titles.size();
+         ids.put(title, id);
+         titles.add(title);
+      }
+      return id;
+   }
+
+   public synchronized void combine(WikiParser other) throws IOException {
+      FamilyGraphBuilder that = (FamilyGraphBuilder)other;
+      int[] personMap = new int[that.personTitles.size()];
+      for (int i = 0; i < personMap.length; i++) {
+         personMap[i] = getPersonId(that.personTitles.get(i));
+         if (that.personPages.get(i)) {
+            personPages.set(personMap[i]);
+         }
+      }
+      int[] familyMap = new int[that.familyTitles.size()];
+      for (int i = 0; i < familyMap.length; i++) {
+         familyMap[i] = getFamilyId(that.familyTitles.get(i));
+         if (that.familyPages.get(i)) {
+            familyPages.set(familyMap[i]);
+         }
+      }
+      for (int i = 0; i < that.childOfLinks.size(); i += 2) {
+         childOfLinks.add(personMap[that.childOfLinks.get(i)]);
+         childOfLinks.add(familyMap[that.childOfLinks.get(i+1)]);
+      }
+      for (int i = 0; i < that.spouseOfLinks.size(); i += 2) {
+         spouseOfLinks.add(personMap[that.spouseOfLinks.get(i)]);
+         spouseOfLinks.add(familyMap[that.spouseOfLinks.get(i+1)]);
+      }
+   }
+
+   public synchronized void writeState(ObjectOutputStream out) throws IOException {
+      out.writeObject(personTitles);
+      out.writeObject(familyTitles);
+      out.writeObject(personPages);
+      out.writeObject(familyPages);
+      out.writeObject(childOfLinks.toArray());
+      out.writeObject(spouseOfLinks.toArray());
+   }
+
+   @SuppressWarnings("unchecked")
+   public synchronized void readState(ObjectInputStream in) throws IOException, ClassNotFoundException {
+      personTitles = (List<String>)in.readObject();
+      familyTitles = (List<String>)in.readObject();
+      personPages = (BitSet)in.readObject();
+      familyPages = (BitSet)in.readObject();
+      childOfLinks = toIntList((int[])in.readObject());
+      spouseOfLinks = toIntList((int[])in.readObject());
+      personIds = toIdMap(personTitles);
+      familyIds = toIdMap(familyTitles);
+   }
+
+   private static IntList toIntList(int[] values) {
+      IntList list = new IntList(values.length);
+      for (int value : values) {
+         list.add(value);
+      }
+      return list;
+   }
+
+   private static Map<String,Integer> toIdMap(List<String> titles) {
+      Map<String,Integer> ids = new HashMap<String,Integer>();
+      for (int i = 0; i < titles.size(); i++) {
+         ids.put(titles.get(i), i);
+      }
+      return ids;
+   }
+
+   /**
+    * Read a dump or page store and build its graph, using a thread per processor.
+    * Uncompressed dumps are read with a ShardedWikiReader.
+    */
+   public static FamilyGraph read(String filename) throws IOException, ParsingException {
+      FamilyGraphBuilder builder;
+      int threads = Runtime.getRuntime().availableProcessors();
+      if (filename.endsWith(".xml")) {
+         ShardedWikiReader wikiReader = new ShardedWikiReader(threads);
+         wikiReader.setSkipRedirects(true);
+         wikiReader.addWikiParserFactory(new WikiParserFactory() {
+            public CombinableWikiParser create() {
+               return new FamilyGraphBuilder();
+            }
+         });
+         builder = (FamilyGraphBuilder)wikiReader.read(filename).get(0);
+      }
+      else {
+         WikiReader wikiReader = new WikiReader();
+         wikiReader.setSkipRedirects(true);
+         wikiReader.setThreads(threads);
+         builder = new FamilyGraphBuilder();
+         wikiReader.addWikiParser(builder);
+         wikiReader.read(filename);
+      }
+      return builder.build();
+   }
+
+   /**
+    * Build the graph from the pages read so far
+    */
+   public synchronized FamilyGraph build() {
+      String[] persons = getPageTitles(personTitles, personPages);
+      String[] families = getPageTitles(familyTitles, familyPages);
+      int[] personMap = getDenseIds(persons, personIds, personTitles.size());
+      int[] familyMap = getDenseIds(families, familyIds, familyTitles.size());
+      IntList childOf = remap(childOfLinks, personMap, familyMap);
+      IntList spouseOf = remap(spouseOfLinks, personMap, familyMap);
+
+      IntBuffer[] sections = new IntBuffer[FamilyGraph.SECTIONS];
+      int[][] childOfCsr = toCsr(childOf, persons.length, false);
+      int[][] spouseOfCsr = toCsr(spouseOf, persons.length, false);
+      int[][] familyChildren = toCsr(childOf, families.length, true);
+      int[][] familyParents = toCsr(spouseOf, families.length, true);
+
+      // a person's parents are the husbands and wives of the families they're a child in
+      IntList parentLinks = new IntList(childOf.size());
+      for (int child = 0; child < persons.length; child++) {
+         for (int i = childOfCsr[0][child]; i < childOfCsr[0][child+1]; i++) {
+            int family = childOfCsr[1][i];
+            for (int j = familyParents[0][family]; j < familyParents[0][family+1]; j++) {
+               int parent = familyParents[1][j];
+               if (parent != child) {
+                  parentLinks.add(child);
+                  parentLinks.add(parent);
+               }
+            }
+         }
+      }
+      IntList spouseLinks = new IntList(spouseOf.size());
+      for (int family = 0; family < families.length; family++) {
+         for (int i = familyParents[0][family]; i < familyParents[0][family+1]; i++) {
+            for (int j = familyParents[0][family]; j < familyParents[0][family+1]; j++) {
+               if (i != j) {
+                  spouseLinks.add(familyParents[1][i]);
+                  spouseLinks.add(familyParents[1][j]);
+               }
+            }
+         }
+      }
+
+      setSections(sections, FamilyGraph.PARENT_OFFSETS, FamilyGraph.PARENTS, toCsr(parentLinks, persons.length, false));
+      setSections(sections, FamilyGraph.CHILD_OFFSETS, FamilyGraph.CHILDREN, toCsr(parentLinks, persons.length, true));
+      setSections(sections, FamilyGraph.SPOUSE_OFFSETS, FamilyGraph.SPOUSES, toCsr(spouseLinks, persons.length, false));
+      setSections(sections, FamilyGraph.CHILD_OF_OFFSETS, FamilyGraph.CHILD_OF, childOfCsr);
+      setSections(sections, FamilyGraph.SPOUSE_OF_OFFSETS, FamilyGraph.SPOUSE_OF, spouseOfCsr);
+      setSections(sections, FamilyGraph.FAMILY_PARENT_OFFSETS, FamilyGraph.FAMILY_PARENTS, familyParents);
+      setSections(sections, FamilyGraph.FAMILY_CHILD_OFFSETS, FamilyGraph.FAMILY_CHILDREN, familyChildren);
+
+      int[] personTitleOffsets = new int[persons.length+1];
+      ByteBuffer personTitleBytes = encodeTitles(persons, personTitleOffsets);
+      sections[FamilyGraph.PERSON_TITLE_OFFSETS] = IntBuffer.wrap(personTitleOffsets);
+      int[] familyTitleOffsets = new int[families.length+1];
+      ByteBuffer familyTitleBytes = encodeTitles(families, familyTitleOffsets);
+      sections[FamilyGraph.FAMILY_TITLE_OFFSETS] = IntBuffer.wrap(familyTitleOffsets);
+
+      return new FamilyGraph(persons.length, families.length, personTitleBytes, familyTitleBytes, sections);
+   }
+
+   private static void setSections(IntBuffer[] sections, int offsetsSection, int targetsSection, int[][] csr) {
+      sections[offsetsSection] = IntBuffer.wrap(csr[0]);
+      sections[targetsSection] = IntBuffer.wrap(csr[1]);
+   }
+
+   // Return the titles that have pages, sorted the way FamilyGraph searches them
+   private static String[] getPageTitles(List<String> titles, BitSet pages) {
+      String[] result = new String[pages.cardinality()];
+      int j = 0;
+      for (int i = pages.nextSetBit(0); i >= 0; i = pages.nextSetBit(i+1)) {
+         result[j++] = titles.get(i);
+      }
+      Arrays.sort(result, CODE_POINT_ORDER);
+      return result;
+   }
+
+   // Return a map from provisional id to dense id, or -1 for titles without pages
+   private static int[] getDenseIds(String[] sortedTitles, Map<String,Integer> ids, int count) {
+      int[] map = new int[count];
+      Arrays.fill(map, -1);
+      for (int i = 0; i < sortedTitles.length; i++) {
+         map[ids.get(sortedTitles[i])] = i;
+      }
+      return map;
+   }
+
+   private static IntList remap(IntList links, int[] personMap, int[] familyMap) {
+      IntList result = new IntList(links.size());
+      for (int i = 0; i < links.size(); i += 2) {
+         int person = personMap[links.get(i)];
+         int family = familyMap[links.get(i+1)];
+         if (person >= 0 && family >= 0) {
+            result.add(person);
+            result.add(family);
+         }
+      }
+      return result;
+   }
+
+   /**
+    * Turn (from, to) pairs into {offsets, targets} arrays, with each node's targets sorted and unique
+    * @param inverse if true, index the pairs by to instead of from
+    */
+   private static int[][] toCsr(IntList pairs, int nodes, boolean inverse) {
+      int keyPos = (inverse ? 1 : 0);
+      int[] offsets = new int[nodes+1];
+      for (int i = 0; i < pairs.size(); i += 2) {
+         offsets[pairs.get(i + keyPos) + 1]++;
+      }
+      for (int n = 0; n < nodes; n++) {
+         offsets[n+1] += offsets[n];
+      }
+      int[] targets = new int[pairs.size() / 2];
+      int[] next = Arrays.copyOf(offsets, nodes);
+      for (int i = 0; i < pairs.size(); i += 2) {
+         targets[next[pairs.get(i + keyPos)]++] = pairs.get(i + 1 - keyPos);
+      }
+      // sort each node's targets and squeeze out duplicates
+      int j = 0;
+      for (int n = 0; n < nodes; n++) {
+         int start = offsets[n];
+         int end = offsets[n+1];
+         Arrays.sort(targets, start, end);
+         offsets[n] = j;
+         for (int i = start; i < end; i++) {
+            if (i == start || targets[i] != targets[i-1]) {
+               targets[j++] = targets[i];
+            }
+         }
+      }
+      offsets[nodes] = j;
+      return new int[][] {offsets, Arrays.copyOf(targets, j)};
+   }
+
+   private static ByteBuffer encodeTitles(String[] titles, int[] offsets) {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      for (int i = 0; i < titles.length; i++) {
+         byte[] b = titles[i].getBytes(UTF8);
+         bytes.write(b, 0, b.length);
+         offsets[i+1] = bytes.size();
+      }
+      return ByteBuffer.wrap(bytes.toByteArray());
+   }
+
+   /**
+    * Orders strings by code point, which is the order of their UTF-8 bytes
+    */
+   static final Comparator<String> CODE_POINT_ORDER = new Comparator<String>() {
+      public int compare(String s1, String s2) {
+         int len = Math.min(s1.length(), s2.length());
+         for (int i = 0; i < len; i++) {
+            char c1 = s1.charAt(i);
+            char c2 = s2.charAt(i);
+            if (c1 != c2) {
+               return fixup(c1) - fixup(c2);
+            }
+         }
+         return s1.length() - s2.length();
+      }
+
+      // surrogates sort after the rest of the basic multilingual plane in code point order
+      private int fixup(char c) {
+         return (c >= 0xD800 ? (c >= 0xE000 ? c - 0x800 : c + 0x2000) : c);
+      }
+   };
+}
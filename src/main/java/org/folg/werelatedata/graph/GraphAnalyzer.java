@@ -0,0 +1,229 @@
+/*
+ * Copyright 2012 Foundation for On-Line Genealogy, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.folg.werelatedata.graph;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Finds the separate trees in a family graph and the loops where someone is their own ancestor.
+ * <p>
+ * Trees are found with union-find over person ids: each parent and spouse edge joins two people.
+ * Loops are found with an iterative depth-first search over parent edges, so deep trees don't overflow the stack;
+ * every edge back to a person whose ancestors are still being searched closes a loop.
+ */
+public class GraphAnalyzer {
+   private final FamilyGraph graph;
+
+   public GraphAnalyzer(FamilyGraph graph) {
+      this.graph = graph;
+   }
+
+   /**
+    * The trees in a graph, numbered from largest to smallest
+    */
+   public static class Components {
+      private final int[] componentOf;
+      private final int[] sizes;
+      private final int[] firstPersons;
+
+      Components(int[] componentOf, int[] sizes, int[] firstPersons) {
+         this.componentOf = componentOf;
+         this.sizes = sizes;
+         this.firstPersons = firstPersons;
+      }
+
+      public int getCount() {
+         return sizes.length;
+      }
+
+      public int getComponent(int person) {
+         return componentOf[person];
+      }
+
+      public int getSize(int component) {
+         return sizes[component];
+      }
+
+      /**
+       * Return the person in the component with the lowest id, which is the first in title order
+       */
+      public int getFirstPerson(int component) {
+         return firstPersons[component];
+      }
+   }
+
+   public Components findComponents() {
+      int n = graph.getPersonCount();
+      int[] parent = new int[n];
+      int[] rank = new int[n];
+      for (int p = 0; p < n; p++) {
+         parent[p] = p;
+      }
+      for (int p = 0; p < n; p++) {
+         for (int i = 0; i < graph.getParentCount(p); i++) {
+            union(parent, rank, p, graph.getParent(p, i));
+         }
+         for (int i = 0; i < graph.getSpouseCount(p); i++) {
+            union(parent, rank, p, graph.getSpouse(p, i));
+         }
+      }
+
+      // number the roots, then renumber them by decreasing size
+      int[] rootIds = new int[n];
+      Arrays.fill(rootIds, -1);
+      IntList rootSizes = new IntList();
+      IntList rootFirsts = new IntList();
+      int[] componentOf = new int[n];
+      for (int p = 0; p < n; p++) {
+         int root = find(parent, p);
+         if (rootIds[root] < 0) {
+            rootIds[root] = rootSizes.size();
+            rootSizes.add(0);
+            rootFirsts.add(p);
+         }
+         componentOf[p] = rootIds[root];
+         rootSizes.set(componentOf[p], rootSizes.get(componentOf[p]) + 1);
+      }
+      int count = rootSizes.size();
+      long[] keys = new long[count];
+      for (int c = 0; c < count; c++) {
+         // larger first, ties in title order
+         keys[c] = ((long)(Integer.MAX_VALUE - rootSizes.get(c)) << 32) | c;
+      }
+      Arrays.sort(keys);
+      int[] renumber = new int[count];
+      int[] sizes = new int[count];
+      int[] firstPersons = new int[count];
+      for (int i = 0; i < count; i++) {
+         int c = (int)keys[i];
+         renumber[c] = i;
+         sizes[i] = rootSizes.get(c);
+         firstPersons[i] = rootFirsts.get(c);
+      }
+      for (int p = 0; p < n; p++) {
+         componentOf[p] = renumber[componentOf[p]];
+      }
+      return new Components(componentOf, sizes, firstPersons);
+   }
+
+   private static int find(int[] parent, int p) {
+      while (parent[p] != p) {
+         parent[p] = parent[parent[p]]; // path halving
+         p = parent[p];
+      }
+      return p;
+   }
+
+   private static void union(int[] parent, int[] rank, int p, int q) {
+      int pRoot = find(parent, p);
+      int qRoot = find(parent, q);
+      if (pRoot == qRoot) {
+         return;
+      }
+      if (rank[pRoot] < rank[qRoot]) {
+         parent[pRoot] = qRoot;
+      }
+      else if (rank[pRoot] > rank[qRoot]) {
+         parent[qRoot] = pRoot;
+      }
+      else {
+         parent[qRoot] = pRoot;
+         rank[pRoot]++;
+      }
+   }
+
+   /**
+    * Return the loops in the parent edges; in each loop the person at i+1 is a parent of the person at i,
+    * and the first person is a parent of the last
+    */
+   public List<int[]> findCycles() {
+      final int unvisited = 0;
+      final int searching = 1;
+      final int done = 2;
+      int n = graph.getPersonCount();
+      byte[] state = new byte[n];
+      // the search path: person and the index of the next parent to look at
+      int[] pathPersons = new int[64];
+      int[] pathNext = new int[64];
+      int[] pathPos = new int[n];
+      List<int[]> cycles = new ArrayList<int[]>();
+
+      for (int start = 0; start < n; start++) {
+         if (state[start] != unvisited) {
+            continue;
+         }
+         int depth = 0;
+         pathPersons[0] = start;
+         pathNext[0] = 0;
+         pathPos[start] = 0;
+         state[start] = searching;
+         while (depth >= 0) {
+            int p = pathPersons[depth];
+            if (pathNext[depth] < graph.getParentCount(p)) {
+               int q = graph.getParent(p, pathNext[depth]++);
+               if (state[q] == unvisited) {
+                  depth++;
+                  if (depth == pathPersons.length) {
+                     pathPersons = Arrays.copyOf(pathPersons, depth * 2);
+                     pathNext = Arrays.copyOf(pathNext, depth * 2);
+                  }
+                  pathPersons[depth] = q;
+                  pathNext[depth] = 0;
+                  pathPos[q] = depth;
+                  state[q] = searching;
+               }
+               else if (state[q] == searching) {
+                  cycles.add(Arrays.copyOfRange(pathPersons, pathPos[q], depth + 1));
+               }
+            }
+            else {
+               state[p] = done;
+               depth--;
+            }
+         }
+      }
+      return cycles;
+   }
+
+   /**
+    * Write one line per tree: its first person and the number of people in it
+    * @param minSize smallest tree to list
+    */
+   public void writeComponents(Components components, int minSize, PrintWriter out) {
+      for (int c = 0; c < components.getCount() && components.getSize(c) >= minSize; c++) {
+         out.println("* [[Person:" + graph.getPersonTitle(components.getFirstPerson(c)) + "]] " + components.getSize(c) + " people");
+      }
+   }
+
+   /**
+    * Write one line per loop, like [[Person:A]] parent [[Person:B]] parent [[Person:A]]
+    */
+   public void writeCycles(List<int[]> cycles, PrintWriter out) {
+      for (int[] cycle : cycles) {
+         StringBuilder buf = new StringBuilder("*");
+         for (int i = 0; i <= cycle.length; i++) {
+            if (i > 0) {
+               buf.append(" parent");
+            }
+            buf.append(" [[Person:").append(graph.getPersonTitle(cycle[i % cycle.length])).append("]]");
+         }
+         out.println(buf);
+      }
+   }
+}
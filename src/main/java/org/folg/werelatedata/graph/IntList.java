@@ -0,0 +1,125 @@
+/*
+ * Copyright 2012 Foundation for On-Line Genealogy, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.folg.werelatedata.graph;
+
+import java.util.Arrays;
+
+/**
+ * A growable list of primitive ints, so large id lists don't need an Integer per element
+ */
+public class IntList {
+   private int[] values;
+   private int size;
+
+   public IntList() {
+      this(16);
+   }
+
+   public IntList(int capacity) {
+      values = new int[Math.max(capacity, 1)];
+      size = 0;
+   }
+
+   public void add(int value) {
+      if (size == values.length) {
+         values = Arrays.copyOf(values, size * 2);
+      }
+      values[size++] = value;
+   }
+
+   public void addAll(IntList other) {
+      ensureCapacity(size + other.size);
+      System.arraycopy(other.values, 0, values, size, other.size);
+      size += other.size;
+   }
+
+   public int get(int index) {
+      if (index >= size) {
+         throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+      }
+      return values[index];
+   }
+
+   public void set(int index, int value) {
+      if (index >= size) {
+         throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+      }
+      values[index] = value;
+   }
+
+   public int size() {
+      return size;
+   }
+
+   public boolean isEmpty() {
+      return size == 0;
+   }
+
+   public void clear() {
+      size = 0;
+   }
+
+   /**
+    * Return true if the list contains value; the list is searched linearly
+    */
+   public boolean contains(int value) {
+      for (int i = 0; i < size; i++) {
+         if (values[i] == value) {
+            return true;
+         }
+      }
+      return false;
+   }
+
+   public void ensureCapacity(int capacity) {
+      if (capacity > values.length) {
+         values = Arrays.copyOf(values, Math.max(capacity, values.length * 2));
+      }
+   }
+
+   public void sort() {
+      Arrays.sort(values, 0, size);
+   }
+
+   /**
+    * Sort the list and remove duplicates
+    */
+   public void sortUnique() {
+      sort();
+      int j = 0;
+      for (int i = 0; i < size; i++) {
+         if (j == 0 || values[i] != values[j-1]) {
+            values[j++] = values[i];
+         }
+      }
+      size = j;
+   }
+
+   public int[] toArray() {
+      return Arrays.copyOf(values, size);
+   }
+
+   public String toString() {
+      StringBuilder buf = new StringBuilder("[");
+      for (int i = 0; i < size; i++) {
+         if (i > 0) {
+            buf.append(", ");
+         }
+         buf.append(values[i]);
+      }
+      return buf.append(']').toString();
+   }
+}
@@ -0,0 +1,395 @@
+/*
+ * Copyright 2012 Foundation for On-Line Genealogy, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.folg.werelatedata.graph;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Finds how two people are related: the shortest path between them over parent, child and spouse edges.
+ * <p>
+ * Searches are bidirectional breadth-first: the smaller frontier is expanded one generation at a time from whichever end it belongs to,
+ * until the two searches meet or the path would be longer than the maximum depth.
+ * Visited people are kept in small open-addressing hash tables that are reused by each thread,
+ * so a query only touches the people near the two ends and doesn't allocate anything proportional to the size of the graph.
+ * A finder may be used by several threads at once.
+ */
+public class RelationshipFinder {
+   public static final int DEFAULT_MAX_DEPTH = 20;
+
+   public enum Step { PARENT, CHILD, SPOUSE }
+
+   private static final Step[] STEPS = Step.values();
+   private static final int BATCH_SIZE = 256;
+
+   private final FamilyGraph graph;
+   private int maxDepth;
+   private final ThreadLocal<Search> search;
+
+   public RelationshipFinder(FamilyGraph graph) {
+      this.graph = graph;
+      maxDepth = DEFAULT_MAX_DEPTH;
+      search = new ThreadLocal<Search>() {
+         protected Search initialValue() {
+            return new Search();
+         }
+      };
+   }
+
+   /**
+    * Set the maximum number of steps in a relationship; people further apart are treated as unrelated
+    */
+   public void setMaxDepth(int maxDepth) {
+      this.maxDepth = maxDepth;
+   }
+
+   public FamilyGraph getGraph() {
+      return graph;
+   }
+
+   /**
+    * Return the shortest relationship from one person to another, or null if they aren't related within the maximum depth
+    */
+   public Relationship find(int from, int to) {
+      return search.get().find(from, to);
+   }
+
+   /**
+    * Find the relationship between each pair of people in parallel
+    * @return the relationship for from[i] and to[i] at index i, or null where they aren't related
+    */
+   public Relationship[] find(final int[] from, final int[] to, int threads) throws InterruptedException {
+      if (from.length != to.length) {
+         throw new IllegalArgumentException("from and to must be the same length");
+      }
+      final Relationship[] result = new Relationship[from.length];
+      ExecutorService executor = Executors.newFixedThreadPool(threads);
+      try {
+         List<Future<Void>> futures = new ArrayList<Future<Void>>();
+         for (int start = 0; start < from.length; start += BATCH_SIZE) {
+            final int batchStart = start;
+            final int batchEnd = Math.min(start + BATCH_SIZE, from.length);
+            futures.add(executor.submit(new Callable<Void>() {
+               public Void call() {
+                  Search s = search.get();
+                  for (int i = batchStart; i < batchEnd; i++) {
+                     result[i] = s.find(from[i], to[i]);
+                  }
+                  return null;
+               }
+            }));
+         }
+         for (Future<Void> future : futures) {
+            try {
+               future.get();
+            }
+            catch (ExecutionException e) {
+               Throwable cause = e.getCause();
+               if (cause instanceof RuntimeException) {
+                  throw (RuntimeException)cause;
+               }
+               else if (cause instanceof Error) {
+                  throw (Error)cause;
+               }
+               throw new RuntimeException(cause);
+            }
+         }
+      }
+      finally {
+         executor.shutdownNow();
+      }
+      return result;
+   }
+
+   /**
+    * A path from one person to another: getStep(i) is how getPerson(i+1) is related to getPerson(i)
+    */
+   public static class Relationship {
+      private final int[] persons;
+      private final Step[] steps;
+
+      Relationship(int[] persons, Step[] steps) {
+         this.persons = persons;
+         this.steps = steps;
+      }
+
+      /**
+       * Return the number of steps in the path
+       */
+      public int length() {
+         return steps.length;
+      }
+
+      public int getPerson(int i) {
+         return persons[i];
+      }
+
+      public Step getStep(int i) {
+         return steps[i];
+      }
+
+      /**
+       * Return the path as wiki text, like [[Person:A]] parent [[Person:B]] spouse [[Person:C]]
+       */
+      public String toWikiText(FamilyGraph graph) {
+         StringBuilder buf = new StringBuilder();
+         buf.append("[[Person:").append(graph.getPersonTitle(persons[0])).append("]]");
+         for (int i = 0; i < steps.length; i++) {
+            buf.append(' ').append(steps[i].name().toLowerCase()).append(' ');
+            buf.append("[[Person:").append(graph.getPersonTitle(persons[i+1])).append("]]");
+         }
+         return buf.toString();
+      }
+
+      public String toString() {
+         return Arrays.toString(persons) + " " + Arrays.toString(steps);
+      }
+   }
+
+   // the state of one thread's searches
+   private class Search {
+      private final VisitedTable forward = new VisitedTable();
+      private final VisitedTable backward = new VisitedTable();
+      private IntList forwardFrontier = new IntList();
+      private IntList backwardFrontier = new IntList();
+      private IntList next = new IntList();
+      private int bestLength;
+      private int bestMeeting;
+
+      Relationship find(int from, int to) {
+         if (from == to) {
+            return new Relationship(new int[] {from}, new Step[0]);
+         }
+         forward.clear();
+         backward.clear();
+         forwardFrontier.clear();
+         backwardFrontier.clear();
+         forward.put(from, -1, 0);
+         backward.put(to, -1, 0);
+         forwardFrontier.add(from);
+         backwardFrontier.add(to);
+         int forwardDepth = 0;
+         int backwardDepth = 0;
+         bestLength = Integer.MAX_VALUE;
+
+         while (forwardDepth + backwardDepth < maxDepth && !forwardFrontier.isEmpty() && !backwardFrontier.isEmpty()) {
+            if (forwardFrontier.size() <= backwardFrontier.size()) {
+               expand(forwardFrontier, forward, backward, forwardDepth);
+               IntList t = forwardFrontier; forwardFrontier = next; next = t;
+               forwardDepth++;
+            }
+            else {
+               expand(backwardFrontier, backward, forward, backwardDepth);
+               IntList t = backwardFrontier; backwardFrontier = next; next = t;
+               backwardDepth++;
+            }
+            if (bestLength < Integer.MAX_VALUE) {
+               return getRelationship();
+            }
+         }
+         return null;
+      }
+
+      // expand a whole generation, remembering the shortest path through any person seen by the other search
+      private void expand(IntList frontier, VisitedTable visited, VisitedTable other, int depth) {
+         next.clear();
+         for (int i = 0; i < frontier.size(); i++) {
+            int person = frontier.get(i);
+            for (int s = 0; s < STEPS.length; s++) {
+               Step step = STEPS[s];
+               int count = getCount(step, person);
+               for (int j = 0; j < count; j++) {
+                  int neighbor = getNeighbor(step, person, j);
+                  if (visited.find(neighbor) < 0) {
+                     visited.put(neighbor, person, s);
+                     next.add(neighbor);
+                     int slot = other.find(neighbor);
+                     if (slot >= 0) {
+                        int length = depth + 1 + other.getDepth(slot);
+                        if (length < bestLength) {
+                           bestLength = length;
+                           bestMeeting = neighbor;
+                        }
+                     }
+                  }
+               }
+            }
+         }
+         // record depths for the new generation
+         for (int i = 0; i < next.size(); i++) {
+            visited.setDepth(visited.find(next.get(i)), depth + 1);
+         }
+      }
+
+      private int getCount(Step step, int person) {
+         switch (step) {
+            case PARENT: return graph.getParentCount(person);
+            case CHILD: return graph.getChildCount(person);
+            default: return graph.getSpouseCount(person);
+         }
+      }
+
+      private int getNeighbor(Step step, int person, int i) {
+         switch (step) {
+            case PARENT: return graph.getParent(person, i);
+            case CHILD: return graph.getChild(person, i);
+            default: return graph.getSpouse(person, i);
+         }
+      }
+
+      // the path runs back from the meeting person to the start, then on from the meeting person to the end
+      private Relationship getRelationship() {
+         int meet = bestMeeting;
+         IntList persons = new IntList();
+         List<Step> steps = new ArrayList<Step>();
+         for (int p = meet; p >= 0; ) {
+            int slot = forward.find(p);
+            persons.add(p);
+            if (forward.getPrevious(slot) >= 0) {
+               steps.add(STEPS[forward.getStep(slot)]);
+            }
+            p = forward.getPrevious(slot);
+         }
+         int[] result = new int[bestLength + 1];
+         Step[] resultSteps = new Step[bestLength];
+         int n = persons.size();
+         for (int i = 0; i < n; i++) {
+            result[i] = persons.get(n - 1 - i);
+         }
+         for (int i = 0; i < steps.size(); i++) {
+            resultSteps[i] = steps.get(steps.size() - 1 - i);
+         }
+         int k = n - 1;
+         for (int p = meet; ; ) {
+            int slot = backward.find(p);
+            int previous = backward.getPrevious(slot);
+            if (previous < 0) {
+               break;
+            }
+            // the backward search recorded how p is related to previous, so invert it
+            resultSteps[k] = invert(STEPS[backward.getStep(slot)]);
+            result[++k] = previous;
+            p = previous;
+         }
+         return new Relationship(result, resultSteps);
+      }
+   }
+
+   private static Step invert(Step step) {
+      switch (step) {
+         case PARENT: return Step.CHILD;
+         case CHILD: return Step.PARENT;
+         default: return Step.SPOUSE;
+      }
+   }
+
+   /**
+    * An open-addressing hash table from person to (previous person, step, depth), cleared in time proportional to its use
+    */
+   private static class VisitedTable {
+      private int[] keys = new int[1024];
+      private int[] previous = new int[1024];
+      private int[] steps = new int[1024];
+      private int[] depths = new int[1024];
+      private IntList used = new IntList();
+
+      VisitedTable() {
+         Arrays.fill(keys, -1);
+      }
+
+      void clear() {
+         for (int i = 0; i < used.size(); i++) {
+            keys[used.get(i)] = -1;
+         }
+         used.clear();
+      }
+
+      // return the slot holding person, or -1
+      int find(int person) {
+         int mask = keys.length - 1;
+         for (int slot = hash(person) & mask; ; slot = (slot + 1) & mask) {
+            if (keys[slot] == person) {
+               return slot;
+            }
+            else if (keys[slot] < 0) {
+               return -1;
+            }
+         }
+      }
+
+      void put(int person, int previousPerson, int step) {
+         if (used.size() * 2 >= keys.length) {
+            grow();
+         }
+         int mask = keys.length - 1;
+         int slot = hash(person) & mask;
+         while (keys[slot] >= 0) {
+            slot = (slot + 1) & mask;
+         }
+         keys[slot] = person;
+         previous[slot] = previousPerson;
+         steps[slot] = step;
+         depths[slot] = 0;
+         used.add(slot);
+      }
+
+      int getPrevious(int slot) {
+         return previous[slot];
+      }
+
+      int getStep(int slot) {
+         return steps[slot];
+      }
+
+      int getDepth(int slot) {
+         return depths[slot];
+      }
+
+      void setDepth(int slot, int depth) {
+         depths[slot] = depth;
+      }
+
+      private void grow() {
+         int[] oldKeys = keys;
+         int[] oldPrevious = previous;
+         int[] oldSteps = steps;
+         int[] oldDepths = depths;
+         IntList oldUsed = used;
+         keys = new int[oldKeys.length * 2];
+         previous = new int[keys.length];
+         steps = new int[keys.length];
+         depths = new int[keys.length];
+         used = new IntList(oldUsed.size() * 2);
+         Arrays.fill(keys, -1);
+         for (int i = 0; i < oldUsed.size(); i++) {
+            int slot = oldUsed.get(i);
+            put(oldKeys[slot], oldPrevious[slot], oldSteps[slot]);
+            depths[used.get(used.size() - 1)] = oldDepths[slot];
+         }
+      }
+
+      private static int hash(int person) {
+         int h = person * 0x9E3779B9;
+         return h ^ (h >>> 16);
+      }
+   }
+}
@@ -0,0 +1,30 @@
+/*
+ * Copyright 2012 Foundation for On-Line Genealogy, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.folg.werelatedata.parser;
+
+import java.io.IOException;
+
+/**
+ * A parser whose results can be merged with those of another parser of the same class,
+ * so that a ShardedWikiReader can read separate parts of the dump with separate parsers
+ */
+public abstract class CombinableWikiParser extends WikiParser {
+   /**
+    * Merge the results that another parser of the same class accumulated from a later part of the dump into this one
+    * @param other parser that read the pages following the pages read by this parser
+    */
+   public abstract void combine(WikiParser other) throws IOException;
+}
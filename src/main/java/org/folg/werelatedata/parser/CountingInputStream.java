@@ -0,0 +1,66 @@
+/*
+ * Copyright 2012 Foundation for On-Line Genealogy, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package org.folg.werelatedata.parser;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Adds the number of bytes read to the reader's statistics
+ */
+class CountingInputStream extends FilterInputStream {
+   private final ReaderStats stats;
+   private long mark;
+
+   CountingInputStream(InputStream in, ReaderStats stats) {
+      super(in);
+      this.stats = stats;
+      mark = 0;
+   }
+
+   public int read() throws IOException {
+      int b = in.read();
+      if (b >= 0) {
+         stats.bytesRead(1);
+      }
+      return b;
+   }
+
+   public int read(byte[] b, int off, int len) throws IOException {
+      int n = in.read(b, off, len);
+      if (n > 0) {
+         stats.bytesRead(n);
+      }
+      return n;
+   }
+
+   public long skip(long n) throws IOException {
+      long skipped = in.skip(n);
+      stats.bytesRead(skipped);
+      return skipped;
+   }
+
+   public synchronized void mark(int readLimit) {
+      in.mark(readLimit);
+      mark = stats.getBytes();
+   }
+
+   public synchronized void reset() throws IOException {
+      in.reset();
+      stats.bytesRead(mark - stats.getBytes());
+   }
+}
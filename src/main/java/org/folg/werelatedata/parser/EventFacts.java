@@ -0,0 +1,119 @@
+/*
+ * Copyright 2012 Foundation for On-Line Genealogy, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.folg.werelatedata.parser;
+
+import java.util.Arrays;
+
+/**
+ * The event_fact elements of a person or family page, in page order.
+ * Missing attributes are returned as empty strings.
+ */
+public class EventFacts {
+   private int size;
+   private String[] types;
+   private String[] dates;
+   private String[] places;
+   private String[] descs;
+
+   EventFacts() {
+      size = 0;
+      types = new String[8];
+      dates = new String[8];
+      places = new String[8];
+      descs = new String[8];
+   }
+
+   void clear() {
+      Arrays.fill(types, 0, size, null);
+      Arrays.fill(dates, 0, size, null);
+      Arrays.fill(places, 0, size, null);
+      Arrays.fill(descs, 0, size, null);
+      size = 0;
+   }
+
+   void add(String type, String date, String place, String desc) {
+      if (size == types.length) {
+         int newSize = size * 2;
+         types = Arrays.copyOf(types, newSize);
+         dates = Arrays.copyOf(dates, newSize);
+         places = Arrays.copyOf(places, newSize);
+         descs = Arrays.copyOf(descs, newSize);
+      }
+      types[size] = type;
+      dates[size] = date;
+      places[size] = place;
+      descs[size] = desc;
+      size++;
+   }
+
+   public int size() {
+      return size;
+   }
+
+   public String getType(int i) {
+      return types[i];
+   }
+
+   public String getDate(int i) {
+      return dates[i];
+   }
+
+   /**
+    * Return the place attribute, which is the place title optionally followed by | and the place as the user entered it
+    */
+   public String getPlace(int i) {
+      return places[i];
+   }
+
+   /**
+    * Return the part of the place attribute before the |
+    */
+   public String getPlaceTitle(int i) {
+      return Util.getPreBar(places[i]);
+   }
+
+   public String getDesc(int i) {
+      return descs[i];
+   }
+
+   /**
+    * Return the index of the last event with the specified type, or -1 if there isn't one
+    */
+   public int lastIndexOf(String type) {
+      for (int i = size - 1; i >= 0; i--) {
+         if (types[i].equals(type)) {
+            return i;
+         }
+      }
+      return -1;
+   }
+
+   /**
+    * Return the date of the last event with the specified type, or an empty string if there isn't one
+    */
+   public String getDate(String type) {
+      int i = lastIndexOf(type);
+      return (i < 0 ? "" : dates[i]);
+   }
+
+   /**
+    * Return the place title of the last event with the specified type, or an empty string if there isn't one
+    */
+   public String getPlaceTitle(String type) {
+      int i = lastIndexOf(type);
+      return (i < 0 ? "" : getPlaceTitle(i));
+   }
+}
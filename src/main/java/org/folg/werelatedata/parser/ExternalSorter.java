@@ -0,0 +1,481 @@
+/*
+ * Copyright 2012 Foundation for On-Line Genealogy, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.folg.werelatedata.parser;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Accumulates records in memory until its MemoryBudget is exceeded, then sorts them and writes them to disk as a run,
+ * so a parser can collect more records than fit on the heap. sorted() merges the runs and whatever is still in memory.
+ * <p>
+ * Runs are sorted and written on a background thread while the reader keeps going. Only one run is written at a time:
+ * if the budget is exceeded again before the previous run has been written, add waits for it, which slows the reader
+ * down to the speed of the disk instead of letting the heap grow.
+ * The sort is stable: records that compare equal are returned in the order they were added.
+ * Without a budget, every record is kept in memory.
+ */
+public class ExternalSorter<T> {
+   private static final int MAX_MERGE = 64;
+   private static final int BUFFER_SIZE = 64 * 1024;
+
+   private final RecordCodec<T> codec;
+   private final Comparator<? super T> comparator;
+   private final MemoryBudget budget;
+   private boolean distinct;
+   private List<T> buffer;
+   private long bufferBytes;
+   private boolean registered;
+   private final List<File> runs;
+   private long size;
+   private ExecutorService spiller;
+   private Future<Void> pendingSpill;
+   private IOException spillFailure;
+
+   /**
+    * @param budget budget to charge buffered records against; if null, records are never spilled
+    */
+   public ExternalSorter(RecordCodec<T> codec, Comparator<? super T> comparator, MemoryBudget budget) {
+      this.codec = codec;
+      this.comparator = comparator;
+      this.budget = budget;
+      distinct = false;
+      buffer = new ArrayList<T>();
+      bufferBytes = 0;
+      registered = false;
+      runs = new ArrayList<File>();
+      size = 0;
+   }
+
+   /**
+    * If set, sorted() returns only the last record added of each group of records that compare equal, like Map.put
+    */
+   public void setDistinct(boolean distinct) {
+      this.distinct = distinct;
+   }
+
+   /**
+    * Return the number of records added
+    */
+   public synchronized long size() {
+      return size;
+   }
+
+   /**
+    * Return the number of runs spilled to disk
+    */
+   public synchronized int getRunCount() {
+      return runs.size();
+   }
+
+   public synchronized void add(T record) throws IOException {
+      checkSpillFailure();
+      buffer.add(record);
+      size++;
+      if (budget != null) {
+         register();
+         long recordBytes = codec.sizeOf(record);
+         bufferBytes += recordBytes;
+         budget.charge(recordBytes);
+         // don't write lots of tiny runs when other sorters sharing the budget hold most of it
+         if (budget.isExceeded() && bufferBytes >= budget.getSpillThreshold()) {
+            spill();
+         }
+      }
+   }
+
+   /**
+    * Move the records of other into this sorter, after the records already added to this sorter.
+    * Used to combine the parsers of several shards.
+    */
+   public synchronized void addAll(ExternalSorter<T> other) throws IOException {
+      if (other == this) {
+         return;
+      }
+      synchronized (other) {
+         other.awaitSpill();
+         awaitSpill();
+         if (!other.runs.isEmpty()) {
+            if (!buffer.isEmpty()) {
+               // our buffered records come before the other sorter's runs
+               spill();
+               awaitSpill();
+            }
+            runs.addAll(other.runs);
+         }
+         buffer.addAll(other.buffer);
+         bufferBytes += other.bufferBytes;
+         if (budget != null && !buffer.isEmpty()) {
+            register();
+         }
+         size += other.size;
+         other.runs.clear();
+         other.buffer = new ArrayList<T>();
+         other.bufferBytes = 0;
+         other.size = 0;
+         other.unregister();
+         other.shutdownSpiller();
+      }
+   }
+
+   // count this sorter among the sorters sharing the budget while it holds records
+   private void register() {
+      if (!registered) {
+         budget.addSorter();
+         registered = true;
+      }
+   }
+
+   private void unregister() {
+      if (registered) {
+         budget.removeSorter();
+         registered = false;
+      }
+   }
+
+   private void spill() throws IOException {
+      awaitSpill();
+      final List<T> records = buffer;
+      final long recordBytes = bufferBytes;
+      buffer = new ArrayList<T>();
+      bufferBytes = 0;
+      final File run = File.createTempFile("werelatedata-", ".run", budget.getSpillDir());
+      runs.add(run);
+      if (spiller == null) {
+         spiller = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+               Thread thread = new Thread(r, "ExternalSorter-spill");
+               thread.setDaemon(true);
+               return thread;
+            }
+         });
+      }
+      pendingSpill = spiller.submit(new Callable<Void>() {
+         public Void call() throws IOException {
+            try {
+               Collections.sort(records, comparator);
+               writeRun(run, records);
+            }
+            finally {
+               budget.release(recordBytes);
+            }
+            return null;
+         }
+      });
+   }
+
+   private void awaitSpill() throws IOException {
+      if (pendingSpill != null) {
+         try {
+            pendingSpill.get();
+         }
+         catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted writing sorted run", e);
+         }
+         catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            spillFailure = (cause instanceof IOException ? (IOException)cause : new IOException("Unable to write sorted run", cause));
+         }
+         finally {
+            pendingSpill = null;
+         }
+      }
+      checkSpillFailure();
+   }
+
+   private void checkSpillFailure() throws IOException {
+      if (spillFailure != null) {
+         throw new IOException(spillFailure.getMessage(), spillFailure);
+      }
+   }
+
+   private void writeRun(File run, List<T> records) throws IOException {
+      DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(run), BUFFER_SIZE));
+      try {
+         out.writeInt(records.size());
+         for (T record : records) {
+            codec.write(out, record);
+         }
+      }
+      finally {
+         out.close();
+      }
+   }
+
+   /**
+    * Return the records added so far in sorted order. This can be called more than once; records can be added in between.
+    * The runs are kept until close is called.
+    */
+   public synchronized SortedRecords<T> sorted() throws IOException {
+      awaitSpill();
+      // bound the number of files open at once by merging the oldest runs first, which keeps the sort stable
+      while (runs.size() > MAX_MERGE) {
+         File run = File.createTempFile("werelatedata-", ".run", budget.getSpillDir());
+         List<File> oldest = new ArrayList<File>(runs.subList(0, MAX_MERGE));
+         SortedRecords<T> merged = new SortedRecords<T>(this, oldest, Collections.<T>emptyList(), false);
+         DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(run), BUFFER_SIZE));
+         try {
+            int count = 0;
+            for (File f : oldest) {
+               count += readCount(f);
+            }
+            out.writeInt(count);
+            while (merged.hasNext()) {
+               codec.write(out, merged.next());
+            }
+         }
+         finally {
+            merged.close();
+            out.close();
+         }
+         runs.subList(0, MAX_MERGE).clear();
+         runs.add(0, run);
+         for (File f : oldest) {
+            delete(f);
+         }
+      }
+      Collections.sort(buffer, comparator);
+      return new SortedRecords<T>(this, runs, buffer, distinct);
+   }
+
+   private static int readCount(File run) throws IOException {
+      DataInputStream in = new DataInputStream(new FileInputStream(run));
+      try {
+         return in.readInt();
+      }
+      finally {
+         in.close();
+      }
+   }
+
+   /**
+    * Delete the runs and release the memory charged to the budget
+    */
+   public synchronized void close() {
+      try {
+         awaitSpill();
+      }
+      catch (IOException e) {
+         // the run is being deleted anyway
+      }
+      for (File run : runs) {
+         delete(run);
+      }
+      runs.clear();
+      if (budget != null) {
+         budget.release(bufferBytes);
+         unregister();
+      }
+      buffer = new ArrayList<T>();
+      bufferBytes = 0;
+      size = 0;
+      shutdownSpiller();
+   }
+
+   private void shutdownSpiller() {
+      if (spiller != null) {
+         spiller.shutdown();
+         spiller = null;
+      }
+   }
+
+   private static void delete(File file) {
+      if (!file.delete() && file.exists()) {
+         WikiParser.logger.warning("Unable to delete " + file);
+      }
+   }
+
+   /**
+    * Write the names of the runs and the buffered records, so that a parser's writeState can save the sorter.
+    * The runs must still be there when readState is called.
+    */
+   public synchronized void writeState(DataOutput out) throws IOException {
+      awaitSpill();
+      out.writeLong(size);
+      out.writeInt(runs.size());
+      for (File run : runs) {
+         out.writeUTF(run.getPath());
+      }
+      out.writeInt(buffer.size());
+      for (T record : buffer) {
+         codec.write(out, record);
+      }
+   }
+
+   /**
+    * Replace the contents of this sorter with the state written by writeState
+    */
+   public synchronized void readState(DataInput in) throws IOException {
+      awaitSpill();
+      if (budget != null) {
+         budget.release(bufferBytes);
+      }
+      runs.clear();
+      buffer = new ArrayList<T>();
+      bufferBytes = 0;
+      size = in.readLong();
+      int runCount = in.readInt();
+      for (int i = 0; i < runCount; i++) {
+         File run = new File(in.readUTF());
+         if (!run.exists()) {
+            throw new IOException("Missing sorted run: " + run);
+         }
+         runs.add(run);
+      }
+      int bufferCount = in.readInt();
+      for (int i = 0; i < bufferCount; i++) {
+         T record = codec.read(in);
+         buffer.add(record);
+         if (budget != null) {
+            register();
+            long recordBytes = codec.sizeOf(record);
+            bufferBytes += recordBytes;
+            budget.charge(recordBytes);
+         }
+      }
+   }
+
+   /**
+    * The records of an ExternalSorter in sorted order, merged from its runs and its in-memory records
+    */
+   public static class SortedRecords<T> {
+      private final Comparator<? super T> comparator;
+      private final RecordCodec<T> codec;
+      private final boolean distinct;
+      private final DataInputStream[] runs;
+      private final int[] remaining;
+      private final List<T> buffer;
+      private int bufferPos;
+      private final PriorityQueue<Head<T>> heads;
+
+      private SortedRecords(ExternalSorter<T> sorter, List<File> runFiles, List<T> buffer, boolean distinct) throws IOException {
+         this.comparator = sorter.comparator;
+         this.codec = sorter.codec;
+         this.distinct = distinct;
+         this.buffer = buffer;
+         bufferPos = 0;
+         runs = new DataInputStream[runFiles.size()];
+         remaining = new int[runFiles.size()];
+         heads = new PriorityQueue<Head<T>>(runFiles.size() + 1, new Comparator<Head<T>>() {
+            public int compare(Head<T> h1, Head<T> h2) {
+               int result = comparator.compare(h1.record, h2.record);
+               // earlier sources hold earlier records
+               return (result != 0 ? result : h1.source - h2.source);
+            }
+         });
+         try {
+            for (int i = 0; i < runs.length; i++) {
+               runs[i] = new DataInputStream(new BufferedInputStream(new FileInputStream(runFiles.get(i)), BUFFER_SIZE));
+               remaining[i] = runs[i].readInt();
+               advance(i);
+            }
+            advance(runs.length);
+         }
+         catch (IOException e) {
+            close();
+            throw e;
+         }
+      }
+
+      // add the next record from the source to the queue; source runs.length is the in-memory buffer
+      private void advance(int source) throws IOException {
+         T record = null;
+         if (source == runs.length) {
+            if (bufferPos < buffer.size()) {
+               record = buffer.get(bufferPos++);
+            }
+         }
+         else if (remaining[source] > 0) {
+            record = codec.read(runs[source]);
+            remaining[source]--;
+         }
+         if (record != null) {
+            heads.add(new Head<T>(record, source));
+         }
+      }
+
+      public boolean hasNext() {
+         return !heads.isEmpty();
+      }
+
+      public T next() throws IOException {
+         Head<T> head = heads.poll();
+         if (head == null) {
+            throw new IllegalStateException("No more records");
+         }
+         T record = head.record;
+         advance(head.source);
+         if (distinct) {
+            while (!heads.isEmpty() && comparator.compare(heads.peek().record, record) == 0) {
+               head = heads.poll();
+               record = head.record;
+               advance(head.source);
+            }
+         }
+         if (heads.isEmpty()) {
+            close();
+         }
+         return record;
+      }
+
+      /**
+       * Close the runs; only needed if you stop before reading every record
+       */
+      public void close() {
+         for (int i = 0; i < runs.length; i++) {
+            if (runs[i] != null) {
+               try {
+                  runs[i].close();
+               }
+               catch (IOException e) {
+                  // ignore
+               }
+               runs[i] = null;
+            }
+         }
+      }
+   }
+
+   private static class Head<T> {
+      final T record;
+      final int source;
+
+      Head(T record, int source) {
+         this.record = record;
+         this.source = source;
+      }
+   }
+}
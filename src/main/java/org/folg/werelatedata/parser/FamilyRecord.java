@@ -0,0 +1,106 @@
+/*
+ * Copyright 2012 Foundation for On-Line Genealogy, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.folg.werelatedata.parser;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The structured data of a Family page, filled in by RecordDecoder.
+ * Records are reused from page to page, so copy anything you want to keep.
+ * Missing values are returned as empty strings.
+ */
+public class FamilyRecord {
+   final List<String> husbandTitles;
+   final List<String> husbandGivens;
+   final List<String> husbandSurnames;
+   final List<String> wifeTitles;
+   final List<String> wifeGivens;
+   final List<String> wifeSurnames;
+   final List<String> childTitles;
+   final EventFacts eventFacts;
+
+   FamilyRecord() {
+      husbandTitles = new ArrayList<String>();
+      husbandGivens = new ArrayList<String>();
+      husbandSurnames = new ArrayList<String>();
+      wifeTitles = new ArrayList<String>();
+      wifeGivens = new ArrayList<String>();
+      wifeSurnames = new ArrayList<String>();
+      childTitles = new ArrayList<String>();
+      eventFacts = new EventFacts();
+   }
+
+   void clear() {
+      husbandTitles.clear();
+      husbandGivens.clear();
+      husbandSurnames.clear();
+      wifeTitles.clear();
+      wifeGivens.clear();
+      wifeSurnames.clear();
+      childTitles.clear();
+      eventFacts.clear();
+   }
+
+   public int getHusbandCount() {
+      return husbandTitles.size();
+   }
+
+   /**
+    * Return the title of the i'th husband, without the Person: namespace
+    */
+   public String getHusbandTitle(int i) {
+      return husbandTitles.get(i);
+   }
+
+   public String getHusbandGiven(int i) {
+      return husbandGivens.get(i);
+   }
+
+   public String getHusbandSurname(int i) {
+      return husbandSurnames.get(i);
+   }
+
+   public int getWifeCount() {
+      return wifeTitles.size();
+   }
+
+   /**
+    * Return the title of the i'th wife, without the Person: namespace
+    */
+   public String getWifeTitle(int i) {
+      return wifeTitles.get(i);
+   }
+
+   public String getWifeGiven(int i) {
+      return wifeGivens.get(i);
+   }
+
+   public String getWifeSurname(int i) {
+      return wifeSurnames.get(i);
+   }
+
+   /**
+    * Return the titles of the children, without the Person: namespace
+    */
+   public List<String> getChildTitles() {
+      return childTitles;
+   }
+
+   public EventFacts getEventFacts() {
+      return eventFacts;
+   }
+}
@@ -0,0 +1,37 @@
+/*
+ * Copyright 2012 Foundation for On-Line Genealogy, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.folg.werelatedata.parser;
+
+import java.io.IOException;
+
+/**
+ * A WikiParser that keeps what it found on each page from run to run (see PageResults),
+ * so that WikiReader.setCheckpoint can pass it only the pages that are new or changed since the previous run.
+ * WikiReader refuses to read with a checkpoint unless every parser implements this and isIncremental returns true.
+ */
+public interface IncrementalWikiParser {
+   /**
+    * Return true if the parser has been set up to reuse the results of unchanged pages from the previous run
+    */
+   public boolean isIncremental();
+
+   /**
+    * Called after the dump has been read for each page in the previous checkpoint that the parser won't see again:
+    * pages that are no longer in the dump, and changed pages that are no longer passed to the parser, such as pages that became redirects.
+    * @param pageId id of the deleted page
+    */
+   public void deleted(int pageId) throws IOException;
+}
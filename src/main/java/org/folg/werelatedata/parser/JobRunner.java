@@ -0,0 +1,189 @@
+/*
+ * Copyright 2012 Foundation for On-Line Genealogy, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.folg.werelatedata.parser;
+
+import nu.xom.ParsingException;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Runs several jobs in a single read of the dump.
+ * Each job's parser is given its own worker thread and sees the pages in dump order, so parsers needn't be thread-safe.
+ * After the dump has been read, the jobs' finish methods run concurrently.
+ * Redirects are passed only to the parsers of jobs that want them.
+ */
+public class JobRunner {
+   private List<Job> jobs;
+   private WikiReader.Engine engine;
+
+   /**
+    * A parser and the work to do once the dump has been read, such as writing its results
+    */
+   public static abstract class Job {
+      private final String name;
+      private final WikiParser parser;
+      private final boolean skipRedirects;
+
+      protected Job(String name, WikiParser parser, boolean skipRedirects) {
+         this.name = name;
+         this.parser = parser;
+         this.skipRedirects = skipRedirects;
+      }
+
+      public String getName() {
+         return name;
+      }
+
+      public WikiParser getParser() {
+         return parser;
+      }
+
+      public boolean isSkipRedirects() {
+         return skipRedirects;
+      }
+
+      /**
+       * Called after the dump has been read
+       */
+      public abstract void finish() throws IOException, ParsingException;
+   }
+
+   public JobRunner() {
+      jobs = new ArrayList<Job>();
+      engine = WikiReader.Engine.STAX;
+   }
+
+   public void setEngine(WikiReader.Engine engine) {
+      this.engine = engine;
+   }
+
+   public void addJob(Job job) {
+      jobs.add(job);
+   }
+
+   /**
+    * Read the dump and finish each job
+    */
+   public void run(String filename) throws ParsingException, IOException {
+      boolean skipRedirects = true;
+      for (Job job : jobs) {
+         skipRedirects &= job.isSkipRedirects();
+      }
+      WikiReader wikiReader = new WikiReader(engine);
+      wikiReader.setSkipRedirects(skipRedirects);
+      wikiReader.setLatestRevisionOnly(true);
+      wikiReader.setOrdered(true);
+      for (Job job : jobs) {
+         if (job.isSkipRedirects() && !skipRedirects) {
+            wikiReader.addWikiParser(new RedirectFilter(job.getParser()));
+         }
+         else {
+            wikiReader.addWikiParser(job.getParser());
+         }
+      }
+      wikiReader.read(filename);
+      finish();
+   }
+
+   private void finish() throws ParsingException, IOException {
+      if (jobs.isEmpty()) {
+         return;
+      }
+      ExecutorService executor = Executors.newFixedThreadPool(jobs.size());
+      try {
+         List<Future<Void>> futures = new ArrayList<Future<Void>>();
+         for (final Job job : jobs) {
+            futures.add(executor.submit(new Callable<Void>() {
+               public Void call() throws Exception {
+                  long start = System.currentTimeMillis();
+                  job.finish();
+                  WikiParser.logger.info(job.getName() + " finished in " + (System.currentTimeMillis() - start) + " ms");
+                  return null;
+               }
+            }));
+         }
+         for (Future<Void> future : futures) {
+            getResult(future);
+         }
+      }
+      finally {
+         executor.shutdownNow();
+      }
+   }
+
+   private static void getResult(Future<Void> future) throws ParsingException, IOException {
+      try {
+         future.get();
+      }
+      catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+         throw new IOException("Interrupted finishing job", e);
+      }
+      catch (ExecutionException e) {
+         Throwable cause = e.getCause();
+         if (cause instanceof ParsingException) {
+            throw (ParsingException)cause;
+         }
+         else if (cause instanceof IOException) {
+            throw (IOException)cause;
+         }
+         else if (cause instanceof RuntimeException) {
+            throw (RuntimeException)cause;
+         }
+         else if (cause instanceof Error) {
+            throw (Error)cause;
+         }
+         throw new IOException(cause);
+      }
+   }
+
+   /**
+    * Passes everything but redirects on to a parser
+    */
+   private static class RedirectFilter extends WikiParser {
+      private final WikiParser parser;
+
+      RedirectFilter(WikiParser parser) {
+         this.parser = parser;
+      }
+
+      public Set<Integer> getNamespaces() {
+         return parser.getNamespaces();
+      }
+
+      public void parse(String title, String text, int pageId, int latestRevId, String username, String timestamp, String comment)
+              throws IOException, ParsingException {
+         if (!Util.REDIRECT_PATTERN.matcher(text).lookingAt()) {
+            parser.parse(title, text, pageId, latestRevId, username, timestamp, comment);
+         }
+      }
+
+      public void parse(String title, PageText text, int pageId, int latestRevId, String username, String timestamp, String comment)
+              throws IOException, ParsingException {
+         if (!Util.REDIRECT_PATTERN.matcher(text).lookingAt()) {
+            parser.parse(title, text, pageId, latestRevId, username, timestamp, comment);
+         }
+      }
+   }
+}
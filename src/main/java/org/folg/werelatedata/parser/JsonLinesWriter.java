@@ -0,0 +1,162 @@
+/*
+ * Copyright 2012 Foundation for On-Line Genealogy, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.folg.werelatedata.parser;
+
+import com.google.gson.stream.JsonWriter;
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Writes one json object per line, serializing chunks of records on several threads.
+ * Each chunk is serialized with a streaming JsonWriter straight into UTF-8 bytes, and the chunks are written to the file
+ * in the order their records were given to write, so the output doesn't depend on the number of threads.
+ * At most two chunks per thread are in flight; write waits for the oldest one when the writing falls behind.
+ * Records must not be changed after they've been given to write.
+ */
+public class JsonLinesWriter<T> {
+   private static final int CHUNK_SIZE = 1024;
+
+   /**
+    * Writes one record as a json object
+    */
+   public interface Serializer<T> {
+      public void write(JsonWriter json, T record) throws IOException;
+   }
+
+   private final Serializer<T> serializer;
+   private final FileOutputStream out;
+   private final FileChannel channel;
+   private final ExecutorService executor;
+   private final int maxPending;
+   private final ArrayDeque<Future<byte[]>> pending;
+   private List<T> chunk;
+
+   /**
+    * @param threads number of threads to serialize on; if 1, records are serialized on the calling thread
+    */
+   public JsonLinesWriter(String filename, Serializer<T> serializer, int threads) throws IOException {
+      this.serializer = serializer;
+      out = new FileOutputStream(filename);
+      channel = out.getChannel();
+      executor = (threads > 1 ? Executors.newFixedThreadPool(threads, new ThreadFactory() {
+         public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "JsonLinesWriter");
+            thread.setDaemon(true);
+            return thread;
+         }
+      }) : null);
+      maxPending = threads * 2;
+      pending = new ArrayDeque<Future<byte[]>>();
+      chunk = new ArrayList<T>(CHUNK_SIZE);
+   }
+
+   public void write(T record) throws IOException {
+      chunk.add(record);
+      if (chunk.size() == CHUNK_SIZE) {
+         submitChunk();
+      }
+   }
+
+   private void submitChunk() throws IOException {
+      final List<T> records = chunk;
+      chunk = new ArrayList<T>(CHUNK_SIZE);
+      if (executor == null) {
+         writeBytes(serialize(records));
+         return;
+      }
+      while (pending.size() >= maxPending) {
+         writeBytes(await(pending.removeFirst()));
+      }
+      pending.addLast(executor.submit(new Callable<byte[]>() {
+         public byte[] call() throws IOException {
+            return serialize(records);
+         }
+      }));
+   }
+
+   private byte[] serialize(List<T> records) throws IOException {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream(records.size() * 512);
+      BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(bytes, "UTF-8"), 16 * 1024);
+      JsonWriter json = new JsonWriter(writer);
+      json.setHtmlSafe(true); // escape the same characters that Gson.toJson does
+      json.setLenient(true);  // allow more than one top-level object
+      for (T record : records) {
+         serializer.write(json, record);
+         writer.write('\n');
+      }
+      json.flush();
+      return bytes.toByteArray();
+   }
+
+   private static byte[] await(Future<byte[]> future) throws IOException {
+      try {
+         return future.get();
+      }
+      catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+         throw new IOException("Interrupted writing json", e);
+      }
+      catch (ExecutionException e) {
+         Throwable cause = e.getCause();
+         if (cause instanceof IOException) {
+            throw (IOException)cause;
+         }
+         throw new IOException("Unable to write json", cause);
+      }
+   }
+
+   private void writeBytes(byte[] bytes) throws IOException {
+      ByteBuffer buf = ByteBuffer.wrap(bytes);
+      while (buf.hasRemaining()) {
+         channel.write(buf);
+      }
+   }
+
+   /**
+    * Write the remaining records and close the file
+    */
+   public void close() throws IOException {
+      try {
+         if (!chunk.isEmpty()) {
+            submitChunk();
+         }
+         while (!pending.isEmpty()) {
+            writeBytes(await(pending.removeFirst()));
+         }
+      }
+      finally {
+         if (executor != null) {
+            executor.shutdownNow();
+         }
+         out.close();
+      }
+   }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2012 Foundation for On-Line Genealogy, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package org.folg.werelatedata.parser;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads a byte range of a file through a sequence of memory-mapped windows
+ */
+class MappedRangeInputStream extends InputStream {
+   private static final long WINDOW_SIZE = 256L * 1024 * 1024;
+
+   private final FileChannel channel;
+   private long pos;
+   private final long end;
+   private MappedByteBuffer window;
+
+   MappedRangeInputStream(FileChannel channel, long start, long end) {
+      this.channel = channel;
+      this.pos = start;
+      this.end = end;
+      this.window = null;
+   }
+
+   private boolean fill() throws IOException {
+      if (window == null || !window.hasRemaining()) {
+         if (pos >= end) {
+            return false;
+         }
+         long size = Math.min(WINDOW_SIZE, end - pos);
+         window = channel.map(FileChannel.MapMode.READ_ONLY, pos, size);
+         pos += size;
+      }
+      return true;
+   }
+
+   public int read() throws IOException {
+      if (!fill()) {
+         return -1;
+      }
+      return window.get() & 0xff;
+   }
+
+   public int read(byte[] b, int off, int len) throws IOException {
+      if (len == 0) {
+         return 0;
+      }
+      if (!fill()) {
+         return -1;
+      }
+      int n = Math.min(len, window.remaining());
+      window.get(b, off, n);
+      return n;
+   }
+
+   public int available() {
+      return (window == null ? 0 : window.remaining());
+   }
+}
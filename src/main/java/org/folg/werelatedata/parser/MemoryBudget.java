@@ -0,0 +1,136 @@
+/*
+ * Copyright 2012 Foundation for On-Line Genealogy, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.folg.werelatedata.parser;
+
+import java.io.File;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A soft limit on the memory that parsers may use to accumulate records across a dump.
+ * ExternalSorters that share a budget charge the estimated size of each record they buffer against it,
+ * and spill their buffer to a sorted run on disk when the budget is exceeded and their buffer holds at least its share of the budget.
+ * One budget can be shared by every parser in a run, including the parsers for each shard of a ShardedWikiReader.
+ */
+public class MemoryBudget {
+   public static final String BUDGET_PROPERTY = "werelatedata.memoryBudget";
+   public static final String SPILL_DIR_PROPERTY = "werelatedata.spillDir";
+
+   private final long bytes;
+   private final File spillDir;
+   private final AtomicLong used;
+   private final AtomicInteger sorters;
+
+   /**
+    * @param bytes the number of bytes that records may use before they're spilled
+    * @param spillDir the directory to write sorted runs to; if null, java.io.tmpdir is used
+    */
+   public MemoryBudget(long bytes, File spillDir) {
+      if (bytes <= 0) {
+         throw new IllegalArgumentException("Memory budget must be positive: " + bytes);
+      }
+      this.bytes = bytes;
+      this.spillDir = (spillDir != null ? spillDir : new File(System.getProperty("java.io.tmpdir")));
+      used = new AtomicLong();
+      sorters = new AtomicInteger();
+   }
+
+   /**
+    * Return the budget given by the werelatedata.memoryBudget system property (for example 512m or 2g),
+    * spilling to werelatedata.spillDir, or null if the property isn't set
+    */
+   public static MemoryBudget fromSystemProperties() {
+      String budget = System.getProperty(BUDGET_PROPERTY);
+      if (Util.isEmpty(budget)) {
+         return null;
+      }
+      String spillDir = System.getProperty(SPILL_DIR_PROPERTY);
+      return new MemoryBudget(parseSize(budget), Util.isEmpty(spillDir) ? null : new File(spillDir));
+   }
+
+   /**
+    * Parse a size like 65536, 512k, 512m or 2g
+    */
+   public static long parseSize(String size) {
+      size = size.trim().toLowerCase();
+      long multiplier = 1;
+      char last = size.charAt(size.length() - 1);
+      if (last == 'k') {
+         multiplier = 1024L;
+      }
+      else if (last == 'm') {
+         multiplier = 1024L * 1024;
+      }
+      else if (last == 'g') {
+         multiplier = 1024L * 1024 * 1024;
+      }
+      if (multiplier > 1) {
+         size = size.substring(0, size.length() - 1).trim();
+      }
+      return Long.parseLong(size) * multiplier;
+   }
+
+   public long getBytes() {
+      return bytes;
+   }
+
+   public File getSpillDir() {
+      return spillDir;
+   }
+
+   /**
+    * Return the estimated number of bytes currently charged against the budget
+    */
+   public long getUsed() {
+      return used.get();
+   }
+
+   public boolean isExceeded() {
+      return used.get() > bytes;
+   }
+
+   /**
+    * Return the number of bytes a sorter must be buffering before it spills when the budget is exceeded.
+    * A sorter's share is 1/16 of the budget, or less when more than 16 sorters share it,
+    * so the buffers that are too small to spill never add up to more than the budget.
+    */
+   long getSpillThreshold() {
+      return bytes / Math.max(16, sorters.get());
+   }
+
+   void addSorter() {
+      sorters.incrementAndGet();
+   }
+
+   void removeSorter() {
+      sorters.decrementAndGet();
+   }
+
+   void charge(long size) {
+      used.addAndGet(size);
+   }
+
+   void release(long size) {
+      used.addAndGet(-size);
+   }
+
+   /**
+    * Return a rough estimate of the heap used by a String, for RecordCodec.sizeOf
+    */
+   public static long sizeOf(String s) {
+      return (s == null ? 0 : 40 + 2L * s.length());
+   }
+}
@@ -0,0 +1,212 @@
+/*
+ * Copyright 2012 Foundation for On-Line Genealogy, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package org.folg.werelatedata.parser;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * The (pageId, latestRevId, namespace, content hash) of every page read from a dump.
+ * WikiReader writes one at the end of a run so that the next run can skip pages that haven't changed.
+ * Page ids are delta-encoded and the other ints are variable-length encoded, so a checkpoint takes around 13 bytes per page.
+ */
+public class PageCheckpoint {
+   private static final int MAGIC = 0x57524350; // WRCP
+
+   private int size;
+   private int[] pageIds;
+   private int[] revIds;
+   private int[] namespaces;
+   private long[] hashes;
+   private boolean sorted;
+
+   public PageCheckpoint() {
+      size = 0;
+      pageIds = new int[1024];
+      revIds = new int[1024];
+      namespaces = new int[1024];
+      hashes = new long[1024];
+      sorted = true;
+   }
+
+   /**
+    * Return a 64-bit FNV-1a hash of the page title and text
+    */
+   public static long hash(String title, CharSequence text) {
+      long h = Util.fnvHash(Util.FNV_OFFSET, title);
+      h = Util.fnvHash(h, '\n');
+      h = Util.fnvHash(h, text);
+      return (h == 0 ? 1 : h); // 0 means not hashed
+   }
+
+   /**
+    * Record a page
+    * @param hash content hash, or 0 if the page text wasn't read
+    */
+   public void add(int pageId, int revId, int namespace, long hash) {
+      if (size == pageIds.length) {
+         int newSize = size * 2;
+         pageIds = Arrays.copyOf(pageIds, newSize);
+         revIds = Arrays.copyOf(revIds, newSize);
+         namespaces = Arrays.copyOf(namespaces, newSize);
+         hashes = Arrays.copyOf(hashes, newSize);
+      }
+      if (size > 0 && pageId <= pageIds[size-1]) {
+         sorted = false;
+      }
+      pageIds[size] = pageId;
+      revIds[size] = revId;
+      namespaces[size] = namespace;
+      hashes[size] = hash;
+      size++;
+   }
+
+   public int size() {
+      return size;
+   }
+
+   /**
+    * Return the index of the page, or -1 if the page isn't in the checkpoint
+    */
+   public int find(int pageId) {
+      sort();
+      int i = Arrays.binarySearch(pageIds, 0, size, pageId);
+      return (i >= 0 ? i : -1);
+   }
+
+   public int getPageId(int i) {
+      return pageIds[i];
+   }
+
+   public int getRevId(int i) {
+      return revIds[i];
+   }
+
+   public int getNamespace(int i) {
+      return namespaces[i];
+   }
+
+   public long getHash(int i) {
+      return hashes[i];
+   }
+
+   /**
+    * Return true if the page at index i has a different revision or content than the specified page
+    */
+   public boolean isChanged(int i, int revId, long hash) {
+      return revIds[i] != revId || (hash != 0 && hashes[i] != 0 && hashes[i] != hash);
+   }
+
+   private void sort() {
+      if (sorted) {
+         return;
+      }
+      long[] keys = new long[size];
+      for (int i = 0; i < size; i++) {
+         keys[i] = ((long)pageIds[i] << 32) | i;
+      }
+      Arrays.sort(keys);
+      int[] newPageIds = new int[size];
+      int[] newRevIds = new int[size];
+      int[] newNamespaces = new int[size];
+      long[] newHashes = new long[size];
+      int j = 0;
+      for (int k = 0; k < size; k++) {
+         int i = (int)keys[k];
+         if (j > 0 && newPageIds[j-1] == pageIds[i]) {
+            j--; // keep the last one added
+         }
+         newPageIds[j] = pageIds[i];
+         newRevIds[j] = revIds[i];
+         newNamespaces[j] = namespaces[i];
+         newHashes[j] = hashes[i];
+         j++;
+      }
+      pageIds = newPageIds;
+      revIds = newRevIds;
+      namespaces = newNamespaces;
+      hashes = newHashes;
+      size = j;
+      sorted = true;
+   }
+
+   /**
+    * Write the checkpoint; it's written to a temporary file first so a crash doesn't leave a partial checkpoint behind
+    */
+   public void write(String filename) throws IOException {
+      sort();
+      String temp = filename + ".tmp";
+      DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp), 64 * 1024));
+      try {
+         writeTo(out);
+      }
+      finally {
+         out.close();
+      }
+      Util.replaceFile(temp, filename);
+   }
+
+   void writeTo(DataOutput out) throws IOException {
+      sort();
+      out.writeInt(MAGIC);
+      out.writeInt(size);
+      int prevPageId = 0;
+      for (int i = 0; i < size; i++) {
+         Util.writeVarInt(out, pageIds[i] - prevPageId);
+         Util.writeVarInt(out, revIds[i]);
+         Util.writeVarInt(out, namespaces[i]);
+         out.writeLong(hashes[i]);
+         prevPageId = pageIds[i];
+      }
+   }
+
+   public static PageCheckpoint load(String filename) throws IOException {
+      DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(filename), 64 * 1024));
+      try {
+         return readFrom(in);
+      }
+      catch (IOException e) {
+         throw new IOException(e.getMessage() + ": " + filename, e);
+      }
+      finally {
+         in.close();
+      }
+   }
+
+   static PageCheckpoint readFrom(DataInput in) throws IOException {
+      if (in.readInt() != MAGIC) {
+         throw new IOException("Not a page checkpoint");
+      }
+      int size = in.readInt();
+      PageCheckpoint checkpoint = new PageCheckpoint();
+      int pageId = 0;
+      for (int i = 0; i < size; i++) {
+         pageId += Util.readVarInt(in);
+         int revId = Util.readVarInt(in);
+         int namespace = Util.readVarInt(in);
+         checkpoint.add(pageId, revId, namespace, in.readLong());
+      }
+      return checkpoint;
+   }
+}
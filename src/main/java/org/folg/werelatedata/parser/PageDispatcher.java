@@ -0,0 +1,220 @@
+/*
+ * Copyright 2012 Foundation for On-Line Genealogy, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package org.folg.werelatedata.parser;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hands pages from the reader thread to worker threads through bounded queues.
+ * In unordered mode a pool of workers takes pages from a single queue and runs every parser on each page,
+ * so parsers must be thread-safe.
+ * In ordered mode each parser gets its own worker and queue, so each parser sees pages in dump order
+ * and is only ever called from one thread.
+ * The reader can pause the workers once they've parsed every queued page, to take a snapshot of the parsers' state.
+ */
+class PageDispatcher {
+   private static final WikiPage END = new WikiPage(null, (PageText)null, 0, 0, null, null, null);
+   private static final WikiPage PAUSE = new WikiPage(null, (PageText)null, 0, 0, null, null, null);
+   private static final long OFFER_WAIT_MILLIS = 100;
+
+   private final WikiReader reader;
+   private final List<BlockingQueue<WikiPage>> queues;
+   private final List<Thread> workers;
+   private final Object pauseLock;
+   private int pausedWorkers;
+   private int pauseGeneration;
+   private volatile Throwable failure;
+
+   PageDispatcher(WikiReader reader, List<WikiParser> parsers, int threads, int queueSize, boolean ordered) {
+      this.reader = reader;
+      queues = new ArrayList<BlockingQueue<WikiPage>>();
+      workers = new ArrayList<Thread>();
+      if (ordered) {
+         for (WikiParser parser : parsers) {
+            BlockingQueue<WikiPage> queue = new ArrayBlockingQueue<WikiPage>(queueSize);
+            queues.add(queue);
+            workers.add(new Thread(new Worker(queue, Collections.singletonList(parser)), "WikiParser-" + workers.size()));
+         }
+      }
+      else {
+         BlockingQueue<WikiPage> queue = new ArrayBlockingQueue<WikiPage>(queueSize);
+         queues.add(queue);
+         for (int i = 0; i < threads; i++) {
+            workers.add(new Thread(new Worker(queue, parsers), "WikiParser-" + i));
+         }
+      }
+      pauseLock = new Object();
+      pausedWorkers = 0;
+      pauseGeneration = 0;
+      for (Thread worker : workers) {
+         worker.setDaemon(true);
+         worker.start();
+      }
+   }
+
+   /**
+    * Queue the page for every worker, blocking while the queues are full
+    */
+   public void submit(WikiPage page) {
+      for (BlockingQueue<WikiPage> queue : queues) {
+         put(queue, page);
+      }
+   }
+
+   /**
+    * Wait until every queued page has been parsed, and keep the workers waiting until resume is called
+    */
+   public void pause() throws IOException {
+      putAll(PAUSE);
+      try {
+         synchronized (pauseLock) {
+            while (pausedWorkers < workers.size()) {
+               pauseLock.wait(OFFER_WAIT_MILLIS);
+               checkFailure();
+            }
+         }
+      }
+      catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+         throw new InterruptedIOException("Interrupted waiting for parsers");
+      }
+   }
+
+   /**
+    * Let the workers continue after a pause
+    */
+   public void resume() {
+      synchronized (pauseLock) {
+         pausedWorkers = 0;
+         pauseGeneration++;
+         pauseLock.notifyAll();
+      }
+   }
+
+   /**
+    * Wait until every queued page has been parsed, then stop the workers
+    */
+   public void finish() throws IOException {
+      try {
+         putAll(END);
+         for (Thread worker : workers) {
+            worker.join();
+         }
+      }
+      catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+         throw new InterruptedIOException("Interrupted waiting for parsers");
+      }
+      checkFailure();
+   }
+
+   /**
+    * Stop the workers without waiting for queued pages
+    */
+   public void stop() {
+      for (Thread worker : workers) {
+         worker.interrupt();
+      }
+   }
+
+   // put the page once for each worker
+   private void putAll(WikiPage page) {
+      for (BlockingQueue<WikiPage> queue : queues) {
+         int cnt = (queues.size() == 1 ? workers.size() : 1);
+         for (int i = 0; i < cnt; i++) {
+            put(queue, page);
+         }
+      }
+   }
+
+   private void put(BlockingQueue<WikiPage> queue, WikiPage page) {
+      try {
+         while (!queue.offer(page, OFFER_WAIT_MILLIS, TimeUnit.MILLISECONDS)) {
+            checkFailure();
+         }
+      }
+      catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+         throw new RuntimeException("Interrupted queueing page: " + page.getTitle(), e);
+      }
+      checkFailure();
+   }
+
+   private void checkFailure() {
+      Throwable t = failure;
+      if (t instanceof RuntimeException) {
+         throw (RuntimeException)t;
+      }
+      else if (t instanceof Error) {
+         throw (Error)t;
+      }
+      else if (t != null) {
+         throw new RuntimeException(t);
+      }
+   }
+
+   private class Worker implements Runnable {
+      private final BlockingQueue<WikiPage> queue;
+      private final List<WikiParser> parsers;
+
+      Worker(BlockingQueue<WikiPage> queue, List<WikiParser> parsers) {
+         this.queue = queue;
+         this.parsers = parsers;
+      }
+
+      // every page before the pause has been parsed; wait until the reader resumes
+      private void awaitResume() throws InterruptedException {
+         synchronized (pauseLock) {
+            int generation = pauseGeneration;
+            pausedWorkers++;
+            pauseLock.notifyAll();
+            while (pauseGeneration == generation) {
+               pauseLock.wait();
+            }
+         }
+      }
+
+      public void run() {
+         try {
+            WikiPage page = queue.take();
+            while (page != END) {
+               if (page == PAUSE) {
+                  awaitResume();
+               }
+               else {
+                  reader.invokeParsers(parsers, page);
+               }
+               page = queue.take();
+            }
+         }
+         catch (InterruptedException e) {
+            // finished
+         }
+         catch (Throwable t) {
+            if (failure == null) {
+               failure = t;
+            }
+         }
+      }
+   }
+}
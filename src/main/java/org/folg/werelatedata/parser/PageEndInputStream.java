@@ -0,0 +1,113 @@
+/*
+ * Copyright 2012 Foundation for On-Line Genealogy, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package org.folg.werelatedata.parser;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Records the position just past each &lt;/page&gt; tag as the xml parser reads the dump.
+ * The xml parser reads ahead, so positions are queued until WikiReader finishes the page they belong to.
+ */
+class PageEndInputStream extends FilterInputStream {
+   private static final byte[] PAGE_END = "</page>".getBytes();
+
+   private long position;
+   private int matched;
+   private long[] ends;
+   private int head;
+   private int tail;
+
+   PageEndInputStream(InputStream in) {
+      super(in);
+      position = 0;
+      matched = 0;
+      ends = new long[64];
+      head = 0;
+      tail = 0;
+   }
+
+   /**
+    * Return the position following the next page, or -1 if the end of the next page hasn't been read
+    */
+   public long nextPageEnd() {
+      return (head < tail ? ends[head++] : -1);
+   }
+
+   public int read() throws IOException {
+      int b = in.read();
+      if (b >= 0) {
+         scan((byte)b);
+      }
+      return b;
+   }
+
+   public int read(byte[] b, int off, int len) throws IOException {
+      int n = in.read(b, off, len);
+      for (int i = 0; i < n; i++) {
+         scan(b[off+i]);
+      }
+      return n;
+   }
+
+   public long skip(long n) throws IOException {
+      // scan skipped bytes too, so page ends aren't missed
+      byte[] buf = new byte[(int)Math.min(n, 8192)];
+      long skipped = 0;
+      while (skipped < n) {
+         int len = read(buf, 0, (int)Math.min(n - skipped, buf.length));
+         if (len < 0) {
+            break;
+         }
+         skipped += len;
+      }
+      return skipped;
+   }
+
+   public boolean markSupported() {
+      return false;
+   }
+
+   private void scan(byte b) {
+      position++;
+      if (b == PAGE_END[matched]) {
+         if (++matched == PAGE_END.length) {
+            add(position);
+            matched = 0;
+         }
+      }
+      else {
+         matched = (b == PAGE_END[0] ? 1 : 0);
+      }
+   }
+
+   private void add(long end) {
+      if (tail == ends.length) {
+         if (head > 0) {
+            System.arraycopy(ends, head, ends, 0, tail - head);
+         }
+         else {
+            long[] newEnds = new long[ends.length * 2];
+            System.arraycopy(ends, 0, newEnds, 0, tail);
+            ends = newEnds;
+         }
+         tail -= head;
+         head = 0;
+      }
+      ends[tail++] = end;
+   }
+}
@@ -0,0 +1,304 @@
+/*
+ * Copyright 2012 Foundation for On-Line Genealogy, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package org.folg.werelatedata.parser;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.zip.Inflater;
+
+/**
+ * Maps page ids and normalized titles to the offset of the page's record in a PageStore,
+ * so a single page can be fetched without reading the whole store.
+ * <p>
+ * The index file is memory-mapped. It starts with MAGIC and the number of pages n, followed by
+ * n (int pageId, long offset) entries sorted by page id, and n (long title hash, long offset) entries sorted by hash.
+ * Build one with PageIndex.Builder while writing the page store, or with PageIndex.build from an existing store.
+ */
+public class PageIndex {
+   private static final int MAGIC = 0x57525049; // WRPI
+   private static final int HEADER_SIZE = 8;
+   private static final int ID_ENTRY_SIZE = 12;
+   private static final int TITLE_ENTRY_SIZE = 16;
+
+   private final RandomAccessFile indexFile;
+   private final RandomAccessFile storeFile;
+   private final MappedByteBuffer index;
+   private final int size;
+   private final int titlesStart;
+
+   private PageIndex(String indexFilename, String storeFilename) throws IOException {
+      indexFile = new RandomAccessFile(indexFilename, "r");
+      storeFile = new RandomAccessFile(storeFilename, "r");
+      FileChannel channel = indexFile.getChannel();
+      index = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      if (index.getInt(0) != MAGIC) {
+         throw new IOException("Not a page index: " + indexFilename);
+      }
+      size = index.getInt(4);
+      titlesStart = HEADER_SIZE + size * ID_ENTRY_SIZE;
+   }
+
+   /**
+    * Open an index and the page store it indexes
+    */
+   public static PageIndex open(String indexFilename, String storeFilename) throws IOException {
+      return new PageIndex(indexFilename, storeFilename);
+   }
+
+   public int size() {
+      return size;
+   }
+
+   /**
+    * Return the offset of the page's record in the store, or -1 if the page isn't in the store
+    */
+   public long getOffset(int pageId) {
+      int lo = 0;
+      int hi = size - 1;
+      while (lo <= hi) {
+         int mid = (lo + hi) >>> 1;
+         int pos = HEADER_SIZE + mid * ID_ENTRY_SIZE;
+         int id = index.getInt(pos);
+         if (id < pageId) {
+            lo = mid + 1;
+         }
+         else if (id > pageId) {
+            hi = mid - 1;
+         }
+         else {
+            return index.getLong(pos + 4);
+         }
+      }
+      return -1;
+   }
+
+   /**
+    * Return the latest revision of the page, or null if the page isn't in the store
+    */
+   public WikiPage getPage(int pageId) throws IOException {
+      long offset = getOffset(pageId);
+      return (offset < 0 ? null : readPage(offset));
+   }
+
+   /**
+    * Return the latest revision of the page, or null if the page isn't in the store
+    * @param title full title, including namespace; it is normalized before lookup
+    */
+   public WikiPage getPage(String title) throws IOException {
+      title = normalizeTitle(title);
+      long hash = hash(title);
+      // find the first entry with this hash, then check each entry with the same hash in case of collisions
+      int lo = 0;
+      int hi = size;
+      while (lo < hi) {
+         int mid = (lo + hi) >>> 1;
+         if (index.getLong(titlesStart + mid * TITLE_ENTRY_SIZE) < hash) {
+            lo = mid + 1;
+         }
+         else {
+            hi = mid;
+         }
+      }
+      for (int i = lo; i < size && index.getLong(titlesStart + i * TITLE_ENTRY_SIZE) == hash; i++) {
+         WikiPage page = readPage(index.getLong(titlesStart + i * TITLE_ENTRY_SIZE + 8));
+         if (normalizeTitle(page.getTitle()).equals(title)) {
+            return page;
+         }
+      }
+      return null;
+   }
+
+   /**
+    * Return the latest text of the page, or null if the page isn't in the store
+    */
+   public String getText(String title) throws IOException {
+      WikiPage page = getPage(title);
+      return (page == null ? null : page.getText());
+   }
+
+   private WikiPage readPage(long offset) throws IOException {
+      FileChannel channel = storeFile.getChannel();
+      ByteBuffer lengthBuf = ByteBuffer.allocate(4);
+      readFully(channel, lengthBuf, offset);
+      ByteBuffer record = ByteBuffer.allocate(lengthBuf.getInt(0));
+      readFully(channel, record, offset + 4);
+      Inflater inflater = new Inflater();
+      try {
+         return PageStore.readPage(new DataInputStream(new ByteArrayInputStream(record.array())), inflater);
+      }
+      finally {
+         inflater.end();
+      }
+   }
+
+   private static void readFully(FileChannel channel, ByteBuffer buf, long offset) throws IOException {
+      while (buf.hasRemaining()) {
+         if (channel.read(buf, offset + buf.position()) < 0) {
+            throw new IOException("Truncated page store record at " + offset);
+         }
+      }
+   }
+
+   public void close() throws IOException {
+      indexFile.close();
+      storeFile.close();
+   }
+
+   /**
+    * Normalize a title the way the wiki does: underscores become spaces, runs of spaces are collapsed,
+    * and the first letter of the namespace and of the title are capitalized
+    */
+   public static String normalizeTitle(String title) {
+      title = title.replace('_', ' ').replaceAll("\\s+", " ").trim();
+      int pos = title.indexOf(':');
+      if (pos > 0) {
+         String namespace = Util.uppercaseFirstLetter(title.substring(0, pos).trim());
+         if (Util.NAMESPACE_MAP.containsKey(namespace)) {
+            return namespace + ":" + Util.uppercaseFirstLetter(title.substring(pos+1).trim());
+         }
+      }
+      return Util.uppercaseFirstLetter(title);
+   }
+
+   private static long hash(String normalizedTitle) {
+      return Util.fnvHash(Util.FNV_OFFSET, normalizedTitle);
+   }
+
+   /**
+    * Build an index for an existing page store
+    */
+   public static void build(String storeFilename, String indexFilename) throws IOException {
+      Builder builder = new Builder();
+      DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(storeFilename), 256 * 1024));
+      try {
+         PageStore.readHeader(in);
+         long offset = 8;
+         int length;
+         while ((length = PageStore.readRecordLength(in)) >= 0) {
+            byte[] record = new byte[length];
+            in.readFully(record);
+            DataInputStream recordIn = new DataInputStream(new ByteArrayInputStream(record));
+            Util.readVarInt(recordIn); // namespace
+            int pageId = recordIn.readInt();
+            recordIn.readInt(); // latestRevId
+            builder.add(PageStore.readString(recordIn), pageId, offset);
+            offset += 4 + length;
+         }
+      }
+      finally {
+         in.close();
+      }
+      builder.write(indexFilename);
+   }
+
+   /**
+    * Collects the (title, pageId, offset) of each page and writes the index
+    */
+   public static class Builder {
+      private int size;
+      private int[] pageIds;
+      private long[] titleHashes;
+      private long[] offsets;
+
+      public Builder() {
+         size = 0;
+         pageIds = new int[1024];
+         titleHashes = new long[1024];
+         offsets = new long[1024];
+      }
+
+      public void add(String title, int pageId, long offset) {
+         if (size == pageIds.length) {
+            pageIds = Arrays.copyOf(pageIds, size * 2);
+            titleHashes = Arrays.copyOf(titleHashes, size * 2);
+            offsets = Arrays.copyOf(offsets, size * 2);
+         }
+         pageIds[size] = pageId;
+         titleHashes[size] = hash(normalizeTitle(title));
+         offsets[size] = offset;
+         size++;
+      }
+
+      public void write(String indexFilename) throws IOException {
+         DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(indexFilename), 256 * 1024));
+         try {
+            out.writeInt(MAGIC);
+            out.writeInt(size);
+
+            long[] keys = new long[size];
+            for (int i = 0; i < size; i++) {
+               keys[i] = ((long)pageIds[i] << 32) | i;
+            }
+            Arrays.sort(keys);
+            for (long key : keys) {
+               int i = (int)key;
+               out.writeInt(pageIds[i]);
+               out.writeLong(offsets[i]);
+            }
+
+            long[] hashes = Arrays.copyOf(titleHashes, size);
+            long[] hashOffsets = Arrays.copyOf(offsets, size);
+            sort(hashes, hashOffsets, 0, size - 1);
+            for (int i = 0; i < size; i++) {
+               out.writeLong(hashes[i]);
+               out.writeLong(hashOffsets[i]);
+            }
+         }
+         finally {
+            out.close();
+         }
+      }
+
+      // quicksort keys, keeping values in step
+      private static void sort(long[] keys, long[] values, int lo, int hi) {
+         while (lo < hi) {
+            long pivot = keys[(lo + hi) >>> 1];
+            int i = lo;
+            int j = hi;
+            while (i <= j) {
+               while (keys[i] < pivot) i++;
+               while (keys[j] > pivot) j--;
+               if (i <= j) {
+                  long k = keys[i]; keys[i] = keys[j]; keys[j] = k;
+                  long v = values[i]; values[i] = values[j]; values[j] = v;
+                  i++;
+                  j--;
+               }
+            }
+            // recurse on the smaller side to bound the stack
+            if (j - lo < hi - i) {
+               sort(keys, values, lo, j);
+               lo = i;
+            }
+            else {
+               sort(keys, values, i, hi);
+               hi = j;
+            }
+         }
+      }
+   }
+}
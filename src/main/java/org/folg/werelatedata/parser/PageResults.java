@@ -0,0 +1,238 @@
+/*
+ * Copyright 2012 Foundation for On-Line Genealogy, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.folg.werelatedata.parser;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Comparator;
+
+/**
+ * The result an IncrementalWikiParser derived from each page, kept from run to run.
+ * The results of the previous run are loaded first; then each new or changed page replaces its result, and deleted pages remove theirs.
+ * Results are kept in an ExternalSorter, so they're spilled to disk when its MemoryBudget is exceeded.
+ * The file written by save has the page ids delta-encoded, followed by each page's result as written by the codec.
+ */
+public class PageResults<T> {
+   private static final int MAGIC = 0x57525052; // WRPR
+
+   private final RecordCodec<T> codec;
+   private final ExternalSorter<Entry<T>> entries;
+
+   /**
+    * @param budget budget to charge the results against; if null, the results are kept in memory
+    */
+   public PageResults(RecordCodec<T> codec, MemoryBudget budget) {
+      this.codec = codec;
+      entries = new ExternalSorter<Entry<T>>(new EntryCodec<T>(codec), PAGE_ID_ORDER, budget);
+      entries.setDistinct(true); // keep the last result set for each page
+   }
+
+   private static final Comparator<Entry<?>> PAGE_ID_ORDER = new Comparator<Entry<?>>() {
+      public int compare(Entry<?> e1, Entry<?> e2) {
+         return (e1.pageId < e2.pageId ? -1 : (e1.pageId == e2.pageId ? 0 : 1));
+      }
+   };
+
+   /**
+    * Add the results written by save. Call this before any pages are parsed, since the results set later replace them.
+    * Does nothing if the file doesn't exist.
+    */
+   public void load(String filename) throws IOException {
+      if (!new File(filename).exists()) {
+         return;
+      }
+      DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(filename), 64 * 1024));
+      try {
+         if (in.readInt() != MAGIC) {
+            throw new IOException("Not a page results file: " + filename);
+         }
+         int pageId = -1;
+         for (int delta = Util.readVarInt(in); delta > 0; delta = Util.readVarInt(in)) {
+            pageId += delta;
+            entries.add(new Entry<T>(pageId, codec.read(in)));
+         }
+      }
+      finally {
+         in.close();
+      }
+   }
+
+   /**
+    * Set the result for the page, replacing its result from the previous run
+    * @param result the page's result, or null if the page no longer has one
+    */
+   public void put(int pageId, T result) throws IOException {
+      entries.add(new Entry<T>(pageId, result));
+   }
+
+   /**
+    * Remove the page's result
+    */
+   public void remove(int pageId) throws IOException {
+      put(pageId, null);
+   }
+
+   /**
+    * Write the result of every page so the next run can load it; it's written to a temporary file first
+    * so a crash doesn't leave a partial file behind
+    */
+   public void save(String filename) throws IOException {
+      String temp = filename + ".tmp";
+      DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp), 64 * 1024));
+      Results<T> results = results();
+      try {
+         out.writeInt(MAGIC);
+         // deltas start at 1 so that 0 can mark the end
+         int prevPageId = -1;
+         while (results.hasNext()) {
+            T result = results.next();
+            Util.writeVarInt(out, results.getPageId() - prevPageId);
+            codec.write(out, result);
+            prevPageId = results.getPageId();
+         }
+         Util.writeVarInt(out, 0);
+      }
+      finally {
+         results.close();
+         out.close();
+      }
+      Util.replaceFile(temp, filename);
+   }
+
+   /**
+    * Return the pages' results in page id order. This can be called more than once.
+    */
+   public Results<T> results() throws IOException {
+      return new Results<T>(entries.sorted());
+   }
+
+   /**
+    * Save the results set so far for a parser's writeState
+    */
+   public void writeState(DataOutput out) throws IOException {
+      entries.writeState(out);
+   }
+
+   /**
+    * Replace the results with those saved by writeState
+    */
+   public void readState(DataInput in) throws IOException {
+      entries.readState(in);
+   }
+
+   /**
+    * Delete anything spilled to disk and release the memory charged to the budget
+    */
+   public void close() {
+      entries.close();
+   }
+
+   /**
+    * The results of the pages that have one, in page id order
+    */
+   public static class Results<T> {
+      private final ExternalSorter.SortedRecords<Entry<T>> entries;
+      private Entry<T> next;
+      private int pageId;
+
+      private Results(ExternalSorter.SortedRecords<Entry<T>> entries) throws IOException {
+         this.entries = entries;
+         pageId = -1;
+         advance();
+      }
+
+      private void advance() throws IOException {
+         next = null;
+         while (next == null && entries.hasNext()) {
+            Entry<T> entry = entries.next();
+            if (entry.result != null) {
+               next = entry;
+            }
+         }
+      }
+
+      public boolean hasNext() {
+         return next != null;
+      }
+
+      public T next() throws IOException {
+         if (next == null) {
+            throw new IllegalStateException("No more results");
+         }
+         T result = next.result;
+         pageId = next.pageId;
+         advance();
+         return result;
+      }
+
+      /**
+       * Return the id of the page whose result was last returned by next
+       */
+      public int getPageId() {
+         return pageId;
+      }
+
+      /**
+       * Close the results; only needed if you stop before reading every result
+       */
+      public void close() {
+         entries.close();
+      }
+   }
+
+   private static class Entry<T> {
+      final int pageId;
+      final T result;
+
+      Entry(int pageId, T result) {
+         this.pageId = pageId;
+         this.result = result;
+      }
+   }
+
+   private static class EntryCodec<T> implements RecordCodec<Entry<T>> {
+      private final RecordCodec<T> codec;
+
+      EntryCodec(RecordCodec<T> codec) {
+         this.codec = codec;
+      }
+
+      public void write(DataOutput out, Entry<T> entry) throws IOException {
+         out.writeInt(entry.pageId);
+         out.writeBoolean(entry.result != null);
+         if (entry.result != null) {
+            codec.write(out, entry.result);
+         }
+      }
+
+      public Entry<T> read(DataInput in) throws IOException {
+         int pageId = in.readInt();
+         return new Entry<T>(pageId, in.readBoolean() ? codec.read(in) : null);
+      }
+
+      public long sizeOf(Entry<T> entry) {
+         return 24 + (entry.result != null ? codec.sizeOf(entry.result) : 0);
+      }
+   }
+}
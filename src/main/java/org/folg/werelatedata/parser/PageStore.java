@@ -0,0 +1,157 @@
+/*
+ * Copyright 2012 Foundation for On-Line Genealogy, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package org.folg.werelatedata.parser;
+
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * A compact binary copy of the latest revision of every page in a dump, written by PageStoreWriter.
+ * WikiReader.read recognizes a page store and reads it instead of xml.
+ * <p>
+ * The file starts with MAGIC and VERSION, followed by one record per page:
+ * int record length (not including itself), varint namespace, int pageId, int latestRevId,
+ * title, username, timestamp, comment (each a varint byte length followed by UTF-8),
+ * varint text length in chars, varint compressed length, and the deflated UTF-8 text.
+ */
+public class PageStore {
+   public static final int MAGIC = 0x57525053; // WRPS
+   public static final int VERSION = 1;
+
+   private PageStore() {
+   }
+
+   /**
+    * Return true if the stream starts with a page store header; the stream is reset to where it was
+    */
+   public static boolean isPageStore(InputStream in) throws IOException {
+      in.mark(4);
+      try {
+         int magic = 0;
+         for (int i = 0; i < 4; i++) {
+            int b = in.read();
+            if (b < 0) {
+               return false;
+            }
+            magic = (magic << 8) | b;
+         }
+         return magic == MAGIC;
+      }
+      finally {
+         in.reset();
+      }
+   }
+
+   static void readHeader(DataInput in) throws IOException {
+      if (in.readInt() != MAGIC) {
+         throw new IOException("Not a page store");
+      }
+      int version = in.readInt();
+      if (version != VERSION) {
+         throw new IOException("Unsupported page store version: " + version);
+      }
+   }
+
+   /**
+    * Read the next record length, or return -1 at the end of the store
+    */
+   static int readRecordLength(DataInputStream in) throws IOException {
+      int b = in.read();
+      if (b < 0) {
+         return -1;
+      }
+      return (b << 24) | (in.readUnsignedByte() << 16) | (in.readUnsignedByte() << 8) | in.readUnsignedByte();
+   }
+
+   static void writeString(DataOutput out, String s) throws IOException {
+      byte[] bytes = s.getBytes("UTF-8");
+      Util.writeVarInt(out, bytes.length);
+      out.write(bytes);
+   }
+
+   static String readString(DataInput in) throws IOException {
+      byte[] bytes = new byte[Util.readVarInt(in)];
+      in.readFully(bytes);
+      return new String(bytes, "UTF-8");
+   }
+
+   /**
+    * Read the compressed text that ends a record
+    */
+   static String readText(DataInput in, Inflater inflater) throws IOException {
+      Util.readVarInt(in); // length in chars
+      byte[] compressed = new byte[Util.readVarInt(in)];
+      in.readFully(compressed);
+      inflater.reset();
+      inflater.setInput(compressed);
+      byte[] buf = new byte[Math.max(compressed.length * 4, 1024)];
+      int len = 0;
+      try {
+         while (!inflater.finished()) {
+            if (len == buf.length) {
+               byte[] newBuf = new byte[buf.length * 2];
+               System.arraycopy(buf, 0, newBuf, 0, len);
+               buf = newBuf;
+            }
+            int n = inflater.inflate(buf, len, buf.length - len);
+            if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+               throw new IOException("Truncated page store text");
+            }
+            len += n;
+         }
+      }
+      catch (DataFormatException e) {
+         throw new IOException("Corrupt page store text", e);
+      }
+      return new String(buf, 0, len, "UTF-8");
+   }
+
+   /**
+    * Skip the compressed text that ends a record
+    */
+   static void skipText(DataInput in) throws IOException {
+      Util.readVarInt(in);
+      int len = Util.readVarInt(in);
+      while (len > 0) {
+         int n = in.skipBytes(len);
+         if (n <= 0) {
+            throw new EOFException("Truncated page store text");
+         }
+         len -= n;
+      }
+   }
+
+   /**
+    * Read the rest of a record after its length
+    */
+   static WikiPage readPage(DataInput in, Inflater inflater) throws IOException {
+      Util.readVarInt(in); // namespace
+      int pageId = in.readInt();
+      int latestRevId = in.readInt();
+      String title = readString(in);
+      String username = readString(in);
+      String timestamp = readString(in);
+      String comment = readString(in);
+      String text = readText(in, inflater);
+      return new WikiPage(title, text, pageId, latestRevId, username, timestamp, comment);
+   }
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright 2012 Foundation for On-Line Genealogy, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package org.folg.werelatedata.parser;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.Inflater;
+
+/**
+ * Reads a PageStore and feeds the pages to a WikiReader.
+ * Text is only inflated for pages in the namespaces that the parsers want.
+ */
+class PageStoreEngine {
+   private final WikiReader reader;
+
+   PageStoreEngine(WikiReader reader) {
+      this.reader = reader;
+   }
+
+   public void read(InputStream is) throws IOException {
+      DataInputStream in = new DataInputStream(is);
+      Inflater inflater = new Inflater();
+      try {
+         PageStore.readHeader(in);
+         long position = 8;
+         int length;
+         while ((length = PageStore.readRecordLength(in)) >= 0) {
+            position += 4 + length;
+            Util.readVarInt(in); // namespace
+            int pageId = in.readInt();
+            int latestRevId = in.readInt();
+            reader.startPage();
+            reader.setTitle(PageStore.readString(in));
+            reader.setPageId(Integer.toString(pageId));
+            reader.startRevision();
+            reader.setRevId(Integer.toString(latestRevId));
+            reader.setUsername(PageStore.readString(in));
+            reader.setTimestamp(PageStore.readString(in));
+            reader.setComment(PageStore.readString(in));
+            if (reader.isCapturePage()) {
+               reader.setText(PageStore.readText(in, inflater));
+            }
+            else {
+               PageStore.skipText(in);
+            }
+            reader.endRevision();
+            reader.setPageEnd(position);
+            reader.endPage();
+         }
+      }
+      finally {
+         inflater.end();
+      }
+   }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright 2012 Foundation for On-Line Genealogy, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package org.folg.werelatedata.parser;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.zip.Deflater;
+
+/**
+ * Writes every page it is given to a PageStore.
+ * Add it to a WikiReader that doesn't skip redirects to convert a dump.
+ * If an index filename is given, a PageIndex for the store is written when the writer is closed.
+ */
+public class PageStoreWriter extends WikiParser {
+   private DataOutputStream out;
+   private ByteArrayOutputStream recordBytes;
+   private DataOutputStream record;
+   private Deflater deflater;
+   private byte[] compressed;
+   private long offset;
+   private String indexFilename;
+   private PageIndex.Builder indexBuilder;
+
+   public PageStoreWriter(String filename) throws IOException {
+      this(filename, null);
+   }
+
+   public PageStoreWriter(String filename, String indexFilename) throws IOException {
+      out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(filename), 256 * 1024));
+      out.writeInt(PageStore.MAGIC);
+      out.writeInt(PageStore.VERSION);
+      recordBytes = new ByteArrayOutputStream();
+      record = new DataOutputStream(recordBytes);
+      deflater = new Deflater();
+      compressed = new byte[64 * 1024];
+      offset = 8;
+      this.indexFilename = indexFilename;
+      indexBuilder = (indexFilename == null ? null : new PageIndex.Builder());
+   }
+
+   public synchronized void parse(String title, String text, int pageId, int latestRevId, String username, String timestamp, String comment) throws IOException {
+      recordBytes.reset();
+      Util.writeVarInt(record, Util.getNamespace(title));
+      record.writeInt(pageId);
+      record.writeInt(latestRevId);
+      PageStore.writeString(record, title);
+      PageStore.writeString(record, Util.nullToEmpty(username));
+      PageStore.writeString(record, Util.nullToEmpty(timestamp));
+      PageStore.writeString(record, Util.nullToEmpty(comment));
+      int compressedLength = compress(text.getBytes("UTF-8"));
+      Util.writeVarInt(record, text.length());
+      Util.writeVarInt(record, compressedLength);
+      record.write(compressed, 0, compressedLength);
+      record.flush();
+
+      if (indexBuilder != null) {
+         indexBuilder.add(title, pageId, offset);
+      }
+      out.writeInt(recordBytes.size());
+      recordBytes.writeTo(out);
+      offset += 4 + recordBytes.size();
+   }
+
+   private int compress(byte[] bytes) {
+      deflater.reset();
+      deflater.setInput(bytes);
+      deflater.finish();
+      int len = 0;
+      while (!deflater.finished()) {
+         if (len == compressed.length) {
+            byte[] newCompressed = new byte[compressed.length * 2];
+            System.arraycopy(compressed, 0, newCompressed, 0, len);
+            compressed = newCompressed;
+         }
+         len += deflater.deflate(compressed, len, compressed.length - len);
+      }
+      return len;
+   }
+
+   public void close() throws IOException {
+      out.close();
+      deflater.end();
+      if (indexBuilder != null) {
+         indexBuilder.write(indexFilename);
+      }
+   }
+}
@@ -0,0 +1,185 @@
+/*
+ * Copyright 2012 Foundation for On-Line Genealogy, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.folg.werelatedata.parser;
+
+/**
+ * A read-only window onto page text, backed by either a String or a char array.
+ * When the STAX engine buffers revision text, the text handed to WikiParser is a window onto the reader's buffer,
+ * so it's only valid until the parser returns; call toString to keep it.
+ * subSequence, getStructuredText and getWikiText return windows onto the same chars instead of copying them,
+ * and toString creates the String at most once.
+ */
+public final class PageText implements CharSequence {
+   private final char[] chars;
+   private final String source;
+   private final int offset;
+   private final int length;
+   private String string;
+
+   public PageText(String text) {
+      this(null, text, 0, text.length());
+      string = text;
+   }
+
+   public PageText(char[] chars, int offset, int length) {
+      this(chars, null, offset, length);
+   }
+
+   private PageText(char[] chars, String source, int offset, int length) {
+      this.chars = chars;
+      this.source = source;
+      this.offset = offset;
+      this.length = length;
+   }
+
+   /**
+    * Return text if it's already a PageText, otherwise wrap its String form
+    */
+   public static PageText wrap(CharSequence text) {
+      return (text instanceof PageText ? (PageText)text : new PageText(text.toString()));
+   }
+
+   public int length() {
+      return length;
+   }
+
+   public char charAt(int index) {
+      if (index < 0 || index >= length) {
+         throw new IndexOutOfBoundsException(Integer.toString(index));
+      }
+      return (chars != null ? chars[offset + index] : source.charAt(offset + index));
+   }
+
+   /**
+    * Return a window onto part of this text
+    */
+   public PageText subSequence(int start, int end) {
+      if (start < 0 || end > length || start > end) {
+         throw new IndexOutOfBoundsException("start " + start + ", end " + end + ", length " + length);
+      }
+      if (start == 0 && end == length) {
+         return this;
+      }
+      return new PageText(chars, source, offset + start, end - start);
+   }
+
+   /**
+    * Copy chars from this text into dst, like String.getChars
+    */
+   public void getChars(int start, int end, char[] dst, int dstStart) {
+      if (start < 0 || end > length || start > end) {
+         throw new IndexOutOfBoundsException("start " + start + ", end " + end + ", length " + length);
+      }
+      if (chars != null) {
+         System.arraycopy(chars, offset + start, dst, dstStart, end - start);
+      }
+      else {
+         source.getChars(offset + start, offset + end, dst, dstStart);
+      }
+   }
+
+   /**
+    * Return the position of the first occurrence of s at or after from, or -1
+    */
+   public int indexOf(String s, int from) {
+      if (chars == null) {
+         int pos = source.indexOf(s, offset + Math.max(from, 0));
+         return (pos < 0 || pos + s.length() > offset + length ? -1 : pos - offset);
+      }
+      int last = length - s.length();
+      if (s.length() == 0) {
+         return (from <= length ? Math.max(from, 0) : -1);
+      }
+      char first = s.charAt(0);
+      for (int i = Math.max(from, 0); i <= last; i++) {
+         if (chars[offset + i] == first && regionMatches(i, s)) {
+            return i;
+         }
+      }
+      return -1;
+   }
+
+   public int indexOf(String s) {
+      return indexOf(s, 0);
+   }
+
+   public boolean startsWith(String prefix) {
+      return prefix.length() <= length && regionMatches(0, prefix);
+   }
+
+   private boolean regionMatches(int pos, String s) {
+      for (int i = 0; i < s.length(); i++) {
+         if (charAt(pos + i) != s.charAt(i)) {
+            return false;
+         }
+      }
+      return true;
+   }
+
+   /**
+    * Return a window without leading and trailing whitespace, like String.trim
+    */
+   public PageText trim() {
+      int start = 0;
+      int end = length;
+      while (start < end && charAt(start) <= ' ') {
+         start++;
+      }
+      while (end > start && charAt(end - 1) <= ' ') {
+         end--;
+      }
+      return subSequence(start, end);
+   }
+
+   /**
+    * Return true if the text is empty or contains only whitespace
+    */
+   public boolean isBlank() {
+      return trim().length() == 0;
+   }
+
+   /**
+    * Return the structured text up to and including the end tag, or null if there isn't an end tag;
+    * the counterpart of WikiParser.splitStructuredWikiText(tagName, text)[0]
+    */
+   public PageText getStructuredText(String tagName) {
+      int pos = indexOf("</" + tagName + ">");
+      return (pos < 0 ? null : subSequence(0, pos + tagName.length() + 3));
+   }
+
+   /**
+    * Return the wiki text following the structured text, or all of the text if there isn't any structured text;
+    * the counterpart of WikiParser.splitStructuredWikiText(tagName, text)[1]
+    */
+   public PageText getWikiText(String tagName) {
+      int pos = indexOf("</" + tagName + ">");
+      return (pos < 0 ? this : subSequence(pos + tagName.length() + 3, length));
+   }
+
+   /**
+    * Return true if s is the String that this text returned (or will return) from toString
+    */
+   boolean isString(Object s) {
+      return string != null && string == s;
+   }
+
+   public String toString() {
+      if (string == null) {
+         string = (chars != null ? new String(chars, offset, length) : source.substring(offset, offset + length));
+      }
+      return string;
+   }
+}
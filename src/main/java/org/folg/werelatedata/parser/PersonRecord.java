@@ -0,0 +1,85 @@
+/*
+ * Copyright 2012 Foundation for On-Line Genealogy, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.folg.werelatedata.parser;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The structured data of a Person page, filled in by RecordDecoder.
+ * Records are reused from page to page, so copy anything you want to keep.
+ * Missing values are returned as empty strings.
+ */
+public class PersonRecord {
+   String given;
+   String surname;
+   String gender;
+   final EventFacts eventFacts;
+   final List<String> childOfFamilies;
+   final List<String> spouseOfFamilies;
+
+   PersonRecord() {
+      eventFacts = new EventFacts();
+      childOfFamilies = new ArrayList<String>();
+      spouseOfFamilies = new ArrayList<String>();
+      clear();
+   }
+
+   void clear() {
+      given = "";
+      surname = "";
+      gender = "";
+      eventFacts.clear();
+      childOfFamilies.clear();
+      spouseOfFamilies.clear();
+   }
+
+   /**
+    * Return the given name of the first name element
+    */
+   public String getGiven() {
+      return given;
+   }
+
+   /**
+    * Return the surname of the first name element
+    */
+   public String getSurname() {
+      return surname;
+   }
+
+   public String getGender() {
+      return gender;
+   }
+
+   public EventFacts getEventFacts() {
+      return eventFacts;
+   }
+
+   /**
+    * Return the titles of the families this person is a child of, without the Family: namespace
+    */
+   public List<String> getChildOfFamilies() {
+      return childOfFamilies;
+   }
+
+   /**
+    * Return the titles of the families this person is a spouse in, without the Family: namespace
+    */
+   public List<String> getSpouseOfFamilies() {
+      return spouseOfFamilies;
+   }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2012 Foundation for On-Line Genealogy, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.folg.werelatedata.parser;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The structured data of a Place page, filled in by RecordDecoder.
+ * Records are reused from page to page, so copy anything you want to keep.
+ * Missing values are returned as empty strings.
+ */
+public class PlaceRecord {
+   final List<String> alternateNames;
+   final List<String> alternateNameSources;
+   String types;
+   final List<String> alsoLocatedIns;
+   String latitude;
+   String longitude;
+
+   PlaceRecord() {
+      alternateNames = new ArrayList<String>();
+      alternateNameSources = new ArrayList<String>();
+      alsoLocatedIns = new ArrayList<String>();
+      clear();
+   }
+
+   void clear() {
+      alternateNames.clear();
+      alternateNameSources.clear();
+      types = "";
+      alsoLocatedIns.clear();
+      latitude = "";
+      longitude = "";
+   }
+
+   public int getAlternateNameCount() {
+      return alternateNames.size();
+   }
+
+   public String getAlternateName(int i) {
+      return alternateNames.get(i);
+   }
+
+   /**
+    * Return the source of the i'th alternate name, which is often a wiki link
+    */
+   public String getAlternateNameSource(int i) {
+      return alternateNameSources.get(i);
+   }
+
+   /**
+    * Return the comma-separated place types from the first type element
+    */
+   public String getTypes() {
+      return types;
+   }
+
+   /**
+    * Return the place attributes of the also_located_in elements that have one
+    */
+   public List<String> getAlsoLocatedIns() {
+      return alsoLocatedIns;
+   }
+
+   /**
+    * Return the trimmed text of the first latitude element; it hasn't been checked to be a number
+    */
+   public String getLatitude() {
+      return latitude;
+   }
+
+   /**
+    * Return the trimmed text of the first longitude element; it hasn't been checked to be a number
+    */
+   public String getLongitude() {
+      return longitude;
+   }
+}
@@ -0,0 +1,269 @@
+/*
+ * Copyright 2012 Foundation for On-Line Genealogy, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.folg.werelatedata.parser;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Maps string keys to sorted sets of non-negative ints, such as the ids of the places that contain a word.
+ * Each set is held as a byte array of delta-encoded varints instead of a set of Integers, so a value usually takes one or two bytes.
+ * Values are cheapest to add in increasing order; a value smaller than the last one added for its key is inserted by re-encoding the key's list.
+ */
+public class PostingLists {
+   private final Map<String,Integer> keyIndexes;
+   private String[] keys;
+   private byte[][] postings;
+   private int[] lengths;
+   private int[] counts;
+   private int[] lastValues;
+   private int size;
+
+   public PostingLists() {
+      keyIndexes = new HashMap<String,Integer>();
+      keys = new String[1024];
+      postings = new byte[1024][];
+      lengths = new int[1024];
+      counts = new int[1024];
+      lastValues = new int[1024];
+      size = 0;
+   }
+
+   /**
+    * Add a value to the key's set; adding a value that's already in the set does nothing
+    */
+   public void add(String key, int value) {
+      if (value < 0) {
+         throw new IllegalArgumentException("Negative value: " + value);
+      }
+      Integer index = keyIndexes.get(key);
+      int i;
+      if (index == null) {
+         i = addKey(key);
+      }
+      else {
+         i = index;
+         if (value == lastValues[i]) {
+            return;
+         }
+         else if (value < lastValues[i]) {
+            insert(i, value);
+            return;
+         }
+      }
+      append(i, value - (counts[i] == 0 ? 0 : lastValues[i]));
+      lastValues[i] = value;
+      counts[i]++;
+   }
+
+   private int addKey(String key) {
+      if (size == keys.length) {
+         int newSize = size * 2;
+         keys = Arrays.copyOf(keys, newSize);
+         postings = Arrays.copyOf(postings, newSize);
+         lengths = Arrays.copyOf(lengths, newSize);
+         counts = Arrays.copyOf(counts, newSize);
+         lastValues = Arrays.copyOf(lastValues, newSize);
+      }
+      keys[size] = key;
+      postings[size] = new byte[4];
+      lengths[size] = 0;
+      counts[size] = 0;
+      lastValues[size] = 0;
+      keyIndexes.put(key, size);
+      return size++;
+   }
+
+   private void append(int i, int delta) {
+      if (lengths[i] + 5 > postings[i].length) {
+         postings[i] = Arrays.copyOf(postings[i], Math.max(postings[i].length * 2, lengths[i] + 5));
+      }
+      byte[] bytes = postings[i];
+      int pos = lengths[i];
+      while ((delta & ~0x7f) != 0) {
+         bytes[pos++] = (byte)((delta & 0x7f) | 0x80);
+         delta >>>= 7;
+      }
+      bytes[pos++] = (byte)delta;
+      lengths[i] = pos;
+   }
+
+   private void insert(int i, int value) {
+      int[] values = decode(i);
+      int pos = Arrays.binarySearch(values, value);
+      if (pos >= 0) {
+         return;
+      }
+      pos = -pos - 1;
+      int[] newValues = new int[values.length + 1];
+      System.arraycopy(values, 0, newValues, 0, pos);
+      newValues[pos] = value;
+      System.arraycopy(values, pos, newValues, pos + 1, values.length - pos);
+      lengths[i] = 0;
+      counts[i] = 0;
+      int last = 0;
+      for (int v : newValues) {
+         append(i, v - last);
+         last = v;
+         counts[i]++;
+      }
+      lastValues[i] = last;
+   }
+
+   private int[] decode(int i) {
+      int[] values = new int[counts[i]];
+      Cursor cursor = new Cursor(i);
+      for (int j = 0; j < values.length; j++) {
+         values[j] = cursor.next();
+      }
+      return values;
+   }
+
+   /**
+    * Return the number of keys
+    */
+   public int size() {
+      return size;
+   }
+
+   /**
+    * Return the keys in sorted order
+    */
+   public String[] getKeys() {
+      String[] result = Arrays.copyOf(keys, size);
+      Arrays.sort(result);
+      return result;
+   }
+
+   /**
+    * Return the number of values in the key's set
+    */
+   public int getCount(String key) {
+      Integer index = keyIndexes.get(key);
+      return (index == null ? 0 : counts[index]);
+   }
+
+   /**
+    * Return the values in the key's set in increasing order
+    */
+   public int[] get(String key) {
+      Integer index = keyIndexes.get(key);
+      return (index == null ? new int[0] : decode(index));
+   }
+
+   /**
+    * Append the values in the key's set to buf in increasing order, separated by separator
+    */
+   public void appendTo(String key, StringBuilder buf, char separator) {
+      Integer index = keyIndexes.get(key);
+      if (index == null) {
+         return;
+      }
+      Cursor cursor = new Cursor(index);
+      for (int j = 0; cursor.hasNext(); j++) {
+         if (j > 0) {
+            buf.append(separator);
+         }
+         buf.append(cursor.next());
+      }
+   }
+
+   /**
+    * Return the number of bytes used by the encoded sets
+    */
+   public long getEncodedSize() {
+      long total = 0;
+      for (int i = 0; i < size; i++) {
+         total += lengths[i];
+      }
+      return total;
+   }
+
+   /**
+    * Write the keys in sorted order, each followed by its count and its delta-encoded values
+    */
+   public void write(DataOutput out) throws IOException {
+      out.writeInt(size);
+      for (String key : getKeys()) {
+         int i = keyIndexes.get(key);
+         out.writeUTF(key);
+         Util.writeVarInt(out, counts[i]);
+         Util.writeVarInt(out, lengths[i]);
+         out.write(postings[i], 0, lengths[i]);
+      }
+   }
+
+   /**
+    * Read the lists written by write; the values are kept in their delta-encoded form
+    */
+   public static PostingLists read(DataInput in) throws IOException {
+      PostingLists lists = new PostingLists();
+      int size = in.readInt();
+      for (int k = 0; k < size; k++) {
+         int i = lists.addKey(in.readUTF());
+         int count = Util.readVarInt(in);
+         byte[] bytes = new byte[Util.readVarInt(in)];
+         in.readFully(bytes);
+         lists.postings[i] = bytes;
+         lists.lengths[i] = bytes.length;
+         lists.counts[i] = count;
+         Cursor cursor = lists.new Cursor(i);
+         while (cursor.hasNext()) {
+            lists.lastValues[i] = cursor.next();
+         }
+      }
+      return lists;
+   }
+
+   /**
+    * Reads the values of a key's set in increasing order
+    */
+   private class Cursor {
+      private final byte[] bytes;
+      private int remaining;
+      private int pos;
+      private int value;
+
+      Cursor(int i) {
+         bytes = postings[i];
+         remaining = counts[i];
+         pos = 0;
+         value = 0;
+      }
+
+      boolean hasNext() {
+         return remaining > 0;
+      }
+
+      int next() {
+         int delta = 0;
+         int shift = 0;
+         int b;
+         do {
+            b = bytes[pos++] & 0xff;
+            delta |= (b & 0x7f) << shift;
+            shift += 7;
+         } while ((b & 0x80) != 0);
+         value += delta;
+         remaining--;
+         return value;
+      }
+   }
+}
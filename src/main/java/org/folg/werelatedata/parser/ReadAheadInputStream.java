@@ -0,0 +1,142 @@
+/*
+ * Copyright 2012 Foundation for On-Line Genealogy, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package org.folg.werelatedata.parser;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Reads the underlying stream on its own thread, a chunk ahead of the consumer.
+ * Used to run decompression of a dump in parallel with xml parsing.
+ */
+public class ReadAheadInputStream extends InputStream {
+   private static final byte[] EOF = new byte[0];
+
+   private final BlockingQueue<byte[]> chunks;
+   private final Thread reader;
+   private volatile IOException failure;
+   private byte[] chunk;
+   private int chunkPos;
+
+   /**
+    * @param in stream to read
+    * @param chunkSize number of bytes to read at a time
+    * @param maxChunks maximum number of chunks to read ahead
+    */
+   public ReadAheadInputStream(final InputStream in, final int chunkSize, int maxChunks) {
+      chunks = new ArrayBlockingQueue<byte[]>(maxChunks);
+      chunk = null;
+      chunkPos = 0;
+      reader = new Thread(new Runnable() {
+         public void run() {
+            try {
+               try {
+                  for (;;) {
+                     byte[] buf = new byte[chunkSize];
+                     int len = 0;
+                     int n = 0;
+                     while (len < chunkSize && (n = in.read(buf, len, chunkSize - len)) >= 0) {
+                        len += n;
+                     }
+                     if (len > 0) {
+                        if (len < chunkSize) {
+                           byte[] partial = new byte[len];
+                           System.arraycopy(buf, 0, partial, 0, len);
+                           buf = partial;
+                        }
+                        chunks.put(buf);
+                     }
+                     if (n < 0) {
+                        break;
+                     }
+                  }
+               }
+               catch (IOException e) {
+                  failure = e;
+               }
+               finally {
+                  in.close();
+               }
+               chunks.put(EOF);
+            }
+            catch (InterruptedException e) {
+               // closed
+            }
+            catch (IOException e) {
+               failure = e;
+               chunks.offer(EOF);
+            }
+         }
+      }, "ReadAhead");
+      reader.setDaemon(true);
+      reader.start();
+   }
+
+   private boolean fill() throws IOException {
+      if (chunk == EOF) {
+         return false;
+      }
+      if (chunk == null || chunkPos == chunk.length) {
+         try {
+            chunk = chunks.take();
+         }
+         catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted reading ahead");
+         }
+         chunkPos = 0;
+         if (chunk == EOF) {
+            if (failure != null) {
+               throw failure;
+            }
+            return false;
+         }
+      }
+      return true;
+   }
+
+   public int read() throws IOException {
+      if (!fill()) {
+         return -1;
+      }
+      return chunk[chunkPos++] & 0xff;
+   }
+
+   public int read(byte[] b, int off, int len) throws IOException {
+      if (len == 0) {
+         return 0;
+      }
+      if (!fill()) {
+         return -1;
+      }
+      int n = Math.min(len, chunk.length - chunkPos);
+      System.arraycopy(chunk, chunkPos, b, off, n);
+      chunkPos += n;
+      return n;
+   }
+
+   public int available() throws IOException {
+      return (chunk == null || chunk == EOF ? 0 : chunk.length - chunkPos);
+   }
+
+   public void close() throws IOException {
+      reader.interrupt();
+      chunk = EOF;
+   }
+}
@@ -0,0 +1,31 @@
+/*
+ * Copyright 2012 Foundation for On-Line Genealogy, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package org.folg.werelatedata.parser;
+
+/**
+ * Receives a WikiReader's statistics while it reads a dump
+ */
+public interface ReaderListener {
+   /**
+    * Called from the reading thread every WikiReader report interval
+    */
+   public void progress(ReaderStats stats);
+
+   /**
+    * Called after every page has been parsed
+    */
+   public void finished(ReaderStats stats);
+}
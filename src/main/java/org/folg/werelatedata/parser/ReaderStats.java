@@ -0,0 +1,284 @@
+/*
+ * Copyright 2012 Foundation for On-Line Genealogy, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package org.folg.werelatedata.parser;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Throughput of a single WikiReader.read: pages and bytes read, pages per namespace,
+ * and the time spent reading the dump versus the time spent in each parser.
+ * Reading time is the time the reading thread wasn't waiting on the parsers, so it includes xml tokenizing and decompression
+ * that isn't overlapped with parsing.
+ */
+public class ReaderStats implements ReaderStatsMBean {
+   private static final int MAX_NAMESPACE = 128;
+   private static final String[] NAMESPACE_NAMES = new String[MAX_NAMESPACE];
+   static {
+      NAMESPACE_NAMES[Util.NS_MAIN] = "Main";
+      for (Map.Entry<String,Integer> entry : Util.NAMESPACE_MAP.entrySet()) {
+         int ns = entry.getValue();
+         String name = NAMESPACE_NAMES[ns];
+         if (name == null || entry.getKey().length() < name.length()) {  // MediaWiki talk is mapped to the MediaWiki namespace
+            NAMESPACE_NAMES[ns] = entry.getKey();
+         }
+      }
+   }
+
+   private final long startNanos;
+   private volatile long endNanos;
+   private final AtomicLong pages;
+   private final AtomicLong parsedPages;
+   private final AtomicLong bytes;
+   private final AtomicLong waitNanos;
+   private final AtomicLong shardReadNanos;
+   private final AtomicLongArray namespacePages;
+   private final List<ParserStats> parserStats;
+   private final Map<Object,ParserStats> parserStatsMap;
+
+   /**
+    * Time spent in and exceptions thrown by a single parser
+    */
+   public static class ParserStats {
+      private final String name;
+      private final AtomicLong pages;
+      private final AtomicLong nanos;
+      private final AtomicLong exceptions;
+
+      ParserStats(String name) {
+         this.name = name;
+         pages = new AtomicLong();
+         nanos = new AtomicLong();
+         exceptions = new AtomicLong();
+      }
+
+      public String getName() {
+         return name;
+      }
+
+      public long getPages() {
+         return pages.get();
+      }
+
+      public long getNanos() {
+         return nanos.get();
+      }
+
+      public long getExceptions() {
+         return exceptions.get();
+      }
+
+      void parsed(long elapsedNanos) {
+         pages.incrementAndGet();
+         nanos.addAndGet(elapsedNanos);
+      }
+
+      void exception() {
+         exceptions.incrementAndGet();
+      }
+
+      void add(ParserStats other) {
+         pages.addAndGet(other.getPages());
+         nanos.addAndGet(other.getNanos());
+         exceptions.addAndGet(other.getExceptions());
+      }
+   }
+
+   ReaderStats(List<? extends WikiParser> parsers, List<RevisionParser> revisionParsers) {
+      this(parsers, revisionParsers, System.nanoTime());
+   }
+
+   ReaderStats(List<? extends WikiParser> parsers, List<RevisionParser> revisionParsers, long startNanos) {
+      this.startNanos = startNanos;
+      endNanos = 0;
+      pages = new AtomicLong();
+      parsedPages = new AtomicLong();
+      bytes = new AtomicLong();
+      waitNanos = new AtomicLong();
+      shardReadNanos = new AtomicLong();
+      namespacePages = new AtomicLongArray(MAX_NAMESPACE);
+      parserStats = new ArrayList<ParserStats>();
+      parserStatsMap = new IdentityHashMap<Object,ParserStats>();
+      for (WikiParser parser : parsers) {
+         addParserStats(parser);
+      }
+      for (RevisionParser parser : revisionParsers) {
+         addParserStats(parser);
+      }
+   }
+
+   private void addParserStats(Object parser) {
+      String name = parser.getClass().getSimpleName();
+      ParserStats ps = new ParserStats(name.length() > 0 ? name : parser.getClass().getName());
+      parserStats.add(ps);
+      parserStatsMap.put(parser, ps);
+   }
+
+   void pageRead(int namespace) {
+      pages.incrementAndGet();
+      if (namespace >= 0 && namespace < MAX_NAMESPACE) {
+         namespacePages.incrementAndGet(namespace);
+      }
+   }
+
+   void pageParsed(long waitedNanos) {
+      parsedPages.incrementAndGet();
+      waitNanos.addAndGet(waitedNanos);
+   }
+
+   void bytesRead(long n) {
+      bytes.addAndGet(n);
+   }
+
+   void finish() {
+      endNanos = System.nanoTime();
+   }
+
+   /**
+    * Add the counts of a reader that read one shard of the dump, with the same parsers in the same order.
+    * Reading time becomes the total over the shards, so like parser times it can be more than 100% of elapsed time.
+    */
+   void addShard(ReaderStats shard) {
+      pages.addAndGet(shard.getPages());
+      parsedPages.addAndGet(shard.getParsedPages());
+      bytes.addAndGet(shard.getBytes());
+      shardReadNanos.addAndGet(Math.max(0, shard.getElapsedNanos() - shard.waitNanos.get()));
+      for (int ns = 0; ns < MAX_NAMESPACE; ns++) {
+         namespacePages.addAndGet(ns, shard.namespacePages.get(ns));
+      }
+      for (int i = 0; i < parserStats.size(); i++) {
+         parserStats.get(i).add(shard.parserStats.get(i));
+      }
+   }
+
+   ParserStats getParserStats(Object parser) {
+      return parserStatsMap.get(parser);
+   }
+
+   public List<ParserStats> getParserStats() {
+      return parserStats;
+   }
+
+   public long getPages() {
+      return pages.get();
+   }
+
+   /**
+    * Return the number of pages handed to the parsers; skipped redirects and unwanted or unchanged pages aren't counted
+    */
+   public long getParsedPages() {
+      return parsedPages.get();
+   }
+
+   public long getBytes() {
+      return bytes.get();
+   }
+
+   public long getNamespacePages(int namespace) {
+      return (namespace >= 0 && namespace < MAX_NAMESPACE ? namespacePages.get(namespace) : 0);
+   }
+
+   private long getElapsedNanos() {
+      long end = endNanos;
+      return (end == 0 ? System.nanoTime() : end) - startNanos;
+   }
+
+   public long getElapsedMillis() {
+      return getElapsedNanos() / 1000000;
+   }
+
+   public long getReadMillis() {
+      long shardNanos = shardReadNanos.get();
+      if (shardNanos > 0) {
+         return shardNanos / 1000000;
+      }
+      return Math.max(0, getElapsedNanos() - waitNanos.get()) / 1000000;
+   }
+
+   public double getPagesPerSecond() {
+      return perSecond(getPages());
+   }
+
+   public double getBytesPerSecond() {
+      return perSecond(getBytes());
+   }
+
+   private double perSecond(long n) {
+      long nanos = getElapsedNanos();
+      return (nanos == 0 ? 0.0 : n * 1e9 / nanos);
+   }
+
+   public String getNamespaceSummary() {
+      StringBuilder buf = new StringBuilder();
+      for (int ns = 0; ns < MAX_NAMESPACE; ns++) {
+         long n = namespacePages.get(ns);
+         if (n > 0) {
+            if (buf.length() > 0) {
+               buf.append(' ');
+            }
+            buf.append(getNamespaceName(ns)).append('=').append(n);
+         }
+      }
+      return buf.toString();
+   }
+
+   public String[] getParserSummaries() {
+      String[] summaries = new String[parserStats.size()];
+      for (int i = 0; i < summaries.length; i++) {
+         summaries[i] = getParserSummary(parserStats.get(i));
+      }
+      return summaries;
+   }
+
+   private String getParserSummary(ParserStats ps) {
+      String summary = String.format("%s %d%%", ps.getName(), percentOfElapsed(ps.getNanos()));
+      if (ps.getExceptions() > 0) {
+         summary += " (" + ps.getExceptions() + " errors)";
+      }
+      return summary;
+   }
+
+   private long percentOfElapsed(long nanos) {
+      long elapsed = getElapsedNanos();
+      return (elapsed == 0 ? 0 : nanos * 100 / elapsed);
+   }
+
+   /**
+    * Return a one-line summary; parser times are a percentage of elapsed time, so they can add up to more than 100% with worker threads
+    */
+   public String getSummary() {
+      StringBuilder buf = new StringBuilder();
+      buf.append(String.format("%,d pages (%,.0f/sec), %,d parsed, %,.1f MB (%,.1f MB/sec), reading %d%%",
+              getPages(), getPagesPerSecond(), getParsedPages(), getBytes() / 1048576.0, getBytesPerSecond() / 1048576.0,
+              percentOfElapsed(getReadMillis() * 1000000)));
+      for (ParserStats ps : parserStats) {
+         buf.append(", ").append(getParserSummary(ps));
+      }
+      return buf.toString();
+   }
+
+   public String toString() {
+      return getSummary();
+   }
+
+   private static String getNamespaceName(int ns) {
+      return (NAMESPACE_NAMES[ns] != null ? NAMESPACE_NAMES[ns] : Integer.toString(ns));
+   }
+}
@@ -0,0 +1,32 @@
+/*
+ * Copyright 2012 Foundation for On-Line Genealogy, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package org.folg.werelatedata.parser;
+
+/**
+ * JMX view of a WikiReader's progress
+ */
+public interface ReaderStatsMBean {
+   public long getPages();
+   public long getParsedPages();
+   public long getBytes();
+   public long getElapsedMillis();
+   public long getReadMillis();
+   public double getPagesPerSecond();
+   public double getBytesPerSecond();
+   public String getNamespaceSummary();
+   public String[] getParserSummaries();
+   public String getSummary();
+}
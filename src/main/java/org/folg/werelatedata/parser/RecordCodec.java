@@ -0,0 +1,34 @@
+/*
+ * Copyright 2012 Foundation for On-Line Genealogy, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.folg.werelatedata.parser;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Writes and reads the records kept by an ExternalSorter, and estimates how much memory they use
+ */
+public interface RecordCodec<T> {
+   public void write(DataOutput out, T record) throws IOException;
+
+   public T read(DataInput in) throws IOException;
+
+   /**
+    * Return the approximate number of bytes the record uses on the heap; see MemoryBudget.sizeOf
+    */
+   public long sizeOf(T record);
+}
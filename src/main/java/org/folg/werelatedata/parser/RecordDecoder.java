@@ -0,0 +1,203 @@
+/*
+ * Copyright 2012 Foundation for On-Line Genealogy, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.folg.werelatedata.parser;
+
+/**
+ * Decodes the structured data of person, family, place and source pages into typed records.
+ * Each decoder owns one record of each type and refills it on every call, so decoding doesn't allocate anything
+ * beyond the strings it returns; WikiParser keeps one decoder per thread.
+ * The children of the root element are walked once, comparing names in place instead of collecting elements by name.
+ */
+public class RecordDecoder {
+   private final PersonRecord person;
+   private final FamilyRecord family;
+   private final PlaceRecord place;
+   private final SourceRecord source;
+
+   public RecordDecoder() {
+      person = new PersonRecord();
+      family = new FamilyRecord();
+      place = new PlaceRecord();
+      source = new SourceRecord();
+   }
+
+   /**
+    * Decode the root element of a person page's structured data into this decoder's person record
+    */
+   public PersonRecord decodePerson(StructuredElement root) {
+      StructuredDocument doc = root.getDocument();
+      PersonRecord p = person;
+      p.clear();
+      boolean foundName = false;
+      boolean foundGender = false;
+      for (int child = doc.getFirstChild(root.getIndex()); child >= 0; child = doc.getNextSibling(child)) {
+         if (doc.nameEquals(child, "event_fact")) {
+            addEventFact(doc, child, p.eventFacts);
+         }
+         else if (doc.nameEquals(child, "name")) {
+            if (!foundName) {
+               p.given = attribute(doc, child, "given");
+               p.surname = attribute(doc, child, "surname");
+               foundName = true;
+            }
+         }
+         else if (doc.nameEquals(child, "gender")) {
+            if (!foundGender) {
+               p.gender = doc.getValue(child);
+               foundGender = true;
+            }
+         }
+         else if (doc.nameEquals(child, "child_of_family")) {
+            p.childOfFamilies.add(attribute(doc, child, "title"));
+         }
+         else if (doc.nameEquals(child, "spouse_of_family")) {
+            p.spouseOfFamilies.add(attribute(doc, child, "title"));
+         }
+      }
+      return p;
+   }
+
+   /**
+    * Decode the root element of a family page's structured data into this decoder's family record
+    */
+   public FamilyRecord decodeFamily(StructuredElement root) {
+      StructuredDocument doc = root.getDocument();
+      FamilyRecord f = family;
+      f.clear();
+      for (int child = doc.getFirstChild(root.getIndex()); child >= 0; child = doc.getNextSibling(child)) {
+         if (doc.nameEquals(child, "event_fact")) {
+            addEventFact(doc, child, f.eventFacts);
+         }
+         else if (doc.nameEquals(child, "husband")) {
+            f.husbandTitles.add(attribute(doc, child, "title"));
+            f.husbandGivens.add(attribute(doc, child, "given"));
+            f.husbandSurnames.add(attribute(doc, child, "surname"));
+         }
+         else if (doc.nameEquals(child, "wife")) {
+            f.wifeTitles.add(attribute(doc, child, "title"));
+            f.wifeGivens.add(attribute(doc, child, "given"));
+            f.wifeSurnames.add(attribute(doc, child, "surname"));
+         }
+         else if (doc.nameEquals(child, "child")) {
+            f.childTitles.add(attribute(doc, child, "title"));
+         }
+      }
+      return f;
+   }
+
+   /**
+    * Decode the root element of a place page's structured data into this decoder's place record
+    */
+   public PlaceRecord decodePlace(StructuredElement root) {
+      StructuredDocument doc = root.getDocument();
+      PlaceRecord p = place;
+      p.clear();
+      boolean foundType = false;
+      boolean foundLatitude = false;
+      boolean foundLongitude = false;
+      for (int child = doc.getFirstChild(root.getIndex()); child >= 0; child = doc.getNextSibling(child)) {
+         if (doc.nameEquals(child, "alternate_name")) {
+            p.alternateNames.add(attribute(doc, child, "name"));
+            p.alternateNameSources.add(attribute(doc, child, "source"));
+         }
+         else if (doc.nameEquals(child, "also_located_in")) {
+            String name = attribute(doc, child, "place");
+            if (name.length() > 0) {
+               p.alsoLocatedIns.add(name);
+            }
+         }
+         else if (doc.nameEquals(child, "type")) {
+            if (!foundType) {
+               p.types = doc.getValue(child);
+               foundType = true;
+            }
+         }
+         else if (doc.nameEquals(child, "latitude")) {
+            if (!foundLatitude) {
+               p.latitude = doc.getValue(child).trim();
+               foundLatitude = true;
+            }
+         }
+         else if (doc.nameEquals(child, "longitude")) {
+            if (!foundLongitude) {
+               p.longitude = doc.getValue(child).trim();
+               foundLongitude = true;
+            }
+         }
+      }
+      return p;
+   }
+
+   /**
+    * Decode the root element of a source page's structured data into this decoder's source record
+    */
+   public SourceRecord decodeSource(StructuredElement root) {
+      StructuredDocument doc = root.getDocument();
+      SourceRecord s = source;
+      s.clear();
+      for (int child = doc.getFirstChild(root.getIndex()); child >= 0; child = doc.getNextSibling(child)) {
+         if (doc.nameEquals(child, "author")) {
+            s.authors.add(doc.getValue(child));
+         }
+         else if (doc.nameEquals(child, "surname")) {
+            s.surnames.add(doc.getValue(child));
+         }
+         else if (doc.nameEquals(child, "place")) {
+            s.places.add(doc.getValue(child));
+         }
+         else if (doc.nameEquals(child, "subject")) {
+            s.subjects.add(doc.getValue(child));
+         }
+         else if (doc.nameEquals(child, "repository")) {
+            s.repositoryTitles.add(attribute(doc, child, "title"));
+            s.repositoryLocations.add(attribute(doc, child, "location"));
+         }
+         else if (doc.nameEquals(child, "source_type")) {
+            s.sourceType = first(s.sourceType, doc, child);
+         }
+         else if (doc.nameEquals(child, "source_title")) {
+            s.sourceTitle = first(s.sourceTitle, doc, child);
+         }
+         else if (doc.nameEquals(child, "subtitle")) {
+            s.subtitle = first(s.subtitle, doc, child);
+         }
+         else if (doc.nameEquals(child, "publisher")) {
+            s.publisher = first(s.publisher, doc, child);
+         }
+         else if (doc.nameEquals(child, "date_issued")) {
+            s.dateIssued = first(s.dateIssued, doc, child);
+         }
+         else if (doc.nameEquals(child, "place_issued")) {
+            s.placeIssued = first(s.placeIssued, doc, child);
+         }
+      }
+      return s;
+   }
+
+   private static void addEventFact(StructuredDocument doc, int element, EventFacts eventFacts) {
+      eventFacts.add(attribute(doc, element, "type"), attribute(doc, element, "date"),
+                     attribute(doc, element, "place"), attribute(doc, element, "desc"));
+   }
+
+   private static String attribute(StructuredDocument doc, int element, String name) {
+      return Util.nullToEmpty(doc.getAttributeValue(element, name));
+   }
+
+   // keep the value of the first non-empty element
+   private static String first(String current, StructuredDocument doc, int element) {
+      return (current.length() > 0 ? current : doc.getValue(element));
+   }
+}
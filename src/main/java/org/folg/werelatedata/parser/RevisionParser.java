@@ -0,0 +1,34 @@
+/*
+ * Copyright 2012 Foundation for On-Line Genealogy, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package org.folg.werelatedata.parser;
+
+import nu.xom.ParsingException;
+
+import java.io.IOException;
+
+/**
+ * Called by WikiReader for every revision of every page, in dump order, on the thread reading the dump.
+ * Revisions are passed one at a time as they are read, so a full-history dump can be processed without keeping a page's revisions in memory.
+ */
+public interface RevisionParser {
+   /**
+    * Parse a revision
+    * @param text revision text; it's only valid during this call and isn't turned into a String until toString is called,
+    * so call toString to keep it
+    */
+   public void parseRevision(String title, int pageId, int revId, String username, String timestamp, String comment, CharSequence text)
+           throws IOException, ParsingException;
+}
@@ -0,0 +1,273 @@
+/*
+ * Copyright 2012 Foundation for On-Line Genealogy, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package org.folg.werelatedata.parser;
+
+import nu.xom.ParsingException;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Reads an uncompressed dump in parallel.
+ * The dump is memory-mapped and split into byte ranges that start at a &lt;page&gt; tag;
+ * each range is read on its own thread by its own WikiReader with its own parsers.
+ * When all ranges have been read, the parsers for each range are combined, in dump order, into the parsers for the first range.
+ * The shards' readers don't report progress; the reader statistics of all the shards are combined and printed once at the end.
+ */
+public class ShardedWikiReader {
+   private static final byte[] PAGE_START = "<page>".getBytes();
+   private static final byte[] PAGE_END = "</page>".getBytes();
+   private static final byte[] ROOT_END = "\n</mediawiki>\n".getBytes();
+   private static final int SCAN_SIZE = 1024 * 1024;
+
+   private int shards;
+   private WikiReader.Engine engine;
+   private boolean skipRedirects;
+   private List<WikiParserFactory> factories;
+   private boolean printProgress;
+   private ReaderStats stats;
+
+   public ShardedWikiReader(int shards) {
+      this.shards = shards;
+      engine = WikiReader.Engine.STAX;
+      skipRedirects = true;
+      factories = new ArrayList<WikiParserFactory>();
+      printProgress = true;
+      stats = null;
+   }
+
+   public void setEngine(WikiReader.Engine engine) {
+      this.engine = engine;
+   }
+
+   public void setSkipRedirects(boolean skipRedirects) {
+      this.skipRedirects = skipRedirects;
+   }
+
+   /**
+    * Print the combined reader statistics and pages per namespace when the dump has been read
+    */
+   public void setPrintProgress(boolean printProgress) {
+      this.printProgress = printProgress;
+   }
+
+   /**
+    * Return the statistics of all the shards of the last read, or null before the first read
+    */
+   public ReaderStats getStats() {
+      return stats;
+   }
+
+   /**
+    * Add a factory that creates a parser for each shard
+    */
+   public void addWikiParserFactory(WikiParserFactory factory) {
+      factories.add(factory);
+   }
+
+   /**
+    * Read the dump
+    * @param filename uncompressed pages.xml
+    * @return the combined parser for each factory, in the order the factories were added
+    */
+   public List<CombinableWikiParser> read(String filename) throws ParsingException, IOException {
+      if (filename.endsWith(".gz") || filename.endsWith(".bz2")) {
+         throw new IOException("Compressed dumps can't be sharded: " + filename);
+      }
+      long startNanos = System.nanoTime();
+      RandomAccessFile file = new RandomAccessFile(filename, "r");
+      try {
+         final FileChannel channel = file.getChannel();
+         long size = channel.size();
+         long first = indexOf(channel, PAGE_START, 0, size);
+         if (first < 0) {
+            return createParsers();
+         }
+         long last = lastIndexOf(channel, PAGE_END, size) + PAGE_END.length;
+
+         final byte[] header = new byte[(int)first];
+         channel.read(ByteBuffer.wrap(header), 0);
+
+         List<Long> starts = new ArrayList<Long>();
+         starts.add(first);
+         for (int i = 1; i < shards; i++) {
+            long start = indexOf(channel, PAGE_START, first + (last - first) * i / shards, last);
+            if (start > starts.get(starts.size()-1)) {
+               starts.add(start);
+            }
+         }
+         starts.add(last);
+
+         final ReaderStats[] shardStats = new ReaderStats[starts.size()-1];
+         ExecutorService executor = Executors.newFixedThreadPool(starts.size()-1);
+         try {
+            List<Future<List<CombinableWikiParser>>> futures = new ArrayList<Future<List<CombinableWikiParser>>>();
+            for (int i = 0; i < starts.size()-1; i++) {
+               final int shard = i;
+               final long start = starts.get(i);
+               final long end = starts.get(i+1);
+               futures.add(executor.submit(new Callable<List<CombinableWikiParser>>() {
+                  public List<CombinableWikiParser> call() throws Exception {
+                     return readShard(header, channel, start, end, shardStats, shard);
+                  }
+               }));
+            }
+
+            List<CombinableWikiParser> combined = null;
+            for (Future<List<CombinableWikiParser>> future : futures) {
+               List<CombinableWikiParser> parsers = getResult(future);
+               if (combined == null) {
+                  combined = parsers;
+               }
+               else {
+                  for (int i = 0; i < combined.size(); i++) {
+                     combined.get(i).combine(parsers.get(i));
+                  }
+               }
+            }
+
+            stats = new ReaderStats(combined, new ArrayList<RevisionParser>(), startNanos);
+            for (ReaderStats shard : shardStats) {
+               stats.addShard(shard);
+            }
+            stats.finish();
+            if (printProgress) {
+               System.out.println(stats.getSummary());
+               System.out.println(stats.getNamespaceSummary());
+            }
+            return combined;
+         }
+         finally {
+            executor.shutdownNow();
+         }
+      }
+      finally {
+         file.close();
+      }
+   }
+
+   private List<CombinableWikiParser> createParsers() {
+      List<CombinableWikiParser> parsers = new ArrayList<CombinableWikiParser>();
+      for (WikiParserFactory factory : factories) {
+         parsers.add(factory.create());
+      }
+      return parsers;
+   }
+
+   private List<CombinableWikiParser> readShard(byte[] header, FileChannel channel, long start, long end, ReaderStats[] shardStats, int shard)
+           throws ParsingException, IOException {
+      WikiReader wikiReader = new WikiReader(engine);
+      wikiReader.setSkipRedirects(skipRedirects);
+      wikiReader.setLatestRevisionOnly(true);
+      wikiReader.setPrintProgress(false);
+      wikiReader.setRegisterMBean(false);
+      List<CombinableWikiParser> parsers = createParsers();
+      for (CombinableWikiParser parser : parsers) {
+         wikiReader.addWikiParser(parser);
+      }
+      InputStream in = new SequenceInputStream(new ByteArrayInputStream(header),
+              new SequenceInputStream(new MappedRangeInputStream(channel, start, end), new ByteArrayInputStream(ROOT_END)));
+      wikiReader.read(in);
+      shardStats[shard] = wikiReader.getStats();
+      return parsers;
+   }
+
+   private static List<CombinableWikiParser> getResult(Future<List<CombinableWikiParser>> future) throws ParsingException, IOException {
+      try {
+         return future.get();
+      }
+      catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+         throw new IOException("Interrupted reading shard", e);
+      }
+      catch (ExecutionException e) {
+         Throwable cause = e.getCause();
+         if (cause instanceof ParsingException) {
+            throw (ParsingException)cause;
+         }
+         else if (cause instanceof IOException) {
+            throw (IOException)cause;
+         }
+         else if (cause instanceof RuntimeException) {
+            throw (RuntimeException)cause;
+         }
+         else if (cause instanceof Error) {
+            throw (Error)cause;
+         }
+         throw new IOException(cause);
+      }
+   }
+
+   /**
+    * Return the position of the first occurrence of pattern at or after from and before limit, or -1
+    */
+   static long indexOf(FileChannel channel, byte[] pattern, long from, long limit) throws IOException {
+      while (from < limit) {
+         int size = (int)Math.min(SCAN_SIZE + pattern.length, limit - from);
+         MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, from, size);
+         for (int i = 0; i + pattern.length <= size; i++) {
+            if (matches(buf, i, pattern)) {
+               return from + i;
+            }
+         }
+         from += SCAN_SIZE;
+      }
+      return -1;
+   }
+
+   /**
+    * Return the position of the last occurrence of pattern before limit, or -1
+    */
+   static long lastIndexOf(FileChannel channel, byte[] pattern, long limit) throws IOException {
+      while (limit > 0) {
+         long from = Math.max(0, limit - SCAN_SIZE - pattern.length);
+         int size = (int)(limit - from);
+         MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, from, size);
+         for (int i = size - pattern.length; i >= 0; i--) {
+            if (matches(buf, i, pattern)) {
+               return from + i;
+            }
+         }
+         limit = from + pattern.length - 1;
+         if (from == 0) {
+            break;
+         }
+      }
+      return -1;
+   }
+
+   private static boolean matches(ByteBuffer buf, int pos, byte[] pattern) {
+      for (int j = 0; j < pattern.length; j++) {
+         if (buf.get(pos + j) != pattern[j]) {
+            return false;
+         }
+      }
+      return true;
+   }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright 2012 Foundation for On-Line Genealogy, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.folg.werelatedata.parser;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The structured data of a Source page, filled in by RecordDecoder.
+ * Records are reused from page to page, so copy anything you want to keep.
+ * Missing values are returned as empty strings; single values come from the first non-empty element with that name.
+ */
+public class SourceRecord {
+   String sourceType;
+   String sourceTitle;
+   String subtitle;
+   final List<String> authors;
+   String publisher;
+   String dateIssued;
+   String placeIssued;
+   final List<String> surnames;
+   final List<String> places;
+   final List<String> subjects;
+   final List<String> repositoryTitles;
+   final List<String> repositoryLocations;
+
+   SourceRecord() {
+      authors = new ArrayList<String>();
+      surnames = new ArrayList<String>();
+      places = new ArrayList<String>();
+      subjects = new ArrayList<String>();
+      repositoryTitles = new ArrayList<String>();
+      repositoryLocations = new ArrayList<String>();
+      clear();
+   }
+
+   void clear() {
+      sourceType = "";
+      sourceTitle = "";
+      subtitle = "";
+      authors.clear();
+      publisher = "";
+      dateIssued = "";
+      placeIssued = "";
+      surnames.clear();
+      places.clear();
+      subjects.clear();
+      repositoryTitles.clear();
+      repositoryLocations.clear();
+   }
+
+   public String getSourceType() {
+      return sourceType;
+   }
+
+   public String getSourceTitle() {
+      return sourceTitle;
+   }
+
+   public String getSubtitle() {
+      return subtitle;
+   }
+
+   public List<String> getAuthors() {
+      return authors;
+   }
+
+   public String getPublisher() {
+      return publisher;
+   }
+
+   public String getDateIssued() {
+      return dateIssued;
+   }
+
+   public String getPlaceIssued() {
+      return placeIssued;
+   }
+
+   public List<String> getSurnames() {
+      return surnames;
+   }
+
+   /**
+    * Return the titles of the places covered by the source, without the Place: namespace
+    */
+   public List<String> getPlaces() {
+      return places;
+   }
+
+   public List<String> getSubjects() {
+      return subjects;
+   }
+
+   public int getRepositoryCount() {
+      return repositoryTitles.size();
+   }
+
+   public String getRepositoryTitle(int i) {
+      return repositoryTitles.get(i);
+   }
+
+   /**
+    * Return the location of the source in the i'th repository, such as a call number or url
+    */
+   public String getRepositoryLocation(int i) {
+      return repositoryLocations.get(i);
+   }
+}
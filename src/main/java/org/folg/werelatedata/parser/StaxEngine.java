@@ -0,0 +1,132 @@
+/*
+ * Copyright 2012 Foundation for On-Line Genealogy, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package org.folg.werelatedata.parser;
+
+import nu.xom.ParsingException;
+
+import javax.xml.stream.Location;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.InputStream;
+
+/**
+ * Reads a dump with a StAX pull parser and feeds the page fields to a WikiReader.
+ * Only the leaf elements that WikiReader keeps are turned into strings; everything else is skipped.
+ */
+class StaxEngine {
+   private static final XMLInputFactory FACTORY = XMLInputFactory.newInstance();
+   static {
+      FACTORY.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+      FACTORY.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+   }
+
+   private final WikiReader reader;
+
+   StaxEngine(WikiReader reader) {
+      this.reader = reader;
+   }
+
+   public void read(InputStream in) throws ParsingException {
+      XMLStreamReader xml = null;
+      try {
+         xml = FACTORY.createXMLStreamReader(in, "UTF-8");
+         boolean inRevision = false;
+         while (xml.hasNext()) {
+            int event = xml.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+               String name = xml.getLocalName();
+               if (name.equals("page")) {
+                  reader.startPage();
+               }
+               else if (name.equals("title")) {
+                  reader.setTitle(xml.getElementText());
+               }
+               else if (name.equals("revision")) {
+                  inRevision = true;
+                  reader.startRevision();
+               }
+               else if (!inRevision && name.equals("id")) {
+                  reader.setPageId(xml.getElementText());
+               }
+               else if (inRevision && name.equals("id") && !reader.hasRevId()) {  // ignore later id's under contributor
+                  reader.setRevId(xml.getElementText());
+               }
+               else if (inRevision && name.equals("text")) {
+                  if (reader.isCapturePage()) {
+                     if (reader.isBufferText()) {
+                        readText(xml, reader.getRevisionText());
+                     }
+                     else {
+                        reader.setText(xml.getElementText());
+                     }
+                  }
+               }
+               else if (name.equals("username")) {
+                  reader.setUsername(xml.getElementText());
+               }
+               else if (name.equals("timestamp")) {
+                  reader.setTimestamp(xml.getElementText());
+               }
+               else if (name.equals("comment")) {
+                  reader.setComment(xml.getElementText());
+               }
+            }
+            else if (event == XMLStreamConstants.END_ELEMENT) {
+               String name = xml.getLocalName();
+               if (name.equals("revision")) {
+                  reader.endRevision();
+                  inRevision = false;
+               }
+               else if (name.equals("page")) {
+                  reader.endPage();
+               }
+            }
+         }
+      }
+      catch (XMLStreamException e) {
+         Location loc = e.getLocation();
+         if (loc != null) {
+            throw new ParsingException(e.getMessage(), loc.getLineNumber(), loc.getColumnNumber(), e);
+         }
+         throw new ParsingException(e.getMessage(), e);
+      }
+      finally {
+         if (xml != null) {
+            try {
+               xml.close();
+            }
+            catch (XMLStreamException e) {
+               // ignore
+            }
+         }
+      }
+   }
+
+   /**
+    * Append the text content of the current element to buf without creating a String
+    */
+   private static void readText(XMLStreamReader xml, TextBuffer buf) throws XMLStreamException {
+      int event = xml.next();
+      while (event != XMLStreamConstants.END_ELEMENT) {
+         if (event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.CDATA || event == XMLStreamConstants.SPACE) {
+            buf.append(xml.getTextCharacters(), xml.getTextStart(), xml.getTextLength());
+         }
+         event = xml.next();
+      }
+   }
+}
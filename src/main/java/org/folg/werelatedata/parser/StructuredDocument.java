@@ -0,0 +1,641 @@
+/*
+ * Copyright 2012 Foundation for On-Line Genealogy, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package org.folg.werelatedata.parser;
+
+import nu.xom.ParsingException;
+
+/**
+ * A lightweight alternative to parsing structured wiki text with XOM.
+ * The text is checked for well-formedness in a single pass that records where each element starts and ends in a few int arrays;
+ * elements, attributes and values are read straight from the original text when they're asked for.
+ * Only the parts of xml that appear in structured wiki text are supported: elements, attributes, namespace declarations, text,
+ * the predefined and character entities, CDATA sections, comments and processing instructions.
+ * Documents are immutable once parsed, so they can be shared between threads.
+ */
+public class StructuredDocument {
+   private final String text;
+   private int size;
+   // per element: where the name ends (it starts one after the <), where the attributes end, where the content starts and ends
+   private int[] nameStarts;
+   private int[] nameEnds;
+   private int[] attrEnds;
+   private int[] contentStarts;
+   private int[] contentEnds;
+   private int[] firstChildren;
+   private int[] nextSiblings;
+
+   private StructuredDocument(String text) {
+      this.text = text;
+      size = 0;
+      nameStarts = new int[16];
+      nameEnds = new int[16];
+      attrEnds = new int[16];
+      contentStarts = new int[16];
+      contentEnds = new int[16];
+      firstChildren = new int[16];
+      nextSiblings = new int[16];
+   }
+
+   /**
+    * Parse structured text, which must be a single well-formed xml element, optionally preceded and followed by whitespace or comments
+    */
+   public static StructuredDocument parse(String text) throws ParsingException {
+      StructuredDocument doc = new StructuredDocument(text);
+      doc.parse();
+      return doc;
+   }
+
+   public StructuredElement getRootElement() {
+      return new StructuredElement(this, 0);
+   }
+
+   String getText() {
+      return text;
+   }
+
+   int getNameStart(int element) {
+      return nameStarts[element];
+   }
+
+   int getNameEnd(int element) {
+      return nameEnds[element];
+   }
+
+   int getAttrEnd(int element) {
+      return attrEnds[element];
+   }
+
+   int getContentStart(int element) {
+      return contentStarts[element];
+   }
+
+   int getContentEnd(int element) {
+      return contentEnds[element];
+   }
+
+   int getFirstChild(int element) {
+      return firstChildren[element];
+   }
+
+   int getNextSibling(int element) {
+      return nextSiblings[element];
+   }
+
+   /**
+    * Return true if the name of the element equals name
+    */
+   boolean nameEquals(int element, String name) {
+      int len = nameEnds[element] - nameStarts[element];
+      return len == name.length() && text.regionMatches(nameStarts[element], name, 0, len);
+   }
+
+   /**
+    * Return the value of the element's attribute, or null if the element doesn't have the attribute
+    */
+   String getAttributeValue(int element, String name) {
+      int quote = findAttribute(element, name);
+      if (quote < 0) {
+         return null;
+      }
+      int start = quote + 1;
+      int end = text.indexOf(text.charAt(quote), start);
+      for (int i = start; i < end; i++) {
+         char c = text.charAt(i);
+         if (c == '&' || c == '\r' || c == '\n' || c == '\t') {
+            return decode(text, start, end, true);
+         }
+      }
+      return text.substring(start, end);
+   }
+
+   /**
+    * Return the text content of the element and all of its descendants
+    */
+   String getValue(int element) {
+      int start = contentStarts[element];
+      int end = contentEnds[element];
+      for (int i = start; i < end; i++) {
+         char c = text.charAt(i);
+         if (c == '<' || c == '&' || c == '\r') {
+            return decode(text, start, end, false);
+         }
+      }
+      return text.substring(start, end);
+   }
+
+   private static String decode(String text, int start, int end, boolean isAttribute) {
+      StringBuilder buf = new StringBuilder(end - start);
+      int i = start;
+      while (i < end) {
+         char c = text.charAt(i);
+         if (c == '&') {
+            int semi = text.indexOf(';', i);
+            buf.appendCodePoint(decodeReference(text, i + 1, semi));
+            i = semi + 1;
+         }
+         else if (c == '<') {
+            if (text.startsWith("<![CDATA[", i)) {
+               int cdataEnd = text.indexOf("]]>", i);
+               for (int j = i + 9; j < cdataEnd; j++) {
+                  char d = text.charAt(j);
+                  if (d != '\r') {
+                     buf.append(d);
+                  }
+                  else if (j + 1 >= cdataEnd || text.charAt(j+1) != '\n') {
+                     buf.append('\n');
+                  }
+               }
+               i = cdataEnd + 3;
+            }
+            else if (text.startsWith("<!--", i)) {
+               i = text.indexOf("-->", i) + 3;
+            }
+            else if (text.startsWith("<?", i)) {
+               i = text.indexOf("?>", i) + 2;
+            }
+            else {
+               i = skipTag(text, i);
+            }
+         }
+         else if (c == '\r') {
+            if (i + 1 >= end || text.charAt(i+1) != '\n') {
+               buf.append(isAttribute ? ' ' : '\n');
+            }
+            i++;
+         }
+         else if (isAttribute && (c == '\n' || c == '\t')) {
+            buf.append(' ');
+            i++;
+         }
+         else {
+            buf.append(c);
+            i++;
+         }
+      }
+      return buf.toString();
+   }
+
+   // return the position following the tag at pos; attribute values may contain >
+   private static int skipTag(String text, int pos) {
+      char quote = 0;
+      for (int i = pos + 1; ; i++) {
+         char c = text.charAt(i);
+         if (quote != 0) {
+            if (c == quote) {
+               quote = 0;
+            }
+         }
+         else if (c == '"' || c == '\'') {
+            quote = c;
+         }
+         else if (c == '>') {
+            return i + 1;
+         }
+      }
+   }
+
+   private void parse() throws ParsingException {
+      int len = text.length();
+      int pos = skipMisc(0);
+      if (pos >= len || text.charAt(pos) != '<') {
+         throw error("Content is not allowed in prolog", pos);
+      }
+      int[] stack = new int[16];
+      int depth = 0;
+      int[] lastChildren = new int[16];
+      while (pos < len) {
+         char c = text.charAt(pos);
+         if (c == '<') {
+            if (text.startsWith("</", pos)) {
+               if (depth == 0) {
+                  throw error("End tag without start tag", pos);
+               }
+               int element = stack[--depth];
+               int nameStart = pos + 2;
+               int nameEnd = scanName(nameStart);
+               if (nameEnd - nameStart != nameEnds[element] - nameStarts[element] ||
+                   !text.regionMatches(nameStart, text, nameStarts[element], nameEnd - nameStart)) {
+                  throw error("End tag " + text.substring(nameStart, nameEnd) + " does not match start tag " +
+                              text.substring(nameStarts[element], nameEnds[element]), pos);
+               }
+               int end = skipWhitespace(nameEnd);
+               if (end >= len || text.charAt(end) != '>') {
+                  throw error("Expected > in end tag", end);
+               }
+               contentEnds[element] = pos;
+               pos = end + 1;
+               if (depth == 0) {
+                  pos = skipMisc(pos);
+                  if (pos < len) {
+                     throw error("Content is not allowed after the root element", pos);
+                  }
+               }
+            }
+            else if (text.startsWith("<!--", pos)) {
+               pos = skipComment(pos);
+            }
+            else if (text.startsWith("<![CDATA[", pos) && depth > 0) {
+               pos = checkChars(pos + 9, skipPast("]]>", pos + 9, "CDATA section") - 3) + 3;
+            }
+            else if (text.startsWith("<?", pos)) {
+               pos = skipProcessingInstruction(pos);
+            }
+            else if (text.startsWith("<!", pos)) {
+               throw error("Markup declarations are not supported", pos);
+            }
+            else {
+               if (depth == 0 && size > 0) {
+                  throw error("Content is not allowed after the root element", pos);
+               }
+               int element = addElement(pos);
+               if (depth > 0) {
+                  int parent = stack[depth-1];
+                  if (firstChildren[parent] < 0) {
+                     firstChildren[parent] = element;
+                  }
+                  else {
+                     nextSiblings[lastChildren[depth-1]] = element;
+                  }
+                  lastChildren[depth-1] = element;
+               }
+               int end = scanAttributes(element);
+               checkPrefixes(element, stack, depth);
+               if (text.charAt(end) == '/') {
+                  contentStarts[element] = contentEnds[element] = end;
+                  pos = end + 2;
+                  if (depth == 0) {
+                     pos = skipMisc(pos);
+                     if (pos < len) {
+                        throw error("Content is not allowed after the root element", pos);
+                     }
+                  }
+               }
+               else {
+                  contentStarts[element] = end + 1;
+                  pos = end + 1;
+                  if (depth == stack.length) {
+                     stack = grow(stack);
+                     lastChildren = grow(lastChildren);
+                  }
+                  stack[depth] = element;
+                  lastChildren[depth] = -1;
+                  depth++;
+               }
+            }
+         }
+         else if (c == '&') {
+            pos = checkReference(pos);
+         }
+         else if (c == ']' && text.startsWith("]]>", pos)) {
+            throw error("]]> is not allowed in content", pos);
+         }
+         else {
+            pos = checkChar(pos);
+         }
+      }
+      if (depth > 0) {
+         int element = stack[depth-1];
+         throw error("Element " + text.substring(nameStarts[element], nameEnds[element]) + " is not closed", len);
+      }
+   }
+
+   private int addElement(int pos) throws ParsingException {
+      if (size == nameStarts.length) {
+         nameStarts = grow(nameStarts);
+         nameEnds = grow(nameEnds);
+         attrEnds = grow(attrEnds);
+         contentStarts = grow(contentStarts);
+         contentEnds = grow(contentEnds);
+         firstChildren = grow(firstChildren);
+         nextSiblings = grow(nextSiblings);
+      }
+      int element = size++;
+      nameStarts[element] = pos + 1;
+      nameEnds[element] = scanName(pos + 1);
+      firstChildren[element] = -1;
+      nextSiblings[element] = -1;
+      return element;
+   }
+
+   /**
+    * Check the attributes of a start tag and return the position of its closing > or />
+    */
+   private int scanAttributes(int element) throws ParsingException {
+      int len = text.length();
+      int pos = nameEnds[element];
+      for (;;) {
+         int start = pos;
+         pos = skipWhitespace(pos);
+         if (pos >= len) {
+            throw error("Start tag is not closed", pos);
+         }
+         char c = text.charAt(pos);
+         if (c == '>' || (c == '/' && text.startsWith("/>", pos))) {
+            attrEnds[element] = pos;
+            return pos;
+         }
+         if (pos == start) {
+            throw error("Expected whitespace before attribute", pos);
+         }
+         int nameStart = pos;
+         int nameEnd = scanName(pos);
+         pos = skipWhitespace(nameEnd);
+         if (pos >= len || text.charAt(pos) != '=') {
+            throw error("Expected = after attribute name", pos);
+         }
+         pos = skipWhitespace(pos + 1);
+         if (pos >= len || (text.charAt(pos) != '"' && text.charAt(pos) != '\'')) {
+            throw error("Expected quoted attribute value", pos);
+         }
+         char quote = text.charAt(pos);
+         int valueEnd = text.indexOf(quote, pos + 1);
+         if (valueEnd < 0) {
+            throw error("Attribute value is not closed", pos);
+         }
+         for (int i = pos + 1; i < valueEnd; ) {
+            c = text.charAt(i);
+            if (c == '<') {
+               throw error("Attribute value can't contain <", i);
+            }
+            i = (c == '&' ? checkReference(i) : checkChar(i));
+         }
+         if (findAttribute(nameEnds[element], nameStart, text, nameStart, nameEnd - nameStart) >= 0) {
+            throw error("Attribute " + text.substring(nameStart, nameEnd) + " appears more than once", nameStart);
+         }
+         pos = valueEnd + 1;
+      }
+   }
+
+   /**
+    * Return the position of the opening quote of the value of the element's attribute, or -1 if the element doesn't have the attribute
+    */
+   int findAttribute(int element, String name) {
+      return findAttribute(nameEnds[element], attrEnds[element], name, 0, name.length());
+   }
+
+   // attributes between start and end have already been checked
+   private int findAttribute(int start, int end, String name, int nameOffset, int nameLen) {
+      int pos = skipWhitespace(start);
+      while (pos < end) {
+         int nameEnd = scanNameUnchecked(pos);
+         int quote = skipWhitespace(skipWhitespace(nameEnd) + 1);
+         if (nameEnd - pos == nameLen && text.regionMatches(pos, name, nameOffset, nameLen)) {
+            return quote;
+         }
+         pos = skipWhitespace(text.indexOf(text.charAt(quote), quote + 1) + 1);
+      }
+      return -1;
+   }
+
+   private int scanName(int pos) throws ParsingException {
+      int end = scanNameUnchecked(pos);
+      if (end == pos) {
+         throw error("Expected a name", pos);
+      }
+      if (!isNameStartChar(text.charAt(pos))) {
+         throw error("Invalid name", pos);
+      }
+      int colons = (text.charAt(pos) == ':' ? 1 : 0);
+      for (int i = pos + 1; i < end; i++) {
+         char c = text.charAt(i);
+         if (!isNameChar(c)) {
+            throw error("Invalid name", pos);
+         }
+         if (c == ':') {
+            colons++;
+         }
+      }
+      if (colons > 0 && (colons > 1 || text.charAt(pos) == ':' || text.charAt(end - 1) == ':')) {
+         throw error("Invalid qualified name", pos);
+      }
+      return end;
+   }
+
+   /**
+    * Check that the prefixes of the element's name and attribute names are declared by the element or one of its ancestors
+    */
+   private void checkPrefixes(int element, int[] ancestors, int depth) throws ParsingException {
+      checkPrefix(nameStarts[element], nameEnds[element], element, ancestors, depth);
+      int pos = skipWhitespace(nameEnds[element]);
+      while (pos < attrEnds[element]) {
+         int nameEnd = scanNameUnchecked(pos);
+         checkPrefix(pos, nameEnd, element, ancestors, depth);
+         int quote = skipWhitespace(skipWhitespace(nameEnd) + 1);
+         pos = skipWhitespace(text.indexOf(text.charAt(quote), quote + 1) + 1);
+      }
+   }
+
+   private void checkPrefix(int start, int end, int element, int[] ancestors, int depth) throws ParsingException {
+      int colon = start;
+      while (colon < end && text.charAt(colon) != ':') {
+         colon++;
+      }
+      if (colon == end || text.startsWith("xml:", start) || text.startsWith("xmlns:", start)) {
+         return;
+      }
+      String declaration = "xmlns:" + text.substring(start, colon);
+      if (findAttribute(element, declaration) >= 0) {
+         return;
+      }
+      for (int i = depth - 1; i >= 0; i--) {
+         if (findAttribute(ancestors[i], declaration) >= 0) {
+            return;
+         }
+      }
+      throw error("Namespace prefix " + text.substring(start, colon) + " is not bound", start);
+   }
+
+   private static boolean isNameStartChar(char c) {
+      return Character.isLetter(c) || c == '_' || c == ':';
+   }
+
+   private static boolean isNameChar(char c) {
+      if (isNameStartChar(c) || Character.isDigit(c) || c == '.' || c == '-' || c == '\u00B7') {
+         return true;
+      }
+      int type = Character.getType(c);
+      return type == Character.NON_SPACING_MARK || type == Character.COMBINING_SPACING_MARK ||
+             type == Character.ENCLOSING_MARK || type == Character.MODIFIER_LETTER;
+   }
+
+   /**
+    * Check that the character at pos is allowed in xml and return the position following it
+    */
+   private int checkChar(int pos) throws ParsingException {
+      char c = text.charAt(pos);
+      if (c >= 0x20 && c < 0xD800) {
+         return pos + 1;
+      }
+      if (c == '\t' || c == '\n' || c == '\r' || (c >= 0xE000 && c <= 0xFFFD)) {
+         return pos + 1;
+      }
+      if (Character.isHighSurrogate(c) && pos + 1 < text.length() && Character.isLowSurrogate(text.charAt(pos+1))) {
+         return pos + 2;
+      }
+      throw error("Invalid xml character (Unicode: 0x" + Integer.toHexString(c) + ")", pos);
+   }
+
+   private int checkChars(int start, int end) throws ParsingException {
+      for (int pos = start; pos < end; ) {
+         pos = checkChar(pos);
+      }
+      return end;
+   }
+
+   private int skipComment(int pos) throws ParsingException {
+      int end = skipPast("-->", pos + 4, "comment") - 3;
+      int dashes = text.indexOf("--", pos + 4);
+      // <!----> is an empty comment, so the character before --> is only checked when there is content
+      if (dashes < end || (end > pos + 4 && text.charAt(end - 1) == '-')) {
+         throw error("-- is not allowed in comments", pos);
+      }
+      return checkChars(pos + 4, end) + 3;
+   }
+
+   private int skipProcessingInstruction(int pos) throws ParsingException {
+      int targetEnd = scanName(pos + 2);
+      if (targetEnd - pos - 2 == 3 && text.regionMatches(true, pos + 2, "xml", 0, 3)) {
+         throw error("Processing instruction target can't be xml", pos);
+      }
+      int end = skipPast("?>", targetEnd, "processing instruction") - 2;
+      if (end > targetEnd && skipWhitespace(targetEnd) == targetEnd) {
+         throw error("Expected whitespace after processing instruction target", targetEnd);
+      }
+      return checkChars(targetEnd, end) + 2;
+   }
+
+   private int scanNameUnchecked(int pos) {
+      int len = text.length();
+      while (pos < len) {
+         char c = text.charAt(pos);
+         if (Character.isWhitespace(c) || c == '>' || c == '/' || c == '=' || c == '<' || c == '"' || c == '\'' || c == '?') {
+            break;
+         }
+         pos++;
+      }
+      return pos;
+   }
+
+   int skipWhitespace(int pos) {
+      int len = text.length();
+      while (pos < len) {
+         char c = text.charAt(pos);
+         if (c != ' ' && c != '\t' && c != '\n' && c != '\r') {
+            break;
+         }
+         pos++;
+      }
+      return pos;
+   }
+
+   // skip whitespace, comments and processing instructions outside the root element
+   private int skipMisc(int pos) throws ParsingException {
+      for (;;) {
+         pos = skipWhitespace(pos);
+         if (text.startsWith("<!--", pos)) {
+            pos = skipComment(pos);
+         }
+         else if (text.startsWith("<?", pos)) {
+            pos = skipProcessingInstruction(pos);
+         }
+         else {
+            return pos;
+         }
+      }
+   }
+
+   private int skipPast(String end, int pos, String what) throws ParsingException {
+      int i = text.indexOf(end, pos);
+      if (i < 0) {
+         throw error(what + " is not closed", pos);
+      }
+      return i + end.length();
+   }
+
+   /**
+    * Check the entity or character reference at pos and return the position following it
+    */
+   private int checkReference(int pos) throws ParsingException {
+      int end = text.indexOf(';', pos);
+      if (end < 0 || decodeReference(text, pos + 1, end) < 0) {
+         throw error("Invalid entity reference", pos);
+      }
+      return end + 1;
+   }
+
+   /**
+    * Return the character referred to by the reference between start and end (not including the & and ;), or -1 if it's invalid
+    */
+   static int decodeReference(String text, int start, int end) {
+      int len = end - start;
+      if (len >= 2 && text.charAt(start) == '#') {
+         int radix = 10;
+         int i = start + 1;
+         if (text.charAt(i) == 'x') {
+            radix = 16;
+            i++;
+         }
+         if (i == end || end - i > 8) {
+            return -1;
+         }
+         int value = 0;
+         for (; i < end; i++) {
+            int digit = Character.digit(text.charAt(i), radix);
+            if (digit < 0) {
+               return -1;
+            }
+            value = value * radix + digit;
+         }
+         boolean valid = (value == 0x9 || value == 0xA || value == 0xD || (value >= 0x20 && value <= 0xD7FF) ||
+                          (value >= 0xE000 && value <= 0xFFFD) || (value >= 0x10000 && value <= 0x10FFFF));
+         return valid ? value : -1;
+      }
+      if (len == 3 && text.startsWith("amp", start)) {
+         return '&';
+      }
+      if (len == 2 && text.startsWith("lt", start)) {
+         return '<';
+      }
+      if (len == 2 && text.startsWith("gt", start)) {
+         return '>';
+      }
+      if (len == 4 && text.startsWith("quot", start)) {
+         return '"';
+      }
+      if (len == 4 && text.startsWith("apos", start)) {
+         return '\'';
+      }
+      return -1;
+   }
+
+   private ParsingException error(String message, int pos) {
+      int line = 1;
+      int lineStart = 0;
+      for (int i = 0; i < pos && i < text.length(); i++) {
+         if (text.charAt(i) == '\n') {
+            line++;
+            lineStart = i + 1;
+         }
+      }
+      return new ParsingException(message, line, pos - lineStart + 1);
+   }
+
+   private static int[] grow(int[] a) {
+      int[] b = new int[a.length * 2];
+      System.arraycopy(a, 0, b, 0, a.length);
+      return b;
+   }
+}
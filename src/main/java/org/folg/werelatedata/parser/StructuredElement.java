@@ -0,0 +1,87 @@
+/*
+ * Copyright 2012 Foundation for On-Line Genealogy, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package org.folg.werelatedata.parser;
+
+/**
+ * An element of a StructuredDocument; the counterpart of nu.xom.Element.
+ * Names, attribute values and text are read from the document text each time they're asked for.
+ */
+public class StructuredElement {
+   private final StructuredDocument doc;
+   private final int element;
+
+   StructuredElement(StructuredDocument doc, int element) {
+      this.doc = doc;
+      this.element = element;
+   }
+
+   StructuredDocument getDocument() {
+      return doc;
+   }
+
+   int getIndex() {
+      return element;
+   }
+
+   public String getLocalName() {
+      String text = doc.getText();
+      int start = doc.getNameStart(element);
+      int end = doc.getNameEnd(element);
+      int colon = text.indexOf(':', start);
+      return text.substring(colon >= 0 && colon < end ? colon + 1 : start, end);
+   }
+
+   /**
+    * Return the value of the attribute, or null if the element doesn't have the attribute
+    */
+   public String getAttributeValue(String name) {
+      return doc.getAttributeValue(element, name);
+   }
+
+   /**
+    * Return the child elements with the specified name
+    */
+   public StructuredElements getChildElements(String name) {
+      return new StructuredElements(doc, element, name);
+   }
+
+   public StructuredElements getChildElements() {
+      return new StructuredElements(doc, element, null);
+   }
+
+   /**
+    * Return the first child element with the specified name, or null if there isn't one
+    */
+   public StructuredElement getFirstChildElement(String name) {
+      for (int child = doc.getFirstChild(element); child >= 0; child = doc.getNextSibling(child)) {
+         if (doc.nameEquals(child, name)) {
+            return new StructuredElement(doc, child);
+         }
+      }
+      return null;
+   }
+
+   /**
+    * Return the text content of the element and all of its descendants
+    */
+   public String getValue() {
+      return doc.getValue(element);
+   }
+
+   public String toString() {
+      return "[StructuredElement: " + getLocalName() + "]";
+   }
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright 2012 Foundation for On-Line Genealogy, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package org.folg.werelatedata.parser;
+
+/**
+ * The child elements of a StructuredElement, optionally with a specific name; the counterpart of nu.xom.Elements
+ */
+public class StructuredElements {
+   private final StructuredDocument doc;
+   private final String name;
+   private final int first;
+   private final int size;
+   // the last element returned by get, so that get(i) in a loop doesn't have to start from the first child
+   private int lastIndex;
+   private int lastElement;
+
+   StructuredElements(StructuredDocument doc, int parent, String name) {
+      this.doc = doc;
+      this.name = name;
+      int first = -1;
+      int size = 0;
+      for (int child = doc.getFirstChild(parent); child >= 0; child = doc.getNextSibling(child)) {
+         if (matches(child)) {
+            if (first < 0) {
+               first = child;
+            }
+            size++;
+         }
+      }
+      this.first = first;
+      this.size = size;
+      lastIndex = 0;
+      lastElement = first;
+   }
+
+   private boolean matches(int element) {
+      return name == null || doc.nameEquals(element, name);
+   }
+
+   public int size() {
+      return size;
+   }
+
+   public StructuredElement get(int index) {
+      if (index < 0 || index >= size) {
+         throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+      }
+      if (index < lastIndex) {
+         lastIndex = 0;
+         lastElement = first;
+      }
+      while (lastIndex < index) {
+         lastElement = doc.getNextSibling(lastElement);
+         if (matches(lastElement)) {
+            lastIndex++;
+         }
+      }
+      return new StructuredElement(doc, lastElement);
+   }
+}
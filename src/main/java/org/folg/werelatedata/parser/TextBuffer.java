@@ -0,0 +1,66 @@
+/*
+ * Copyright 2012 Foundation for On-Line Genealogy, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package org.folg.werelatedata.parser;
+
+/**
+ * Growable char buffer that is reused from revision to revision, so revision text doesn't have to be turned into a String
+ */
+class TextBuffer implements CharSequence {
+   private char[] chars;
+   private int length;
+
+   TextBuffer() {
+      chars = new char[1024];
+      length = 0;
+   }
+
+   public void clear() {
+      length = 0;
+   }
+
+   public void append(char[] src, int start, int len) {
+      if (length + len > chars.length) {
+         char[] newChars = new char[Math.max(chars.length * 2, length + len)];
+         System.arraycopy(chars, 0, newChars, 0, length);
+         chars = newChars;
+      }
+      System.arraycopy(src, start, chars, length, len);
+      length += len;
+   }
+
+   public char[] getChars() {
+      return chars;
+   }
+
+   public int length() {
+      return length;
+   }
+
+   public char charAt(int index) {
+      if (index >= length) {
+         throw new IndexOutOfBoundsException(Integer.toString(index));
+      }
+      return chars[index];
+   }
+
+   public CharSequence subSequence(int start, int end) {
+      return new String(chars, start, end - start);
+   }
+
+   public String toString() {
+      return new String(chars, 0, length);
+   }
+}
@@ -15,6 +15,10 @@
  */
 package org.folg.werelatedata.parser;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.File;
+import java.io.IOException;
 import java.util.*;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -115,6 +119,65 @@ public class Util {
       return in;
    }
 
+   /**
+    * Write a non-negative int in 1-5 bytes, 7 bits per byte
+    */
+   public static void writeVarInt(DataOutput out, int value) throws IOException {
+      while ((value & ~0x7f) != 0) {
+         out.writeByte((value & 0x7f) | 0x80);
+         value >>>= 7;
+      }
+      out.writeByte(value);
+   }
+
+   /**
+    * Read an int written by writeVarInt
+    */
+   public static int readVarInt(DataInput in) throws IOException {
+      int value = 0;
+      int shift = 0;
+      int b;
+      do {
+         b = in.readUnsignedByte();
+         value |= (b & 0x7f) << shift;
+         shift += 7;
+      } while ((b & 0x80) != 0);
+      return value;
+   }
+
+   static final long FNV_OFFSET = 0xcbf29ce484222325L;
+   private static final long FNV_PRIME = 0x100000001b3L;
+
+   /**
+    * Continue a 64-bit FNV-1a hash with a character; start a new hash with FNV_OFFSET
+    */
+   static long fnvHash(long h, char c) {
+      return (h ^ c) * FNV_PRIME;
+   }
+
+   /**
+    * Continue a 64-bit FNV-1a hash with the characters of s
+    */
+   static long fnvHash(long h, CharSequence s) {
+      for (int i = 0; i < s.length(); i++) {
+         h = fnvHash(h, s.charAt(i));
+      }
+      return h;
+   }
+
+   /**
+    * Replace a file with a newly written one, such as a temporary file that was written so that a crash doesn't leave a partial file behind
+    */
+   public static void replaceFile(String from, String to) throws IOException {
+      File file = new File(to);
+      if (file.exists() && !file.delete()) {
+         throw new IOException("Unable to replace " + to);
+      }
+      if (!new File(from).renameTo(file)) {
+         throw new IOException("Unable to rename " + from + " to " + to);
+      }
+   }
+
    /**
     * Return the number of occurrences of the specified character in the specified string
     */
@@ -421,6 +484,21 @@ public class Util {
       return fields;
    }
 
+   /**
+    * Return the namespace id of the specified title; NS_MAIN if the title doesn't start with a known namespace
+    * @param fullTitle title including namespace
+    */
+   public static int getNamespace(String fullTitle) {
+      int i = fullTitle.indexOf(':');
+      if (i > 0) {
+         Integer ns = NAMESPACE_MAP.get(fullTitle.substring(0,i));
+         if (ns != null) {
+            return ns;
+         }
+      }
+      return NS_MAIN;
+   }
+
    public static String prepareWikiTitle(String title) {
       return prepareWikiTitle(title, MAX_TITLE_LEN);
    }
@@ -0,0 +1,164 @@
+/*
+ * Copyright 2012 Foundation for On-Line Genealogy, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package org.folg.werelatedata.parser;
+
+import nu.xom.Element;
+import nu.xom.ParsingException;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The latest revision of a page, as handed to WikiParser.parse
+ */
+public class WikiPage {
+   // the page that parsers on this thread are parsing
+   static final ThreadLocal<WikiPage> current = new ThreadLocal<WikiPage>();
+   private static final Object NO_ROOT = new Object();
+
+   private final String title;
+   private final PageText text;
+   private final int pageId;
+   private final int latestRevId;
+   private final String username;
+   private final String timestamp;
+   private final String comment;
+   private final int namespace;
+   private Map<String,Object> structuredRoots;
+   private Map<String,Object> decodedRoots;
+
+   public WikiPage(String title, String text, int pageId, int latestRevId, String username, String timestamp, String comment) {
+      this(title, (text == null ? null : new PageText(text)), pageId, latestRevId, username, timestamp, comment);
+   }
+
+   /**
+    * Create a page whose text may be a window onto a reader's buffer; the page is only valid until the buffer is reused
+    */
+   WikiPage(String title, PageText text, int pageId, int latestRevId, String username, String timestamp, String comment) {
+      this.title = title;
+      this.text = text;
+      this.pageId = pageId;
+      this.latestRevId = latestRevId;
+      this.username = username;
+      this.timestamp = timestamp;
+      this.comment = comment;
+      this.namespace = (title == null ? Util.NS_MAIN : Util.getNamespace(title));
+   }
+
+   public String getTitle() {
+      return title;
+   }
+
+   public String getText() {
+      return (text == null ? null : text.toString());
+   }
+
+   /**
+    * Return the text without turning it into a String
+    */
+   public PageText getPageText() {
+      return text;
+   }
+
+   /**
+    * Return true if text is this page's text, either as a PageText or as the String returned by getText
+    */
+   boolean hasText(CharSequence text) {
+      return this.text != null && (this.text == text || this.text.isString(text));
+   }
+
+   public int getPageId() {
+      return pageId;
+   }
+
+   public int getLatestRevId() {
+      return latestRevId;
+   }
+
+   public String getUsername() {
+      return username;
+   }
+
+   public String getTimestamp() {
+      return timestamp;
+   }
+
+   public String getComment() {
+      return comment;
+   }
+
+   /**
+    * Return the namespace id (Util.NS_*) of the title
+    */
+   public int getNamespace() {
+      return namespace;
+   }
+
+   /**
+    * Return the root element of the structured data, parsing it the first time it's asked for.
+    * The element, or the parsing exception, is shared by every parser that asks for the same tag.
+    */
+   synchronized Element getStructuredRoot(String tagName, WikiParser parser) throws ParsingException, IOException {
+      if (structuredRoots == null) {
+         structuredRoots = new HashMap<String,Object>(2);
+      }
+      Object root = structuredRoots.get(tagName);
+      if (root == null) {
+         try {
+            root = parser.parseStructuredRoot(tagName, text);
+            if (root == null) {
+               root = NO_ROOT;
+            }
+         }
+         catch (ParsingException e) {
+            root = e;
+         }
+         structuredRoots.put(tagName, root);
+      }
+      return (Element)unwrap(root);
+   }
+
+   /**
+    * Return the root element of the structured data decoded by StructuredDocument, decoding it the first time it's asked for
+    */
+   synchronized StructuredElement getDecodedRoot(String tagName) throws ParsingException {
+      if (decodedRoots == null) {
+         decodedRoots = new HashMap<String,Object>(2);
+      }
+      Object root = decodedRoots.get(tagName);
+      if (root == null) {
+         try {
+            root = WikiParser.decodeStructuredRoot(tagName, text);
+            if (root == null) {
+               root = NO_ROOT;
+            }
+         }
+         catch (ParsingException e) {
+            root = e;
+         }
+         decodedRoots.put(tagName, root);
+      }
+      return (StructuredElement)unwrap(root);
+   }
+
+   private static Object unwrap(Object root) throws ParsingException {
+      if (root instanceof ParsingException) {
+         throw (ParsingException)root;
+      }
+      return (root == NO_ROOT ? null : root);
+   }
+}
@@ -16,32 +16,162 @@
 package org.folg.werelatedata.parser;
 
 import nu.xom.Builder;
+import nu.xom.Element;
 import nu.xom.ParsingException;
 
 import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.io.StringReader;
+import java.util.Set;
 import java.util.logging.Logger;
 
 /**
  * User: dallan
  * Date: 2/12/12
+ *
+ * Parsers added to a WikiReader that runs on several unordered worker threads are called concurrently,
+ * so they need to guard any state that they accumulate across pages.
  */
 public abstract class WikiParser {
    protected static final Logger logger = Logger.getLogger("org.folg.werelatedata.parser");
 
    public static final String XML_HEADER = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n";
 
-   private Builder builder;
+   private ThreadLocal<Builder> builder;
+
+   private static final ThreadLocal<RecordDecoder> recordDecoder = new ThreadLocal<RecordDecoder>() {
+      protected RecordDecoder initialValue() {
+         return new RecordDecoder();
+      }
+   };
 
 	public abstract void parse(String title, String text, int pageId, int latestRevId, String username, String timestamp, String comment) throws IOException, ParsingException;
 
    public WikiParser() {
-      builder = new Builder();
+      builder = new ThreadLocal<Builder>() {
+         protected Builder initialValue() {
+            return new Builder();
+         }
+      };
+   }
+
+   /**
+    * WikiReader calls this for each page instead of calling parse(String title, String text, ...) directly.
+    * The text may be a window onto a buffer that the reader reuses for the next page, so don't keep it after returning;
+    * call toString on anything you want to keep.
+    * Override this to read the text without copying it into a String; getStructuredElement and the get*Record methods accept it directly.
+    * By default it calls parse with the text as a String, which is created at most once per page and shared by every parser.
+    */
+   public void parse(String title, PageText text, int pageId, int latestRevId, String username, String timestamp, String comment)
+           throws IOException, ParsingException {
+      parse(title, text.toString(), pageId, latestRevId, username, timestamp, comment);
+   }
+
+   /**
+    * Return the ids (Util.NS_*) of the namespaces this parser wants to see, or null for all namespaces.
+    * WikiReader doesn't keep the text of pages that no parser wants.
+    * This is called for every page, so return the same set each time.
+    */
+   public Set<Integer> getNamespaces() {
+      return null;
+   }
+
+   /**
+    * Save the results accumulated so far when WikiReader writes a resume checkpoint.
+    * Parsers that accumulate results need to override this and readState for a WikiReader to resume after a crash;
+    * parsers that write output as they go will see the pages following the checkpoint again.
+    */
+   public void writeState(ObjectOutputStream out) throws IOException {
+   }
+
+   /**
+    * Restore the results saved by writeState when WikiReader resumes from a checkpoint
+    */
+   public void readState(ObjectInputStream in) throws IOException, ClassNotFoundException {
    }
 
    protected nu.xom.Document parseText(String text) throws ParsingException, IOException
 	{
-      return builder.build(new StringReader(XML_HEADER + text));
+      return builder.get().build(new StringReader(XML_HEADER + text));
+   }
+
+   /**
+    * Returns the root element of the structured text (see splitStructuredWikiText), or null if there isn't any structured text.
+    * When called from parse with the text passed to parse, the structured text is parsed at most once per page
+    * and the same element is returned to every parser, so don't modify it.
+    * @param tagName the name of the xml tag to search for
+    * @param text the text to search in
+    */
+   protected Element getStructuredRoot(String tagName, CharSequence text) throws ParsingException, IOException {
+      WikiPage page = WikiPage.current.get();
+      if (page != null && page.hasText(text)) {
+         return page.getStructuredRoot(tagName, this);
+      }
+      return parseStructuredRoot(tagName, text);
+   }
+
+   Element parseStructuredRoot(String tagName, CharSequence text) throws ParsingException, IOException {
+      PageText structuredData = PageText.wrap(text).getStructuredText(tagName);
+      if (structuredData == null || structuredData.isBlank()) {
+         return null;
+      }
+      return parseText(structuredData.toString()).getRootElement();
+   }
+
+   /**
+    * Like getStructuredRoot, but the structured text is decoded by StructuredDocument instead of XOM,
+    * which is much faster when a parser only reads a few attributes
+    * @param tagName the name of the xml tag to search for
+    * @param text the text to search in
+    */
+   protected StructuredElement getStructuredElement(String tagName, CharSequence text) throws ParsingException {
+      WikiPage page = WikiPage.current.get();
+      if (page != null && page.hasText(text)) {
+         return page.getDecodedRoot(tagName);
+      }
+      return decodeStructuredRoot(tagName, text);
+   }
+
+   static StructuredElement decodeStructuredRoot(String tagName, CharSequence text) throws ParsingException {
+      PageText structuredData = PageText.wrap(text).getStructuredText(tagName);
+      if (structuredData == null || structuredData.isBlank()) {
+         return null;
+      }
+      return StructuredDocument.parse(structuredData.toString()).getRootElement();
+   }
+
+   /**
+    * Return the decoded structured data of a person page, or null if there isn't any structured data.
+    * The record belongs to the calling thread and is refilled by the next call, so copy anything you want to keep.
+    */
+   protected PersonRecord getPersonRecord(CharSequence text) throws ParsingException {
+      StructuredElement root = getStructuredElement("person", text);
+      return (root == null ? null : recordDecoder.get().decodePerson(root));
+   }
+
+   /**
+    * Return the decoded structured data of a family page, or null if there isn't any structured data (see getPersonRecord)
+    */
+   protected FamilyRecord getFamilyRecord(CharSequence text) throws ParsingException {
+      StructuredElement root = getStructuredElement("family", text);
+      return (root == null ? null : recordDecoder.get().decodeFamily(root));
+   }
+
+   /**
+    * Return the decoded structured data of a place page, or null if there isn't any structured data (see getPersonRecord)
+    */
+   protected PlaceRecord getPlaceRecord(CharSequence text) throws ParsingException {
+      StructuredElement root = getStructuredElement("place", text);
+      return (root == null ? null : recordDecoder.get().decodePlace(root));
+   }
+
+   /**
+    * Return the decoded structured data of a source page, or null if there isn't any structured data (see getPersonRecord)
+    */
+   protected SourceRecord getSourceRecord(CharSequence text) throws ParsingException {
+      StructuredElement root = getStructuredElement("source", text);
+      return (root == null ? null : recordDecoder.get().decodeSource(root));
    }
 
    /**
@@ -17,20 +17,53 @@ package org.folg.werelatedata.parser;
 
 import nu.xom.*;
 
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
 import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.File;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.SequenceInputStream;
+import java.lang.management.ManagementFactory;
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Logger;
 import java.util.regex.Matcher;
+import java.util.zip.GZIPInputStream;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 
 /**
  * User: dallan
  * Date: 2/12/12
  */
 public class WikiReader extends NodeFactory {
+   /**
+    * XOM builds the dump through this NodeFactory; STAX pulls the fields straight from a streaming parser
+    * without creating any intermediate Element objects
+    */
+   public enum Engine { XOM, STAX }
+
    private static Logger logger = Logger.getLogger("org.folg.werelatedata.parser");
+   private static final int BUF_SIZE = 256 * 1024;
+   private static final int READ_AHEAD_CHUNKS = 16;
+   private static final AtomicInteger readerCount = new AtomicInteger();
+   private static final int RESUME_MAGIC = 0x57525253; // WRRS
+   private static final byte[] PAGE_START = "<page>".getBytes();
 
    private Nodes EMPTY = new Nodes();
    private boolean inTitle;
@@ -50,12 +83,46 @@ public class WikiReader extends NodeFactory {
    private String username;
    private String timestamp;
    private String comment;
-   private int cnt;
+   private int namespace;
    private List<WikiParser> parsers;
+   private List<RevisionParser> revisionParsers;
    private boolean skipRedirects;
+   private int threads;
+   private int queueSize;
+   private boolean ordered;
+   private PageDispatcher dispatcher;
+   private Engine engine;
+   private Set<Integer> namespaces;
+   private boolean capturePage;
+   private boolean latestRevisionOnly;
+   private boolean deferText;
+   private TextBuffer revisionText;
+   private TextBuffer latestRevisionText;
+   private String previousCheckpointFilename;
+   private String nextCheckpointFilename;
+   private PageCheckpoint previousCheckpoint;
+   private PageCheckpoint nextCheckpoint;
+   private BitSet seenPages;
+   private ReaderStats stats;
+   private List<ReaderListener> listeners;
+   private int reportInterval;
+   private boolean printProgress;
+   private boolean registerMBean;
+   private String resumeFilename;
+   private int resumeInterval;
+   private PageEndInputStream pageEnds;
+   private long streamBase;
+   private long pageEndOffset;
+   private long resumePages;
+
+   public WikiReader() {
+      this(Engine.XOM);
+   }
 
-    public WikiReader() {
+   public WikiReader(Engine engine) {
+      this.engine = engine;
       parsers = new ArrayList<WikiParser>();
+      revisionParsers = new ArrayList<RevisionParser>();
       inTitle = false;
       inText = false;
       inRevId = false;
@@ -65,19 +132,132 @@ public class WikiReader extends NodeFactory {
       inTimestamp = false;
       inComment = false;
       skipRedirects = true;
+      threads = 0;
+      queueSize = 1000;
+      ordered = false;
+      dispatcher = null;
+      latestRevisionOnly = false;
+      revisionText = new TextBuffer();
+      latestRevisionText = new TextBuffer();
+      previousCheckpointFilename = null;
+      nextCheckpointFilename = null;
+      stats = null;
+      listeners = new ArrayList<ReaderListener>();
+      reportInterval = 100000;
+      printProgress = true;
+      registerMBean = true;
+      resumeFilename = null;
+      resumeInterval = 0;
    }
 
    public void setSkipRedirects(boolean skipRedirects) {
         this.skipRedirects = skipRedirects;
    }
 
+   /**
+    * Run the parsers on worker threads instead of the xml parsing thread
+    * @param threads number of worker threads; 0 (the default) runs the parsers on the xml parsing thread
+    */
+   public void setThreads(int threads) {
+      this.threads = threads;
+   }
+
+   /**
+    * Set the maximum number of pages waiting to be parsed when running the parsers on worker threads
+    */
+   public void setQueueSize(int queueSize) {
+      this.queueSize = queueSize;
+   }
+
+   /**
+    * If ordered, each parser is given its own worker thread and sees pages in dump order.
+    * Otherwise (the default) the pages are spread over the worker threads and parsers must be thread-safe.
+    */
+   public void setOrdered(boolean ordered) {
+      this.ordered = ordered;
+   }
+
+   /**
+    * If set, the STAX engine copies revision text into reusable buffers instead of creating a String for every revision
+    * and throwing away all but the latest. When parsers run on the reading thread, the latest revision is handed to them
+    * as a PageText window onto the buffer, so a String is only created if a parser asks for one.
+    * The XOM engine always creates a String for every revision.
+    */
+   public void setLatestRevisionOnly(boolean latestRevisionOnly) {
+      this.latestRevisionOnly = latestRevisionOnly;
+   }
+
+   /**
+    * Only pass new and changed pages to the parsers.
+    * Pages are compared to the checkpoint written by the previous run, and parsers are told about deleted pages after the dump has been read.
+    * A checkpoint of this run is written at the end so the next run can use it.
+    * Every parser must be an IncrementalWikiParser that keeps the results of unchanged pages from run to run; read throws IllegalStateException otherwise.
+    * Use the same parsers from run to run, because pages outside the parsers' namespaces are compared by revision id only.
+    * @param previousFilename checkpoint written by the previous run; if null or the file doesn't exist, every page is new
+    * @param nextFilename file to write the checkpoint for this run to; may be null
+    */
+   public void setCheckpoint(String previousFilename, String nextFilename) {
+      this.previousCheckpointFilename = previousFilename;
+      this.nextCheckpointFilename = nextFilename;
+   }
+
+   /**
+    * Every interval pages, save the position of the last page read and the state of the parsers (see WikiParser.writeState) to a file.
+    * If the file exists when the dump is read, reading resumes from the saved position with the saved parser state,
+    * so a run that dies doesn't have to start over. The file is deleted once the whole dump has been read.
+    * Resume only with the same dump and the same parsers, added in the same order.
+    * Compressed dumps resume by decompressing and discarding everything before the saved position, which is still much faster than parsing it.
+    * @param filename resume checkpoint file
+    * @param interval number of pages between checkpoints
+    */
+   public void setResumeCheckpoint(String filename, int interval) {
+      this.resumeFilename = filename;
+      this.resumeInterval = interval;
+   }
+
+   /**
+    * Report progress to the listeners, and print it, every reportInterval pages; 0 turns off progress reports
+    */
+   public void setReportInterval(int reportInterval) {
+      this.reportInterval = reportInterval;
+   }
+
+   /**
+    * If set (the default), print a summary to System.out every report interval and at the end of the dump
+    */
+   public void setPrintProgress(boolean printProgress) {
+      this.printProgress = printProgress;
+   }
+
+   /**
+    * If set (the default), the statistics are registered as a JMX MBean while the dump is being read
+    */
+   public void setRegisterMBean(boolean registerMBean) {
+      this.registerMBean = registerMBean;
+   }
+
+   public void addReaderListener(ReaderListener listener) {
+      listeners.add(listener);
+   }
+
+   public void removeReaderListener(ReaderListener listener) {
+      listeners.remove(listener);
+   }
+
+   /**
+    * Return the statistics for the current or most recent read, or null if nothing has been read
+    */
+   public ReaderStats getStats() {
+      return stats;
+   }
+
    public Nodes makeComment(String data) {
        return EMPTY;
    }
 
    public Nodes makeText(String data) {
       if (inTitle) {
-         title = data;
+         setTitle(data);
       }
       else if (inText) {
          text = data;
@@ -122,10 +302,7 @@ public class WikiReader extends NodeFactory {
    public Element startMakingElement(String name, String namespace) {
       boolean keep = false;
       if (name.equals("page")) {
-         title = "";
-         latestRevId = 0;
-         latestText = "";
-         pageId = "";
+         startPage();
          keep = true;
       }
       else if (name.equals("title")) {
@@ -134,22 +311,18 @@ public class WikiReader extends NodeFactory {
       }
       else if (name.equals("revision")) {
          inRevision = true;
-         revId = "";
-         text = "";
-         username = "";
-         timestamp = "";
-         comment = "";
+         startRevision();
          keep = true;
       }
       else if (!inRevision && name.equals("id")) {
          inPageId = true;
          keep = true;
       }
-      else if (inRevision && name.equals("id") && revId.length() == 0) {  // ignore ID under page, and later id's under contributor
+      else if (inRevision && name.equals("id") && !hasRevId()) {  // ignore ID under page, and later id's under contributor
          inRevId = true;
          keep = true;
       }
-      else if (inRevision && name.equals("text")) {
+      else if (inRevision && name.equals("text") && isCapturePage()) {
          inText = true;
          keep = true;
       }
@@ -177,55 +350,483 @@ public class WikiReader extends NodeFactory {
       }
       String localName = element.getLocalName();
       if (localName.equals("revision")) {
-         if (revId.length() > 0) {
-            try {
-               int idNumber = Integer.parseInt(revId);
-               if (idNumber > latestRevId) {
-                  latestRevId = idNumber;
-                  latestText = text;
-               }
-               else {
-                  logger.warning("IDs (" + latestRevId + " -> " + revId + ") out of sequence for title: " + title);
+         endRevision();
+         inRevision = false;
+      }
+      else if (localName.equals("page")) {
+         endPage();
+      }
+      inTitle = false;
+      inText = false;
+      inRevId = false;
+      inPageId = false;
+      inUsername = false;
+      inTimestamp = false;
+      inComment = false;
+      return EMPTY;
+   }
+
+   // the following are called by both engines as they read the dump
+
+   void startPage() {
+      title = "";
+      latestRevId = 0;
+      latestText = "";
+      pageId = "";
+      namespace = Util.NS_MAIN;
+      capturePage = true;
+      latestRevisionText.clear();
+   }
+
+   void setTitle(String title) {
+      this.title = title;
+      namespace = Util.getNamespace(title);
+      capturePage = (namespaces == null || namespaces.contains(namespace));
+   }
+
+   /**
+    * Return false if no parser wants the current page, so its text doesn't need to be kept
+    */
+   boolean isCapturePage() {
+      return capturePage || !revisionParsers.isEmpty();
+   }
+
+   void setPageId(String pageId) {
+      this.pageId = pageId;
+   }
+
+   void startRevision() {
+      revId = "";
+      text = "";
+      username = "";
+      timestamp = "";
+      comment = "";
+      revisionText.clear();
+   }
+
+   /**
+    * Return true if the revision text should be appended to the revision text buffer instead of set as a String
+    */
+   boolean isBufferText() {
+      return deferText;
+   }
+
+   /**
+    * Return the buffer that the revision text is appended to when buffering text
+    */
+   TextBuffer getRevisionText() {
+      return revisionText;
+   }
+
+   boolean hasRevId() {
+      return revId.length() > 0;
+   }
+
+   void setRevId(String revId) {
+      this.revId = revId;
+   }
+
+   void setText(String text) {
+      this.text = text;
+   }
+
+   void setUsername(String username) {
+      this.username = username;
+   }
+
+   void setTimestamp(String timestamp) {
+      this.timestamp = timestamp;
+   }
+
+   void setComment(String comment) {
+      this.comment = comment;
+   }
+
+   void endRevision() {
+      if (revId.length() > 0) {
+         try {
+            int idNumber = Integer.parseInt(revId);
+            if (!revisionParsers.isEmpty()) {
+               invokeRevisionParsers(idNumber);
+            }
+            if (idNumber > latestRevId) {
+               latestRevId = idNumber;
+               latestText = text;
+               if (deferText) {
+                  TextBuffer temp = latestRevisionText;
+                  latestRevisionText = revisionText;
+                  revisionText = temp;
                }
             }
-            catch (NumberFormatException e) {
-               logger.warning("Invalid ID: " + revId + " for title: " + title);
+            else {
+               logger.warning("IDs (" + latestRevId + " -> " + revId + ") out of sequence for title: " + title);
             }
          }
-         inRevision = false;
+         catch (NumberFormatException e) {
+            logger.warning("Invalid ID: " + revId + " for title: " + title);
+         }
       }
-      else if (localName.equals("page")) {
-         if (++cnt % 100000 == 0) {
-            System.out.print(".");
+   }
+
+   /**
+    * Set the position in the input stream following the current page
+    */
+   void setPageEnd(long position) {
+      pageEndOffset = (position < 0 ? -1 : streamBase + position);
+   }
+
+   void endPage() {
+      if (pageEnds != null) {
+         setPageEnd(pageEnds.nextPageEnd());
+      }
+      stats.pageRead(namespace);
+      if (reportInterval > 0 && stats.getPages() % reportInterval == 0) {
+         reportProgress();
+      }
+
+      PageText pageText;
+      if (deferText && capturePage) {
+         pageText = new PageText(latestRevisionText.getChars(), 0, latestRevisionText.length());
+      }
+      else {
+         pageText = new PageText(latestText);
+      }
+      Matcher m = Util.REDIRECT_PATTERN.matcher(pageText);
+      int id = getPageIdNumber();
+      if (title.length() == 0) {
+         logger.warning("empty title");
+      }
+      else if (id < 0) {
+         // invalid page ID, already logged
+      }
+      else if (!isChanged(pageText, id)) {
+         // same as the previous checkpoint
+      }
+      else if (!capturePage) {
+         // no parser wants this namespace
+         unseen(id);
+      }
+      else if (skipRedirects && m.lookingAt()) {
+         // logger.info("skipping redirect: " + title);
+         unseen(id);
+      }
+      else {
+         long start = System.nanoTime();
+         if (dispatcher != null) {
+            // the workers need their own copy of the text, since the buffer is reused for the next page
+            dispatcher.submit(new WikiPage(title, pageText.toString(), id, latestRevId, username, timestamp, comment));
+         }
+         else {
+            invokeParsers(parsers, new WikiPage(title, pageText, id, latestRevId, username, timestamp, comment));
          }
+         stats.pageParsed(System.nanoTime() - start);
+      }
 
-         Matcher m = Util.REDIRECT_PATTERN.matcher(latestText);
-         if (title.length() == 0) {
-            logger.warning("empty title");
+      if (resumeFilename != null && resumeInterval > 0 && stats.getPages() % resumeInterval == 0) {
+         try {
+            writeResumeCheckpoint();
          }
-         else if (skipRedirects && m.lookingAt()) {
-            // logger.info("skipping redirect: " + title);
+         catch (IOException e) {
+            logger.severe("Unable to write resume checkpoint: " + e);
+         }
+      }
+   }
+
+   /**
+    * Record the current page in the next checkpoint and return whether it's new or changed since the previous checkpoint
+    */
+   private boolean isChanged(PageText pageText, int id) {
+      if (previousCheckpoint == null && nextCheckpoint == null) {
+         return true;
+      }
+      long hash = (capturePage ? PageCheckpoint.hash(title, pageText) : 0);
+      if (nextCheckpoint != null) {
+         nextCheckpoint.add(id, latestRevId, namespace, hash);
+      }
+      if (previousCheckpoint != null) {
+         int i = previousCheckpoint.find(id);
+         if (i >= 0) {
+            seenPages.set(i);
+            return previousCheckpoint.isChanged(i, latestRevId, hash);
+         }
+      }
+      return true;
+   }
+
+   /**
+    * Return the current page's ID, or -1 after logging a warning if it isn't a valid number
+    */
+   private int getPageIdNumber() {
+      try {
+         return Integer.parseInt(pageId);
+      }
+      catch (NumberFormatException e) {
+         logger.warning("Invalid page ID: " + pageId + " for title: " + title);
+         return -1;
+      }
+   }
+
+   /**
+    * A changed page that isn't passed to the parsers is reported as deleted, so they drop what they found on it in the previous run
+    */
+   private void unseen(int id) {
+      if (previousCheckpoint != null) {
+         int i = previousCheckpoint.find(id);
+         if (i >= 0) {
+            seenPages.clear(i);
+         }
+      }
+   }
+
+   private void reportDeletedPages() throws IOException {
+      for (int i = seenPages.nextClearBit(0); i < previousCheckpoint.size(); i = seenPages.nextClearBit(i+1)) {
+         int namespace = previousCheckpoint.getNamespace(i);
+         for (WikiParser parser : parsers) {
+            Set<Integer> parserNamespaces = parser.getNamespaces();
+            if (parserNamespaces == null || parserNamespaces.contains(namespace)) {
+               ((IncrementalWikiParser)parser).deleted(previousCheckpoint.getPageId(i));
+            }
+         }
+      }
+   }
+
+   private void checkIncremental() {
+      for (WikiParser parser : parsers) {
+         if (!(parser instanceof IncrementalWikiParser) || !((IncrementalWikiParser)parser).isIncremental()) {
+            throw new IllegalStateException(parser.getClass().getName() +
+                    " doesn't keep its results from run to run, so it can't be given only the changed pages");
+         }
+      }
+   }
+
+   private void writeResumeCheckpoint() throws IOException {
+      if (pageEndOffset < 0) {
+         logger.warning("Unknown position for title: " + title);
+         return;
+      }
+      if (dispatcher != null) {
+         dispatcher.pause();
+      }
+      try {
+         File file = new File(resumeFilename);
+         File temp = new File(resumeFilename + ".tmp");
+         ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(temp), BUF_SIZE));
+         try {
+            out.writeInt(RESUME_MAGIC);
+            out.writeLong(pageEndOffset);
+            out.writeLong(resumePages + stats.getPages());
+            out.writeBoolean(nextCheckpoint != null);
+            if (nextCheckpoint != null) {
+               nextCheckpoint.writeTo(out);
+            }
+            out.writeObject(seenPages);
+            for (WikiParser parser : parsers) {
+               out.writeUTF(parser.getClass().getName());
+               parser.writeState(out);
+            }
+         }
+         finally {
+            out.close();
+         }
+         if (file.exists() && !file.delete()) {
+            throw new IOException("Unable to replace " + resumeFilename);
+         }
+         if (!temp.renameTo(file)) {
+            throw new IOException("Unable to rename " + temp + " to " + resumeFilename);
+         }
+      }
+      finally {
+         if (dispatcher != null) {
+            dispatcher.resume();
+         }
+      }
+   }
+
+   /**
+    * Restore the state saved in the resume checkpoint and return the position to resume reading from
+    */
+   private long readResumeCheckpoint() throws IOException {
+      ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(new FileInputStream(resumeFilename), BUF_SIZE));
+      try {
+         if (in.readInt() != RESUME_MAGIC) {
+            throw new IOException("Not a resume checkpoint: " + resumeFilename);
+         }
+         long offset = in.readLong();
+         resumePages = in.readLong();
+         if (in.readBoolean()) {
+            PageCheckpoint checkpoint = PageCheckpoint.readFrom(in);
+            if (nextCheckpoint != null) {
+               nextCheckpoint = checkpoint;
+            }
+         }
+         BitSet seen = (BitSet)in.readObject();
+         if (previousCheckpoint != null && seen != null) {
+            seenPages = seen;
+         }
+         for (WikiParser parser : parsers) {
+            String className = in.readUTF();
+            if (!className.equals(parser.getClass().getName())) {
+               throw new IOException("Resume checkpoint was written for a different parser: " + className);
+            }
+            parser.readState(in);
+         }
+         return offset;
+      }
+      catch (ClassNotFoundException e) {
+         throw new IOException("Unable to read resume checkpoint: " + resumeFilename, e);
+      }
+      finally {
+         in.close();
+      }
+   }
+
+   /**
+    * Return a stream that starts with the dump's header followed by the page after offset
+    */
+   private InputStream skipTo(InputStream in, boolean pageStore, long offset) throws IOException {
+      byte[] header;
+      long consumed;
+      if (pageStore) {
+         header = new byte[8];
+         new DataInputStream(in).readFully(header);
+         consumed = header.length;
+      }
+      else {
+         header = readXmlHeader(in);
+         consumed = header.length + PAGE_START.length;
+      }
+      for (long remaining = offset - consumed; remaining > 0; ) {
+         long n = in.skip(remaining);
+         if (n <= 0) {
+            if (in.read() < 0) {
+               throw new EOFException("Resume position " + offset + " is past the end of the dump");
+            }
+            n = 1;
+         }
+         remaining -= n;
+      }
+      streamBase = offset - header.length;
+      return new SequenceInputStream(new ByteArrayInputStream(header), in);
+   }
+
+   /**
+    * Read everything up to and including the first page tag, and return what came before it
+    */
+   private static byte[] readXmlHeader(InputStream in) throws IOException {
+      ByteArrayOutputStream header = new ByteArrayOutputStream();
+      int matched = 0;
+      while (matched < PAGE_START.length) {
+         int b = in.read();
+         if (b < 0) {
+            throw new EOFException("No pages in dump");
+         }
+         header.write(b);
+         if (b == PAGE_START[matched]) {
+            matched++;
          }
          else {
-            for (WikiParser parser:parsers) {
-               try {
-                  parser.parse(title, latestText, Integer.parseInt(pageId), latestRevId, username, timestamp, comment);
-               } catch (IOException e) {
-                  logger.severe("IOException: " + e);
-               } catch (ParsingException e) {
-                  logger.severe("Parsing exception for title: " + title + " - " + e);
-               }
+            matched = (b == PAGE_START[0] ? 1 : 0);
+         }
+      }
+      byte[] bytes = header.toByteArray();
+      byte[] result = new byte[bytes.length - PAGE_START.length];
+      System.arraycopy(bytes, 0, result, 0, result.length);
+      return result;
+   }
+
+   private void invokeRevisionParsers(int revIdNumber) {
+      CharSequence revisionText = (deferText ? this.revisionText : text);
+      int pageIdNumber = getPageIdNumber();
+      if (pageIdNumber < 0) {
+         return;
+      }
+      for (RevisionParser parser : revisionParsers) {
+         ReaderStats.ParserStats parserStats = stats.getParserStats(parser);
+         long start = System.nanoTime();
+         try {
+            parser.parseRevision(title, pageIdNumber, revIdNumber, username, timestamp, comment, revisionText);
+         } catch (IOException e) {
+            parserStats.exception();
+            logger.severe("IOException: " + e);
+         } catch (ParsingException e) {
+            parserStats.exception();
+            logger.severe("Parsing exception for title: " + title + " revision: " + revIdNumber + " - " + e);
+         } finally {
+            parserStats.parsed(System.nanoTime() - start);
+         }
+      }
+   }
+
+   void invokeParsers(List<WikiParser> parsers, WikiPage page) {
+      WikiPage.current.set(page);  // lets the parsers share the page's structured data
+      try {
+         for (WikiParser parser:parsers) {
+            Set<Integer> parserNamespaces = parser.getNamespaces();
+            if (parserNamespaces != null && !parserNamespaces.contains(page.getNamespace())) {
+               continue;
+            }
+            ReaderStats.ParserStats parserStats = stats.getParserStats(parser);
+            long start = System.nanoTime();
+            try {
+               parser.parse(page.getTitle(), page.getPageText(), page.getPageId(), page.getLatestRevId(),
+                            page.getUsername(), page.getTimestamp(), page.getComment());
+            } catch (IOException e) {
+               parserStats.exception();
+               logger.severe("IOException: " + e);
+            } catch (ParsingException e) {
+               parserStats.exception();
+               logger.severe("Parsing exception for title: " + page.getTitle() + " - " + e);
+            } finally {
+               parserStats.parsed(System.nanoTime() - start);
             }
          }
       }
-      inTitle = false;
-      inText = false;
-      inRevId = false;
-      inPageId = false;
-      inUsername = false;
-      inTimestamp = false;
-      inComment = false;
-      return EMPTY;
+      finally {
+         WikiPage.current.remove();
+      }
+   }
+
+   private Set<Integer> getWantedNamespaces() {
+      Set<Integer> wanted = new HashSet<Integer>();
+      for (WikiParser parser : parsers) {
+         Set<Integer> parserNamespaces = parser.getNamespaces();
+         if (parserNamespaces == null) {
+            return null;
+         }
+         wanted.addAll(parserNamespaces);
+      }
+      return wanted;
+   }
+
+   private void reportProgress() {
+      if (printProgress) {
+         System.out.println(stats.getSummary());
+      }
+      for (ReaderListener listener : listeners) {
+         listener.progress(stats);
+      }
+   }
+
+   private ObjectName registerMBean() {
+      try {
+         MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+         ObjectName name = new ObjectName("org.folg.werelatedata:type=WikiReader,name=reader-" + readerCount.incrementAndGet());
+         server.registerMBean(stats, name);
+         return name;
+      }
+      catch (JMException e) {
+         logger.warning("Unable to register reader statistics: " + e);
+         return null;
+      }
+   }
+
+   private void unregisterMBean(ObjectName name) {
+      try {
+         ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+      }
+      catch (JMException e) {
+         logger.warning("Unable to unregister reader statistics: " + e);
+      }
    }
 
    public void addWikiParser(WikiParser parser) {
@@ -236,18 +837,131 @@ public class WikiReader extends NodeFactory {
       parsers.remove(parser);
    }
 
+   /**
+    * Add a parser that is called for every revision of every page, including pages that WikiParsers skip.
+    * Revision parsers are always called on the thread reading the dump, and aren't saved in resume checkpoints.
+    * A PageStore only has the latest revision of each page.
+    */
+   public void addRevisionParser(RevisionParser parser) {
+      revisionParsers.add(parser);
+   }
+
+   public void removeRevisionParser(RevisionParser parser) {
+      revisionParsers.remove(parser);
+   }
+
+   /**
+    * Open a dump file for reading.
+    * Files ending in .gz or .bz2 are decompressed on a separate thread so that decompression overlaps with parsing.
+    * @param filename pages.xml, pages.xml.gz, pages.xml.bz2, or a PageStore
+    */
+   public static InputStream openDump(String filename) throws IOException {
+      InputStream in = new BufferedInputStream(new FileInputStream(filename), BUF_SIZE);
+      if (filename.endsWith(".gz")) {
+         in = new GZIPInputStream(in, BUF_SIZE);
+      }
+      else if (filename.endsWith(".bz2")) {
+         in = new BZip2CompressorInputStream(in, true);
+      }
+      else {
+         return in;
+      }
+      return new ReadAheadInputStream(in, BUF_SIZE, READ_AHEAD_CHUNKS);
+   }
+
    public void read(String filename) throws ParsingException, IOException {
-      InputStream in = new FileInputStream(filename);
-      read(in);
-      in.close();
+      InputStream in = openDump(filename);
+      try {
+         read(in);
+      }
+      finally {
+         in.close();
+      }
    }
 
+   /**
+    * Read a dump or a PageStore
+    */
    public void read(InputStream in) throws ParsingException, IOException {
       title = null;
-      cnt = 0;
-      System.out.print("Reading");
-      Builder builder = new Builder(this);
-      builder.build(in);
-      System.out.println();
+      stats = new ReaderStats(parsers, revisionParsers);
+      if (!in.markSupported()) {
+         in = new BufferedInputStream(in, BUF_SIZE);
+      }
+      boolean pageStore = PageStore.isPageStore(in);
+      namespaces = getWantedNamespaces();
+      deferText = ((latestRevisionOnly || !revisionParsers.isEmpty()) && engine == Engine.STAX && !pageStore);
+      if (previousCheckpointFilename != null || nextCheckpointFilename != null) {
+         checkIncremental();
+      }
+      previousCheckpoint = null;
+      if (previousCheckpointFilename != null && new File(previousCheckpointFilename).exists()) {
+         previousCheckpoint = PageCheckpoint.load(previousCheckpointFilename);
+         seenPages = new BitSet(previousCheckpoint.size());
+      }
+      nextCheckpoint = (nextCheckpointFilename != null ? new PageCheckpoint() : null);
+      streamBase = 0;
+      pageEndOffset = -1;
+      resumePages = 0;
+      if (resumeFilename != null && new File(resumeFilename).exists()) {
+         long offset = readResumeCheckpoint();
+         in = skipTo(in, pageStore, offset);
+         logger.info("Resuming after " + resumePages + " pages at position " + offset);
+      }
+      in = new CountingInputStream(in, stats);
+      pageEnds = null;
+      if (resumeFilename != null && !pageStore) {
+         pageEnds = new PageEndInputStream(in);
+         in = pageEnds;
+      }
+      if (threads > 0 || ordered) {
+         dispatcher = new PageDispatcher(this, parsers, threads, queueSize, ordered);
+      }
+      ObjectName mbeanName = (registerMBean ? registerMBean() : null);
+      try {
+         if (pageStore) {
+            new PageStoreEngine(this).read(in);
+         }
+         else if (engine == Engine.STAX) {
+            new StaxEngine(this).read(in);
+         }
+         else {
+            Builder builder = new Builder(this);
+            builder.build(in);
+         }
+         if (dispatcher != null) {
+            dispatcher.finish();
+         }
+         stats.finish();
+         if (previousCheckpoint != null) {
+            reportDeletedPages();
+         }
+         if (nextCheckpoint != null) {
+            nextCheckpoint.write(nextCheckpointFilename);
+         }
+         if (resumeFilename != null) {
+            new File(resumeFilename).delete();
+         }
+      }
+      finally {
+         pageEnds = null;
+         previousCheckpoint = null;
+         nextCheckpoint = null;
+         seenPages = null;
+         if (dispatcher != null) {
+            dispatcher.stop();
+            dispatcher = null;
+         }
+         if (mbeanName != null) {
+            unregisterMBean(mbeanName);
+         }
+      }
+      if (printProgress) {
+         System.out.println(stats.getSummary());
+         System.out.println(stats.getNamespaceSummary());
+      }
+      for (ReaderListener listener : listeners) {
+         listener.finished(stats);
+      }
    }
 }
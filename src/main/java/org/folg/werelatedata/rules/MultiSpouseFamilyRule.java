@@ -0,0 +1,51 @@
+/*
+ * Copyright 2012 Foundation for On-Line Genealogy, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.folg.werelatedata.rules;
+
+import nu.xom.ParsingException;
+import org.folg.werelatedata.parser.FamilyRecord;
+import org.folg.werelatedata.parser.Util;
+
+/**
+ * Matches families with unlikely spouse combinations
+ */
+public class MultiSpouseFamilyRule extends Rule {
+   private final boolean sameGender;
+
+   /**
+    * @param sameGender if true, match families with two or more husbands or wives and none of the other;
+    * otherwise match families with a husband and a wife and three or more spouses in all
+    */
+   public MultiSpouseFamilyRule(boolean sameGender) {
+      super(sameGender ? "multispouse-samegender" : "multispouse-diffgender", Util.NS_FAMILY);
+      this.sameGender = sameGender;
+   }
+
+   public boolean matches(RulePage page) throws ParsingException {
+      FamilyRecord family = page.getFamilyRecord();
+      if (family == null) {
+         return false;
+      }
+      int wives = family.getWifeCount();
+      int husbands = family.getHusbandCount();
+      if (sameGender) {
+         return (wives == 0 || husbands == 0) && wives + husbands > 1;
+      }
+      else {
+         return wives > 0 && husbands > 0 && wives + husbands > 2;
+      }
+   }
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright 2012 Foundation for On-Line Genealogy, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.folg.werelatedata.rules;
+
+import nu.xom.ParsingException;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * A data-quality check: a predicate over the pages in some namespaces.
+ * Rules are added to a RuleEngine, which lists the title of every page a rule matches.
+ * Rules are called concurrently when the engine runs on several threads, so they shouldn't keep state across pages.
+ */
+public abstract class Rule {
+   private final String name;
+   private final Set<Integer> namespaces;
+
+   /**
+    * @param name used to name the rule's output and in its hit count
+    * @param namespaces namespaces of the pages to check
+    */
+   protected Rule(String name, int... namespaces) {
+      this.name = name;
+      Set<Integer> set = new HashSet<Integer>();
+      for (int namespace : namespaces) {
+         set.add(namespace);
+      }
+      this.namespaces = Collections.unmodifiableSet(set);
+   }
+
+   public String getName() {
+      return name;
+   }
+
+   public Set<Integer> getNamespaces() {
+      return namespaces;
+   }
+
+   /**
+    * Return true if the page should be listed
+    */
+   public abstract boolean matches(RulePage page) throws IOException, ParsingException;
+}
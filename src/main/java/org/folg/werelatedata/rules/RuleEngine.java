@@ -0,0 +1,145 @@
+/*
+ * Copyright 2012 Foundation for On-Line Genealogy, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.folg.werelatedata.rules;
+
+import nu.xom.ParsingException;
+import org.folg.werelatedata.parser.FamilyRecord;
+import org.folg.werelatedata.parser.PageText;
+import org.folg.werelatedata.parser.PersonRecord;
+import org.folg.werelatedata.parser.PlaceRecord;
+import org.folg.werelatedata.parser.SourceRecord;
+import org.folg.werelatedata.parser.Util;
+import org.folg.werelatedata.parser.WikiParser;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs any number of rules in a single read of the dump.
+ * Each rule writes the titles of the pages it matches to its own output as a wiki list, and counts its hits.
+ * A page's records are decoded at most once however many rules check it.
+ * The engine is thread-safe, so it can run on a WikiReader's worker threads; the lines in each output are then in no particular order.
+ */
+public class RuleEngine extends WikiParser {
+   private final List<Rule> rules;
+   private final List<PrintWriter> outputs;
+   private final List<AtomicLong> hits;
+   private final Map<Integer,int[]> namespaceRules;
+
+   public RuleEngine() {
+      rules = new ArrayList<Rule>();
+      outputs = new ArrayList<PrintWriter>();
+      hits = new ArrayList<AtomicLong>();
+      namespaceRules = new HashMap<Integer,int[]>();
+   }
+
+   /**
+    * Add a rule; rules must be added before the dump is read
+    * @param out where the rule's matches are listed; it is closed by close
+    */
+   public void addRule(Rule rule, PrintWriter out) {
+      int index = rules.size();
+      rules.add(rule);
+      outputs.add(out);
+      hits.add(new AtomicLong());
+      for (Integer namespace : rule.getNamespaces()) {
+         int[] indexes = namespaceRules.get(namespace);
+         indexes = (indexes == null ? new int[1] : Arrays.copyOf(indexes, indexes.length + 1));
+         indexes[indexes.length - 1] = index;
+         namespaceRules.put(namespace, indexes);
+      }
+   }
+
+   public List<Rule> getRules() {
+      return rules;
+   }
+
+   /**
+    * Return the number of pages the rule has matched
+    */
+   public long getHits(Rule rule) {
+      return hits.get(rules.indexOf(rule)).get();
+   }
+
+   public Set<Integer> getNamespaces() {
+      return namespaceRules.keySet();
+   }
+
+   public void parse(String title, String text, int pageId, int latestRevId, String username, String timestamp, String comment)
+           throws IOException, ParsingException {
+      parse(title, new PageText(text), pageId, latestRevId, username, timestamp, comment);
+   }
+
+   public void parse(String title, PageText text, int pageId, int latestRevId, String username, String timestamp, String comment)
+           throws IOException, ParsingException {
+      int namespace = Util.getNamespace(title);
+      int[] indexes = namespaceRules.get(namespace);
+      if (indexes == null) {
+         return;
+      }
+      RulePage page = new RulePage(this, title, text, namespace, username);
+      for (int index : indexes) {
+         if (rules.get(index).matches(page)) {
+            hits.get(index).incrementAndGet();
+            PrintWriter out = outputs.get(index);
+            synchronized (out) {
+               out.println("* [["+title+"]]");
+            }
+         }
+      }
+   }
+
+   PersonRecord decodePerson(PageText text) throws ParsingException {
+      return getPersonRecord(text);
+   }
+
+   FamilyRecord decodeFamily(PageText text) throws ParsingException {
+      return getFamilyRecord(text);
+   }
+
+   PlaceRecord decodePlace(PageText text) throws ParsingException {
+      return getPlaceRecord(text);
+   }
+
+   SourceRecord decodeSource(PageText text) throws ParsingException {
+      return getSourceRecord(text);
+   }
+
+   /**
+    * Log the number of hits for each rule
+    */
+   public void logHits() {
+      for (int i = 0; i < rules.size(); i++) {
+         logger.info(rules.get(i).getName() + ": " + hits.get(i).get());
+      }
+   }
+
+   /**
+    * Close the rules' outputs
+    */
+   public void close() {
+      for (PrintWriter out : outputs) {
+         out.close();
+      }
+   }
+}
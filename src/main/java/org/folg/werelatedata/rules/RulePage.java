@@ -0,0 +1,118 @@
+/*
+ * Copyright 2012 Foundation for On-Line Genealogy, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.folg.werelatedata.rules;
+
+import nu.xom.ParsingException;
+import org.folg.werelatedata.parser.FamilyRecord;
+import org.folg.werelatedata.parser.PageText;
+import org.folg.werelatedata.parser.PersonRecord;
+import org.folg.werelatedata.parser.PlaceRecord;
+import org.folg.werelatedata.parser.SourceRecord;
+
+/**
+ * The page a rule is checking.
+ * Records are decoded the first time a rule asks for them and shared by the other rules that check the page;
+ * they belong to the thread and are only valid until the rule returns.
+ */
+public class RulePage {
+   private final RuleEngine engine;
+   private final String title;
+   private final PageText text;
+   private final int namespace;
+   private final String username;
+   private PersonRecord person;
+   private FamilyRecord family;
+   private PlaceRecord place;
+   private SourceRecord source;
+   private boolean personDecoded;
+   private boolean familyDecoded;
+   private boolean placeDecoded;
+   private boolean sourceDecoded;
+
+   RulePage(RuleEngine engine, String title, PageText text, int namespace, String username) {
+      this.engine = engine;
+      this.title = title;
+      this.text = text;
+      this.namespace = namespace;
+      this.username = username;
+   }
+
+   /**
+    * Return the full title, including namespace
+    */
+   public String getTitle() {
+      return title;
+   }
+
+   public PageText getText() {
+      return text;
+   }
+
+   public int getNamespace() {
+      return namespace;
+   }
+
+   /**
+    * Return the user who made the latest revision
+    */
+   public String getUsername() {
+      return username;
+   }
+
+   /**
+    * Return the decoded person record, or null if the page has no &lt;person&gt; section
+    */
+   public PersonRecord getPersonRecord() throws ParsingException {
+      if (!personDecoded) {
+         person = engine.decodePerson(text);
+         personDecoded = true;
+      }
+      return person;
+   }
+
+   /**
+    * Return the decoded family record, or null if the page has no &lt;family&gt; section
+    */
+   public FamilyRecord getFamilyRecord() throws ParsingException {
+      if (!familyDecoded) {
+         family = engine.decodeFamily(text);
+         familyDecoded = true;
+      }
+      return family;
+   }
+
+   /**
+    * Return the decoded place record, or null if the page has no &lt;place&gt; section
+    */
+   public PlaceRecord getPlaceRecord() throws ParsingException {
+      if (!placeDecoded) {
+         place = engine.decodePlace(text);
+         placeDecoded = true;
+      }
+      return place;
+   }
+
+   /**
+    * Return the decoded source record, or null if the page has no &lt;source&gt; section
+    */
+   public SourceRecord getSourceRecord() throws ParsingException {
+      if (!sourceDecoded) {
+         source = engine.decodeSource(text);
+         sourceDecoded = true;
+      }
+      return source;
+   }
+}
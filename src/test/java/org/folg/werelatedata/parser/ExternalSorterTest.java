@@ -0,0 +1,212 @@
+/*
+ * Copyright 2012 Foundation for On-Line Genealogy, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.folg.werelatedata.parser;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs ExternalSorter with a tiny budget so that records are spilled and merged from many runs
+ */
+public class ExternalSorterTest {
+   private static final int RECORD_BYTES = 16;
+
+   private File spillDir;
+
+   @Before
+   public void createSpillDir() throws IOException {
+      spillDir = File.createTempFile("sorter-test", "");
+      assertTrue(spillDir.delete() && spillDir.mkdir());
+   }
+
+   @After
+   public void deleteSpillDir() {
+      File[] files = spillDir.listFiles();
+      if (files != null) {
+         for (File file : files) {
+            file.delete();
+         }
+      }
+      spillDir.delete();
+   }
+
+   @Test
+   public void sortsAcrossRuns() throws IOException {
+      ExternalSorter<Record> sorter = new ExternalSorter<Record>(CODEC, BY_KEY, new MemoryBudget(1000, spillDir));
+      List<Record> expected = new ArrayList<Record>();
+      Random random = new Random(1);
+      for (int i = 0; i < 5000; i++) {
+         Record record = new Record(random.nextInt(1000), i);
+         sorter.add(record);
+         expected.add(record);
+      }
+      // more runs than are merged at once
+      assertTrue(sorter.getRunCount() > 64);
+      Collections.sort(expected, BY_KEY);
+      assertEquals(expected, readAll(sorter));
+      // sorted can be called again
+      assertEquals(expected, readAll(sorter));
+      sorter.close();
+      assertEquals(0, spillDir.listFiles().length);
+   }
+
+   @Test
+   public void isStable() throws IOException {
+      ExternalSorter<Record> sorter = new ExternalSorter<Record>(CODEC, BY_KEY, new MemoryBudget(1000, spillDir));
+      for (int i = 0; i < 3000; i++) {
+         sorter.add(new Record((i * 7) % 10, i));
+      }
+      assertTrue(sorter.getRunCount() > 1);
+      List<Record> records = readAll(sorter);
+      assertEquals(3000, records.size());
+      for (int i = 1; i < records.size(); i++) {
+         Record previous = records.get(i-1);
+         Record record = records.get(i);
+         assertTrue(previous.key < record.key || (previous.key == record.key && previous.seq < record.seq));
+      }
+      sorter.close();
+   }
+
+   @Test
+   public void distinctKeepsLastRecord() throws IOException {
+      ExternalSorter<Record> sorter = new ExternalSorter<Record>(CODEC, BY_KEY, new MemoryBudget(1000, spillDir));
+      sorter.setDistinct(true);
+      for (int i = 0; i < 3000; i++) {
+         sorter.add(new Record(i % 100, i));
+      }
+      assertTrue(sorter.getRunCount() > 1);
+      List<Record> records = readAll(sorter);
+      assertEquals(100, records.size());
+      for (int key = 0; key < 100; key++) {
+         assertEquals(new Record(key, 2900 + key), records.get(key));
+      }
+      sorter.close();
+   }
+
+   @Test
+   public void combinesShards() throws IOException {
+      MemoryBudget budget = new MemoryBudget(1000, spillDir);
+      ExternalSorter<Record> first = new ExternalSorter<Record>(CODEC, BY_KEY, budget);
+      ExternalSorter<Record> second = new ExternalSorter<Record>(CODEC, BY_KEY, budget);
+      first.setDistinct(true);
+      for (int i = 0; i < 1000; i++) {
+         first.add(new Record(i % 50, i));
+         second.add(new Record(i % 50, 1000 + i));
+      }
+      first.addAll(second);
+      assertEquals(0, second.size());
+      List<Record> records = readAll(first);
+      assertEquals(50, records.size());
+      for (int key = 0; key < 50; key++) {
+         assertEquals(new Record(key, 1950 + key), records.get(key));
+      }
+      first.close();
+      second.close();
+      assertEquals(0, budget.getUsed());
+   }
+
+   @Test
+   public void staysNearSharedBudget() throws IOException {
+      int sorterCount = 40;
+      long bytes = 40000;
+      MemoryBudget budget = new MemoryBudget(bytes, spillDir);
+      List<ExternalSorter<Record>> sorters = new ArrayList<ExternalSorter<Record>>();
+      for (int i = 0; i < sorterCount; i++) {
+         sorters.add(new ExternalSorter<Record>(CODEC, BY_KEY, budget));
+      }
+      // buffers that are too small to spill stay within the budget, and each sorter has at most one run being written
+      long limit = 2 * bytes + 2 * sorterCount * RECORD_BYTES;
+      for (int i = 0; i < 50000; i++) {
+         sorters.get(i % sorterCount).add(new Record(i, i));
+         assertFalse("used " + budget.getUsed(), budget.getUsed() > limit);
+      }
+      long size = 0;
+      for (ExternalSorter<Record> sorter : sorters) {
+         size += readAll(sorter).size();
+         sorter.close();
+      }
+      assertEquals(50000, size);
+      assertEquals(0, budget.getUsed());
+   }
+
+   private static List<Record> readAll(ExternalSorter<Record> sorter) throws IOException {
+      List<Record> records = new ArrayList<Record>();
+      ExternalSorter.SortedRecords<Record> sorted = sorter.sorted();
+      while (sorted.hasNext()) {
+         records.add(sorted.next());
+      }
+      return records;
+   }
+
+   private static class Record {
+      final int key;
+      final int seq;
+
+      Record(int key, int seq) {
+         this.key = key;
+         this.seq = seq;
+      }
+
+      public boolean equals(Object o) {
+         return o instanceof Record && ((Record)o).key == key && ((Record)o).seq == seq;
+      }
+
+      public int hashCode() {
+         return key * 31 + seq;
+      }
+
+      public String toString() {
+         return key + "/" + seq;
+      }
+   }
+
+   private static final Comparator<Record> BY_KEY = new Comparator<Record>() {
+      public int compare(Record r1, Record r2) {
+         return (r1.key < r2.key ? -1 : (r1.key == r2.key ? 0 : 1));
+      }
+   };
+
+   private static final RecordCodec<Record> CODEC = new RecordCodec<Record>() {
+      public void write(DataOutput out, Record record) throws IOException {
+         out.writeInt(record.key);
+         out.writeInt(record.seq);
+      }
+
+      public Record read(DataInput in) throws IOException {
+         int key = in.readInt();
+         return new Record(key, in.readInt());
+      }
+
+      public long sizeOf(Record record) {
+         return RECORD_BYTES;
+      }
+   };
+}
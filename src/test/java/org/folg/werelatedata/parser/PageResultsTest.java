@@ -0,0 +1,92 @@
+/*
+ * Copyright 2012 Foundation for On-Line Genealogy, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.folg.werelatedata.parser;
+
+import org.junit.Test;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Carries page results from one run to the next, with a budget small enough to spill them to disk
+ */
+public class PageResultsTest {
+   private static final RecordCodec<String> CODEC = new RecordCodec<String>() {
+      public void write(DataOutput out, String record) throws IOException {
+         out.writeUTF(record);
+      }
+
+      public String read(DataInput in) throws IOException {
+         return in.readUTF();
+      }
+
+      public long sizeOf(String record) {
+         return MemoryBudget.sizeOf(record);
+      }
+   };
+
+   @Test
+   public void replacesChangedAndDeletedPages() throws IOException {
+      File file = File.createTempFile("page-results", ".bin");
+      file.delete();
+      try {
+         PageResults<String> first = new PageResults<String>(CODEC, new MemoryBudget(1000, null));
+         first.load(file.getPath()); // doesn't exist yet
+         for (int pageId = 1; pageId <= 1000; pageId++) {
+            first.put(pageId, "first " + pageId);
+         }
+         first.put(1000000, "large id");
+         first.save(file.getPath());
+         first.close();
+
+         PageResults<String> second = new PageResults<String>(CODEC, new MemoryBudget(1000, null));
+         second.load(file.getPath());
+         second.put(5, "second 5");
+         second.put(6, null);
+         second.remove(7);
+         second.put(2000, "second 2000");
+         second.save(file.getPath());
+         second.close();
+
+         PageResults<String> third = new PageResults<String>(CODEC, null);
+         third.load(file.getPath());
+         List<Integer> pageIds = new ArrayList<Integer>();
+         List<String> results = new ArrayList<String>();
+         PageResults.Results<String> it = third.results();
+         while (it.hasNext()) {
+            results.add(it.next());
+            pageIds.add(it.getPageId());
+         }
+         third.close();
+
+         assertEquals(1000, results.size());
+         assertEquals(Arrays.asList(1, 2, 3, 4, 5, 8), pageIds.subList(0, 6));
+         assertEquals(Arrays.asList("first 1", "first 2", "first 3", "first 4", "second 5", "first 8"), results.subList(0, 6));
+         assertEquals(Arrays.asList(1000, 2000, 1000000), pageIds.subList(997, 1000));
+         assertEquals(Arrays.asList("first 1000", "second 2000", "large id"), results.subList(997, 1000));
+      }
+      finally {
+         file.delete();
+      }
+   }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2012 Foundation for On-Line Genealogy, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.folg.werelatedata.parser;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks PostingLists against sorted sets, before and after a round trip through write and read
+ */
+public class PostingListsTest {
+   @Test
+   public void roundTrip() throws IOException {
+      PostingLists lists = new PostingLists();
+      Map<String,Set<Integer>> expected = new TreeMap<String,Set<Integer>>();
+      Random random = new Random(1);
+      for (int i = 0; i < 20000; i++) {
+         // mostly increasing values, with some out of order, some repeated, and some large enough to need 5 bytes
+         String key = "key" + random.nextInt(2000);
+         int value = (random.nextInt(10) == 0 ? random.nextInt(Integer.MAX_VALUE) : i + random.nextInt(50));
+         add(lists, expected, key, value);
+      }
+      add(lists, expected, "empty-ish", 0);
+      assertSame(expected, lists);
+
+      PostingLists copy = copy(lists);
+      assertSame(expected, copy);
+      assertEquals(lists.getEncodedSize(), copy.getEncodedSize());
+
+      // the copy can be added to, in order and out of order
+      for (int i = 0; i < 2000; i++) {
+         String key = "key" + random.nextInt(2100);
+         int value = (random.nextBoolean() ? 30000 + i : random.nextInt(30000));
+         add(copy, expected, key, value);
+      }
+      assertSame(expected, copy);
+   }
+
+   @Test
+   public void appendTo() {
+      PostingLists lists = new PostingLists();
+      lists.add("a", 300);
+      lists.add("a", 5);
+      lists.add("a", 70000);
+      lists.add("a", 5);
+      StringBuilder buf = new StringBuilder("a|");
+      lists.appendTo("a", buf, ',');
+      lists.appendTo("missing", buf, ',');
+      assertEquals("a|5,300,70000", buf.toString());
+   }
+
+   private static void add(PostingLists lists, Map<String,Set<Integer>> expected, String key, int value) {
+      lists.add(key, value);
+      Set<Integer> values = expected.get(key);
+      if (values == null) {
+         values = new TreeSet<Integer>();
+         expected.put(key, values);
+      }
+      values.add(value);
+   }
+
+   private static PostingLists copy(PostingLists lists) throws IOException {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      DataOutputStream out = new DataOutputStream(bytes);
+      lists.write(out);
+      out.close();
+      return PostingLists.read(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+   }
+
+   private static void assertSame(Map<String,Set<Integer>> expected, PostingLists lists) {
+      assertArrayEquals(expected.keySet().toArray(new String[0]), lists.getKeys());
+      for (Map.Entry<String,Set<Integer>> entry : expected.entrySet()) {
+         int[] values = new int[entry.getValue().size()];
+         int i = 0;
+         for (int value : entry.getValue()) {
+            values[i++] = value;
+         }
+         assertEquals(values.length, lists.getCount(entry.getKey()));
+         assertArrayEquals(values, lists.get(entry.getKey()));
+      }
+   }
+}
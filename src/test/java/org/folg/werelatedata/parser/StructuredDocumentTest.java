@@ -0,0 +1,135 @@
+/*
+ * Copyright 2012 Foundation for On-Line Genealogy, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.folg.werelatedata.parser;
+
+import nu.xom.Builder;
+import nu.xom.Document;
+import nu.xom.Element;
+import nu.xom.Elements;
+import nu.xom.ParsingException;
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.fail;
+
+/**
+ * Parses the same text with StructuredDocument and XOM and checks that they agree
+ */
+public class StructuredDocumentTest {
+   private final Builder builder = new Builder();
+
+   @Test
+   public void comments() throws Exception {
+      assertSame("<!----><a>x</a>");
+      assertSame("<a>x<!---->y</a>");
+      assertSame("<!-- one --><!-- two --><a><!--three--><!--four-->x</a><!---->");
+      assertSame("<a><!-- - single dashes - are fine --></a>");
+   }
+
+   @Test
+   public void cdata() throws Exception {
+      assertSame("<a><![CDATA[<b>&amp;</b>]]></a>");
+      assertSame("<a>x<![CDATA[]]>y<![CDATA[ ]] ]]>z</a>");
+   }
+
+   @Test
+   public void references() throws Exception {
+      assertSame("<a b=\"&lt;&amp;&gt;&quot;&apos;\">&lt;&amp;&gt;&quot;&apos;</a>");
+      assertSame("<a b='&#65;&#x42;'>&#65;&#x42;&#x1F600;</a>");
+      assertSame("<a b=\"x&#10;y\tz\">x\r\ny</a>");
+   }
+
+   @Test
+   public void namespaces() throws Exception {
+      assertSame("<a xmlns=\"http://example.org/a\"><b c=\"d\">x</b></a>");
+      assertSame("<p:a xmlns:p=\"http://example.org/p\"><p:b>x</p:b></p:a>");
+      assertSame("<a xmlns:p='http://example.org/p'><b><c p:d=\"e\" xml:lang=\"en\"/></b></a>");
+   }
+
+   @Test
+   public void structure() throws Exception {
+      assertSame("<person><name given=\"John\" surname=\"Smith\"/><event type=\"Birth\" date=\"1 Jan 1800\"/>"
+              + "<event type=\"Death\">in <b>Ohio</b></event></person>");
+      assertSame("  <a/>\n");
+      assertSame("<?pi data?><a><?pi?></a>");
+   }
+
+   @Test
+   public void malformed() throws Exception {
+      assertBothReject("");
+      assertBothReject("<a>");
+      assertBothReject("<a></b>");
+      assertBothReject("<a><b></a></b>");
+      assertBothReject("<a/><b/>");
+      assertBothReject("<a>x</a>y");
+      assertBothReject("<a b=\"1\" b=\"2\"/>");
+      assertBothReject("<a b=c/>");
+      assertBothReject("<a>&unknown;</a>");
+      assertBothReject("<a>&#0;</a>");
+      assertBothReject("<a>x & y</a>");
+      assertBothReject("<a><!-- x -- y --></a>");
+      assertBothReject("<a><!-- x ---></a>");
+      assertBothReject("<a><!---></a>");
+      assertBothReject("<a><!-- x </a>");
+      assertBothReject("<a><![CDATA[x</a>");
+      assertBothReject("<a>\u0001</a>");
+      assertBothReject("<p:a>x</p:a>");
+      assertBothReject("<a><b xmlns:p=\"http://example.org/p\"/><c p:d=\"e\"/></a>");
+      assertBothReject("<a:b:c xmlns:a=\"http://example.org/a\"/>");
+      assertBothReject("<a><?xml version=\"1.0\"?></a>");
+   }
+
+   private void assertSame(String text) throws ParsingException, IOException {
+      Document expected = builder.build(text, null);
+      StructuredDocument actual = StructuredDocument.parse(text);
+      assertSame(expected.getRootElement(), actual.getRootElement());
+   }
+
+   private void assertSame(Element expected, StructuredElement actual) {
+      assertNotNull(actual);
+      assertEquals(expected.getLocalName(), actual.getLocalName());
+      for (int i = 0; i < expected.getAttributeCount(); i++) {
+         assertEquals(expected.getAttribute(i).getValue(), actual.getAttributeValue(expected.getAttribute(i).getQualifiedName()));
+      }
+      assertEquals(expected.getValue(), actual.getValue());
+      Elements expectedChildren = expected.getChildElements();
+      StructuredElements actualChildren = actual.getChildElements();
+      assertEquals(expectedChildren.size(), actualChildren.size());
+      for (int i = 0; i < expectedChildren.size(); i++) {
+         assertSame(expectedChildren.get(i), actualChildren.get(i));
+      }
+   }
+
+   private void assertBothReject(String text) throws IOException {
+      try {
+         builder.build(text, null);
+         fail("XOM accepted " + text);
+      }
+      catch (ParsingException e) {
+         // expected
+      }
+      try {
+         StructuredDocument.parse(text);
+         fail("StructuredDocument accepted " + text);
+      }
+      catch (ParsingException e) {
+         // expected
+      }
+   }
+}